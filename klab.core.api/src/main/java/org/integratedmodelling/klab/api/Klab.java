@@ -3,7 +3,6 @@ package org.integratedmodelling.klab.api;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.integratedmodelling.klab.api.collections.Pair;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.*;
@@ -151,15 +150,14 @@ public enum Klab {
     Concept getNonSemanticConcept(SemanticType semanticType);
 
     /**
-     * Return offset mappers (direct and inverse) for the passed space filling curve in the passed
-     * geometry.
+     * Return the offset mapper for the passed space filling curve in the passed geometry. Mappers
+     * are immutable and can be shared.
      *
      * @param geometry
      * @param spaceFillingCurve
      * @return
      */
-    Pair<Data.LongToLongArrayFunction, Data.LongArrayToLongFunction> getSpatialOffsetMapping(
-        Geometry geometry, Data.SpaceFillingCurve spaceFillingCurve);
+    Data.OffsetMapper getOffsetMapper(Geometry geometry, Data.SpaceFillingCurve spaceFillingCurve);
   }
 
   private Configuration configuration;
@@ -222,6 +222,9 @@ public interface ServicesAPI {
 
     String SUBSUMES = REASONER_BASE + "/subsumes";
 
+    /** POST a flat array of concept pairs, returns one boolean per pair. */
+    String SUBSUMES_ALL = REASONER_BASE + "/subsumesAll";
+
     String OPERANDS = REASONER_BASE + "/operands";
 
     String CHILDREN = REASONER_BASE + "/children";
@@ -234,6 +237,9 @@ public interface ServicesAPI {
 
     String ALL_PARENTS = REASONER_BASE + "/allParents";
 
+    /** POST an array of concepts, returns the collection of all parents for each. */
+    String ALL_PARENTS_BATCH = REASONER_BASE + "/allParentsBatch";
+
     String CLOSURE = REASONER_BASE + "/closure";
 
     String CORE_OBSERVABLE = REASONER_BASE + "/coreObservable";
@@ -242,6 +248,12 @@ public interface ServicesAPI {
 
     String DISTANCE = REASONER_BASE + "/distance";
 
+    /**
+     * POST an array with the target, the context (possibly null) and the candidates, returns the
+     * distance of each candidate.
+     */
+    String DISTANCES = REASONER_BASE + "/distances";
+
     String ROLES = REASONER_BASE + "/roles";
 
     String HAS_ROLE = REASONER_BASE + "/hasRole";
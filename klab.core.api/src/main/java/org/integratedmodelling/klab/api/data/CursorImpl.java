@@ -7,10 +7,8 @@ import java.util.PrimitiveIterator;
 
 public class CursorImpl extends NDCursor implements Data.Cursor {
 
-  private Data.LongArrayToLongFunction inverseMapper;
-  private Data.LongToLongArrayFunction mapper;
-  private Data.LongArrayToLongFunction desiredInverseMapper;
-  private Data.LongToLongArrayFunction desiredMapper;
+  private final Data.OffsetMapper mapper;
+  private Data.OffsetMapper desiredMapper;
 
   /**
    * Constructor for simple mapping of spatial offsets according to a filling curve
@@ -20,9 +18,7 @@ public class CursorImpl extends NDCursor implements Data.Cursor {
    */
   public CursorImpl(Geometry geometry, Data.SpaceFillingCurve spaceFillingCurve) {
     super(geometry, Order.FIRST_SLOWEST);
-    var mappers = spaceFillingCurve.offsetMappers(geometry);
-    this.mapper = mappers.getFirst();
-    this.inverseMapper = mappers.getSecond();
+    this.mapper = spaceFillingCurve.offsetMapper(geometry);
   }
 
   /**
@@ -37,10 +33,17 @@ public class CursorImpl extends NDCursor implements Data.Cursor {
       Data.SpaceFillingCurve desiredFillingCurve,
       Data.SpaceFillingCurve originalFillingCurve) {
     this(geometry, originalFillingCurve);
-    var mappers = desiredFillingCurve.offsetMappers(geometry);
-    this.desiredMapper = mappers.getFirst();
-    this.desiredInverseMapper = mappers.getSecond();
+    this.desiredMapper = desiredFillingCurve.offsetMapper(geometry);
+  }
 
+  /**
+   * The mapper between offsets and coordinates for the filling curve, which can be shared among
+   * threads.
+   *
+   * @return
+   */
+  public Data.OffsetMapper getOffsetMapper() {
+    return mapper;
   }
 
   @Override
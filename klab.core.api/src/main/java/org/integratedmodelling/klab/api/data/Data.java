@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator;
 import org.integratedmodelling.klab.api.Klab;
-import org.integratedmodelling.klab.api.collections.Pair;
 import org.integratedmodelling.klab.api.exceptions.KlabIllegalStateException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.Observable;
@@ -74,30 +73,59 @@ public interface Data {
     PrimitiveIterator.OfLong scan();
   }
 
-  /** Non-boxing mapper for extent offsets to n-dimensional coordinates. */
-  @FunctionalInterface
-  public interface LongToLongArrayFunction {
+  /**
+   * Bijection between the linear offsets of a distributed extent along a {@link SpaceFillingCurve}
+   * and the integer coordinates of its cells, in the order of the extent's shape (x, y, z), each
+   * starting at 0. Mappers have no mutable state and coordinate arrays are supplied by the caller,
+   * so one mapper can be shared by any number of threads and no objects are created per cell.
+   */
+  interface OffsetMapper {
+
+    int dimensions();
+
+    long size();
 
     /**
-     * Applies this function to the given argument.
+     * The offset of the cell at the passed coordinates, which are not modified.
      *
-     * @param value the function argument
-     * @return the function result
+     * @param coordinates
+     * @return
      */
-    long[] apply(long value);
-  }
+    long offset(long[] coordinates);
+
+    /**
+     * Fast path for {@link #offset(long[])} in two dimensions.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    long offset(long x, long y);
+
+    /**
+     * Compute the coordinates of the cell at the passed offset.
+     *
+     * @param offset
+     * @param coordinates the array to fill, with at least {@link #dimensions()} elements
+     * @return the passed array
+     */
+    long[] coordinates(long offset, long[] coordinates);
 
-  /** Non-boxing mapper for extent n-dimensional coordinates to linear offsets. */
-  @FunctionalInterface
-  public interface LongArrayToLongFunction {
+    /**
+     * The first coordinate of the cell at the passed offset.
+     *
+     * @param offset
+     * @return
+     */
+    long toX(long offset);
 
     /**
-     * Applies this function to the given argument.
+     * The second coordinate of the cell at the passed offset, 0 in one dimension.
      *
-     * @param value the function argument
-     * @return the function result
+     * @param offset
+     * @return
      */
-    long apply(long[] value);
+    long toY(long offset);
   }
 
   /**
@@ -141,12 +169,12 @@ public interface Data {
 
     public final int dimensions;
 
-    public Pair<LongToLongArrayFunction, LongArrayToLongFunction> offsetMappers(Geometry geometry) {
+    public OffsetMapper offsetMapper(Geometry geometry) {
       Klab.Configuration configuration = Klab.INSTANCE.getConfiguration();
       if (configuration == null) {
         throw new KlabIllegalStateException("k.LAB environment not configured");
       }
-      return configuration.getSpatialOffsetMapping(geometry, this);
+      return configuration.getOffsetMapper(geometry, this);
     }
 
     SpaceFillingCurve(int dimensions) {
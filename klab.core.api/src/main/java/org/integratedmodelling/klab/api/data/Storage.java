@@ -2,6 +2,7 @@ package org.integratedmodelling.klab.api.data;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.PrimitiveIterator;
 
 import org.integratedmodelling.klab.api.geometry.Geometry;
@@ -123,31 +124,208 @@ public interface Storage extends RuntimeAsset {
      * @param value
      */
     void fill(double value);
+
+    /**
+     * Receives consecutive chunks of a buffer's values. The chunk array is reused between calls.
+     */
+    @FunctionalInterface
+    interface DoubleChunkConsumer {
+
+      /**
+       * @param offset the storage offset of the first value
+       * @param chunk the values, which may be modified in place
+       * @param length the number of valid values in the chunk
+       * @return true if the modified chunk must be written back to the buffer
+       */
+      boolean accept(long offset, double[] chunk, int length);
+    }
+
+    /**
+     * Bulk read of consecutive values starting at the passed storage offset.
+     *
+     * @param offset
+     * @param destination
+     * @param length
+     */
+    void read(long offset, double[] destination, int length);
+
+    /**
+     * Bulk write of consecutive values starting at the passed storage offset. The values are
+     * added to the histogram in one pass over the source array.
+     *
+     * @param offset
+     * @param source
+     * @param length
+     */
+    void write(long offset, double[] source, int length);
+
+    /**
+     * Pass the whole buffer to the consumer in chunks sized to stay in cache, writing back the
+     * chunks it modifies. Much faster than scanning for any operation that can be expressed on
+     * arrays.
+     *
+     * @param consumer
+     */
+    void forEachChunk(DoubleChunkConsumer consumer);
   }
 
-  interface LongBuffer extends Buffer {
+  interface FloatBuffer extends Buffer {
+
+    interface FloatScanner extends PrimitiveIterator.OfLong {
+
+      float get();
+
+      float peek();
+
+      void add(float value);
+    }
+
+    @Override
+    FloatScanner scan();
+
+    float get(long offset);
+
+    void set(float value, long offset);
+
+    void fill(float value);
+
+    /**
+     * Receives consecutive chunks of a buffer's values. The chunk array is reused between calls.
+     */
+    @FunctionalInterface
+    interface FloatChunkConsumer {
+
+      /**
+       * @param offset the storage offset of the first value
+       * @param chunk the values, which may be modified in place
+       * @param length the number of valid values in the chunk
+       * @return true if the modified chunk must be written back to the buffer
+       */
+      boolean accept(long offset, float[] chunk, int length);
+    }
 
     /**
-     * Return the value at the current offset in the iterator and advance the iteration.
+     * Bulk read of consecutive values starting at the passed storage offset.
      *
-     * @return
+     * @param offset
+     * @param destination
+     * @param length
      */
-    long get();
+    void read(long offset, float[] destination, int length);
 
     /**
-     * Return the value at the current offset in the iterator without advancing the iteration.
+     * Bulk write of consecutive values starting at the passed storage offset. The values are
+     * added to the histogram in one pass over the source array.
      *
-     * @return
+     * @param offset
+     * @param source
+     * @param length
      */
-    long peek();
+    void write(long offset, float[] source, int length);
 
     /**
-     * Set the value at the current iterable offset and advance the iteration. Do not use after
-     * get()!
+     * Pass the whole buffer to the consumer in chunks sized to stay in cache, writing back the
+     * chunks it modifies. Much faster than scanning for any operation that can be expressed on
+     * arrays.
      *
-     * @param value
+     * @param consumer
+     */
+    void forEachChunk(FloatChunkConsumer consumer);
+  }
+
+  interface IntBuffer extends Buffer {
+
+    interface IntScanner extends PrimitiveIterator.OfLong {
+
+      int get();
+
+      int peek();
+
+      void add(int value);
+    }
+
+    @Override
+    IntScanner scan();
+
+    int get(long offset);
+
+    void set(int value, long offset);
+
+    void fill(int value);
+
+    /**
+     * Receives consecutive chunks of a buffer's values. The chunk array is reused between calls.
+     */
+    @FunctionalInterface
+    interface IntChunkConsumer {
+
+      /**
+       * @param offset the storage offset of the first value
+       * @param chunk the values, which may be modified in place
+       * @param length the number of valid values in the chunk
+       * @return true if the modified chunk must be written back to the buffer
+       */
+      boolean accept(long offset, int[] chunk, int length);
+    }
+
+    /**
+     * Bulk read of consecutive values starting at the passed storage offset.
+     *
+     * @param offset
+     * @param destination
+     * @param length
+     */
+    void read(long offset, int[] destination, int length);
+
+    /**
+     * Bulk write of consecutive values starting at the passed storage offset. The values are
+     * added to the histogram in one pass over the source array.
+     *
+     * @param offset
+     * @param source
+     * @param length
+     */
+    void write(long offset, int[] source, int length);
+
+    /**
+     * Pass the whole buffer to the consumer in chunks sized to stay in cache, writing back the
+     * chunks it modifies. Much faster than scanning for any operation that can be expressed on
+     * arrays.
+     *
+     * @param consumer
      */
-    void add(long value);
+    void forEachChunk(IntChunkConsumer consumer);
+  }
+
+  interface LongBuffer extends Buffer {
+
+    interface LongScanner extends PrimitiveIterator.OfLong {
+
+      /**
+       * Return the value at the current offset in the iterator and advance the iteration.
+       *
+       * @return
+       */
+      long get();
+
+      /**
+       * Return the value at the current offset in the iterator without advancing the iteration.
+       *
+       * @return
+       */
+      long peek();
+
+      /**
+       * Set the value at the current iterable offset and advance the iteration. Do not use after
+       * get()!
+       *
+       * @param value
+       */
+      void add(long value);
+    }
+
+    @Override
+    LongScanner scan();
 
     /**
      * Random access value. The offset is according to the overall fill curve and buffer-specific
@@ -171,6 +349,103 @@ public interface Storage extends RuntimeAsset {
      * @param value
      */
     void fill(long value);
+
+    /**
+     * Receives consecutive chunks of a buffer's values. The chunk array is reused between calls.
+     */
+    @FunctionalInterface
+    interface LongChunkConsumer {
+
+      /**
+       * @param offset the storage offset of the first value
+       * @param chunk the values, which may be modified in place
+       * @param length the number of valid values in the chunk
+       * @return true if the modified chunk must be written back to the buffer
+       */
+      boolean accept(long offset, long[] chunk, int length);
+    }
+
+    /**
+     * Bulk read of consecutive values starting at the passed storage offset.
+     *
+     * @param offset
+     * @param destination
+     * @param length
+     */
+    void read(long offset, long[] destination, int length);
+
+    /**
+     * Bulk write of consecutive values starting at the passed storage offset. The values are
+     * added to the histogram in one pass over the source array.
+     *
+     * @param offset
+     * @param source
+     * @param length
+     */
+    void write(long offset, long[] source, int length);
+
+    /**
+     * Pass the whole buffer to the consumer in chunks sized to stay in cache, writing back the
+     * chunks it modifies. Much faster than scanning for any operation that can be expressed on
+     * arrays.
+     *
+     * @param consumer
+     */
+    void forEachChunk(LongChunkConsumer consumer);
+  }
+
+  /** Presence/absence states, normally stored as a bitmap. */
+  interface BooleanBuffer extends Buffer {
+
+    interface BooleanScanner extends PrimitiveIterator.OfLong {
+
+      boolean get();
+
+      boolean peek();
+
+      void add(boolean value);
+    }
+
+    @Override
+    BooleanScanner scan();
+
+    boolean get(long offset);
+
+    void set(boolean value, long offset);
+
+    void fill(boolean value);
+  }
+
+  /**
+   * Categorical states (concepts, text or any other value) stored as integer keys in a dictionary
+   * shared by all the buffers of the same storage. Null values have no key.
+   */
+  interface KeyedBuffer extends Buffer {
+
+    interface KeyedScanner extends PrimitiveIterator.OfLong {
+
+      Object get();
+
+      Object peek();
+
+      void add(Object value);
+    }
+
+    @Override
+    KeyedScanner scan();
+
+    Object get(long offset);
+
+    void set(Object value, long offset);
+
+    void fill(Object value);
+
+    /**
+     * The dictionary of values for the integer keys, as in {@link Data#dataKey()}.
+     *
+     * @return
+     */
+    Map<Integer, String> dataKey();
   }
 
   default RuntimeAsset.Type classify() {
@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
 
 /**
  * The scope for an observation context and any observations made within it. The observation scope
@@ -309,6 +310,17 @@ public interface ContextScope extends SessionScope {
    */
   Dataflow getDataflow();
 
+  /**
+   * The maximum number of tasks that CPU-bound computations in this context should run at once.
+   * All contexts share the same processors, so this bounds the share taken by one context rather
+   * than reserving it.
+   *
+   * @return
+   */
+  default IntSupplier getParallelism() {
+    return () -> Runtime.getRuntime().availableProcessors();
+  }
+
   /**
    * Return the root context scope with the overall observer and the full observation graph.
    *
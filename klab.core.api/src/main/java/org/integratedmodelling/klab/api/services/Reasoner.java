@@ -13,6 +13,7 @@ import org.integratedmodelling.klab.api.services.reasoner.objects.SemanticSearch
 import org.integratedmodelling.klab.api.services.resources.ResourceSet;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +21,13 @@ import java.util.Map;
 /** The reasoner service collects all functionalities that use semantics in k.LAB. */
 public interface Reasoner extends KlabService {
 
+  /**
+   * Key of the knowledge version in the metadata of the reasoner's {@link ServiceStatus}. The
+   * version changes whenever knowledge is loaded or updated, so clients can use it to tell when
+   * the results of reasoning they have cached are no longer valid.
+   */
+  String KNOWLEDGE_VERSION = "klab.reasoner.knowledge.version";
+
   default String getServiceName() {
     return "klab.reasoner.service";
   }
@@ -86,6 +94,21 @@ public interface Reasoner extends KlabService {
    */
   boolean is(Semantics conceptImpl, Semantics other);
 
+  /**
+   * Batch version of {@link #is(Semantics, Semantics)} for when many checks are known in advance,
+   * so that remote reasoners can answer all of them in one request.
+   *
+   * @param pairs each pair contains the concept being checked and the possible subsumer
+   * @return the result for each pair, in the same order
+   */
+  default boolean[] is(List<Pair<Semantics, Semantics>> pairs) {
+    var ret = new boolean[pairs.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = is(pairs.get(i).getFirst(), pairs.get(i).getSecond());
+    }
+    return ret;
+  }
+
   /**
    * If the target is a union or intersection, return the operands. Otherwise return a singleton
    * with the target itself in it.
@@ -147,6 +170,20 @@ public interface Reasoner extends KlabService {
    */
   Collection<Concept> allParents(Semantics target);
 
+  /**
+   * Batch version of {@link #allParents(Semantics)}.
+   *
+   * @param targets
+   * @return the parents of each target, in the same order
+   */
+  default List<Collection<Concept>> allParents(List<? extends Semantics> targets) {
+    List<Collection<Concept>> ret = new ArrayList<>(targets.size());
+    for (var target : targets) {
+      ret.add(allParents(target));
+    }
+    return ret;
+  }
+
   /**
    * The closure is the inferred version of {@link #allChildren(Semantics)}, which only uses the
    * asserted hierarchy.
@@ -172,6 +209,25 @@ public interface Reasoner extends KlabService {
    */
   int semanticDistance(Semantics target, Semantics other, Semantics context);
 
+  /**
+   * Distance of each of the candidates to the same target, as computed by {@link
+   * #semanticDistance(Semantics, Semantics, Semantics)} with the candidate as first argument. Used
+   * to filter candidates for resolution in one request.
+   *
+   * @param target
+   * @param candidates
+   * @param context can be null
+   * @return the distance of each candidate, in the same order; negative means incompatible
+   */
+  default int[] semanticDistances(
+      Semantics target, List<? extends Semantics> candidates, Semantics context) {
+    var ret = new int[candidates.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = semanticDistance(candidates.get(i), target, context);
+    }
+    return ret;
+  }
+
   /**
    * The core observable represented by the target, from the root namespace of the worldview.
    *
@@ -2,6 +2,7 @@ package org.integratedmodelling.klab.api.utils;
 
 import org.integratedmodelling.klab.api.authentication.CRUDOperation;
 import org.integratedmodelling.klab.api.collections.Pair;
+import org.integratedmodelling.klab.api.configuration.Configuration;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.Version;
 import org.integratedmodelling.klab.api.data.mediation.classification.Classifier;
@@ -46,11 +47,15 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class Utils {
 
@@ -3731,8 +3736,20 @@ public class Utils {
     }
 
     /**
-     * Distribute a consumer over a set of objects in one virtual thread per object. Return only
-     * when all the threads are finished and return status.
+     * Shared pool for CPU-bound computations, bounded by the number of processors so that
+     * concurrent computations in any number of contexts share the cores instead of each adding
+     * its own threads. Any other CPU-bound work in the runtime should be submitted here rather
+     * than to a separate pool; tasks running in the pool can use {@link
+     * #distributeComputation(Collection, Consumer)} in turn, as waiting workers help with the
+     * pending subtasks.
+     */
+    public static final ForkJoinPool COMPUTE_POOL =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Distribute a CPU-bound consumer over a set of objects using the shared compute pool, with
+     * at most as many concurrent tasks as there are processors. Return only when all the objects
+     * have been processed and return status.
      *
      * @param objects
      * @param task
@@ -3740,31 +3757,68 @@ public class Utils {
      * @param <T>
      */
     public static <T> boolean distributeComputation(Collection<T> objects, Consumer<T> task) {
+      var timings = new long[objects.size()];
+      var error =
+          distribute(new ArrayList<>(objects), COMPUTE_POOL.getParallelism(), task, timings);
+      return error == null;
+    }
 
-      List<Callable<Object>> tasks = new ArrayList<>();
-      for (T object : objects) {
-        tasks.add(Executors.callable(() -> task.accept(object)));
-      }
+    /**
+     * Same as {@link #distributeComputation(Collection, Consumer)} but using a scope to report any
+     * error conditions before returning as usual. If the scope is a {@link ContextScope}, the
+     * number of concurrent tasks is bounded by its {@link ContextScope#getParallelism()}. The
+     * time taken by each task is reported to the scope when the notification level includes
+     * debug messages.
+     *
+     * @param objects
+     * @param task
+     * @return
+     * @param <T>
+     */
+    public static <T> boolean distributeComputation(
+        Scope scope, Collection<T> objects, Consumer<T> task) {
 
-      try (var executorService = Executors.newVirtualThreadPerTaskExecutor()) {
-        var ret = executorService.invokeAll(tasks);
-        return ret.stream().noneMatch(objectFuture -> objectFuture.state() == Future.State.FAILED);
-      } catch (Throwable t) {
+      int parallelism =
+          scope instanceof ContextScope contextScope
+              ? contextScope.getParallelism().getAsInt()
+              : COMPUTE_POOL.getParallelism();
+      var timings = new long[objects.size()];
+      var error = distribute(new ArrayList<>(objects), parallelism, task, timings);
+
+      if (error != null) {
+        scope.error(
+            "Distributed computation completed exceptionally: " + Exceptions.stackTrace(error),
+            error);
         return false;
       }
+
+      if (Configuration.INSTANCE.getNotificationLevel().intValue()
+          <= java.util.logging.Level.FINE.intValue()) {
+        scope.debug(
+            "Distributed computation of "
+                + timings.length
+                + " tasks with parallelism "
+                + parallelism
+                + ", task times (ms): "
+                + Arrays.stream(timings)
+                    .mapToObj(t -> String.valueOf(t / 1_000_000))
+                    .collect(Collectors.joining(", ")));
+      }
+      return true;
     }
 
     /**
-     * Same as {@link #distributeComputation(Collection, Consumer)} but using a scope to report any
-     * error conditions before returning as usual.
+     * Distribute a consumer over a set of objects in one virtual thread per object. Only meant
+     * for tasks that spend their time waiting for I/O: CPU-bound tasks should use {@link
+     * #distributeComputation(Collection, Consumer)}. Return only when all the threads are
+     * finished and return status.
      *
      * @param objects
      * @param task
      * @return
      * @param <T>
      */
-    public static <T> boolean distributeComputation(
-        Scope scope, Collection<T> objects, Consumer<T> task) {
+    public static <T> boolean distributeIO(Collection<T> objects, Consumer<T> task) {
 
       List<Callable<Object>> tasks = new ArrayList<>();
       for (T object : objects) {
@@ -3772,20 +3826,81 @@ public class Utils {
       }
 
       try (var executorService = Executors.newVirtualThreadPerTaskExecutor()) {
-        var results = executorService.invokeAll(tasks);
-        var ret =
-            results.stream().noneMatch(objectFuture -> objectFuture.state() == Future.State.FAILED);
-        if (!ret) {
-          scope.error("Distributed computation failed");
-        }
-        return ret;
+        var ret = executorService.invokeAll(tasks);
+        return ret.stream().noneMatch(objectFuture -> objectFuture.state() == Future.State.FAILED);
       } catch (Throwable t) {
-        scope.error(
-            "Distributed computation completed exceptionally: " + Exceptions.stackTrace(t), t);
         return false;
       }
     }
 
+    /*
+     * Process the objects in at most the passed number of chunks, forked recursively so that idle
+     * workers steal the pending halves. Failures don't stop the other objects; the first one is
+     * returned. Each object's processing time in nanoseconds goes in the corresponding timing.
+     */
+    private static <T> Throwable distribute(
+        List<T> objects, int parallelism, Consumer<T> task, long[] timings) {
+
+      if (objects.isEmpty()) {
+        return null;
+      }
+
+      var error = new AtomicReference<Throwable>();
+      var chunks = Math.max(1, Math.min(parallelism, objects.size()));
+      COMPUTE_POOL.invoke(
+          new ChunkTask<>(objects, 0, objects.size(), chunks, task, timings, error));
+      return error.get();
+    }
+
+    private static class ChunkTask<T> extends RecursiveAction {
+
+      private final List<T> objects;
+      private final int from;
+      private final int to;
+      private final int chunks;
+      private final Consumer<T> task;
+      private final long[] timings;
+      private final AtomicReference<Throwable> error;
+
+      ChunkTask(
+          List<T> objects,
+          int from,
+          int to,
+          int chunks,
+          Consumer<T> task,
+          long[] timings,
+          AtomicReference<Throwable> error) {
+        this.objects = objects;
+        this.from = from;
+        this.to = to;
+        this.chunks = chunks;
+        this.task = task;
+        this.timings = timings;
+        this.error = error;
+      }
+
+      @Override
+      protected void compute() {
+        if (chunks > 1) {
+          int half = chunks / 2;
+          int middle = from + (int) ((long) (to - from) * half / chunks);
+          invokeAll(
+              new ChunkTask<>(objects, from, middle, half, task, timings, error),
+              new ChunkTask<>(objects, middle, to, chunks - half, task, timings, error));
+          return;
+        }
+        for (int i = from; i < to; i++) {
+          long start = System.nanoTime();
+          try {
+            task.accept(objects.get(i));
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+          timings[i] = System.nanoTime() - start;
+        }
+      }
+    }
+
     /**
      * Given a set of objects, return a corresponding array of the API interface classes that
      * represent them in k.LAB. Anything null or not recognized gets mapped to Object.class.
@@ -1,15 +1,19 @@
 package org.integratedmodelling.common.services.client.reasoner;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import org.integratedmodelling.common.authentication.scope.MessagingChannelImpl;
 import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.common.services.ReasonerCapabilitiesImpl;
@@ -36,17 +40,32 @@ import org.integratedmodelling.klab.api.services.runtime.Notification;
 import org.integratedmodelling.klab.api.services.runtime.objects.ScopeRequest;
 
 /**
- * TODO the reasoner client should cache a configurable amount of info so to minimize the likely
- * frequent back-and-forth with the server. Best candidates are the RESOLVE/DECLARE endpoints and
- * the COMPATIBLE ones. We could also compile full info at x-level inheritance about each
- * concept/observable and cache that instead of asking for frequent atomic ops, maybe even based on
- * frequency and/or memory available to the client.
+ * Resolved concepts and observables are cached, and so are the results of the most frequently
+ * called pure functions of concepts (subsumption, semantic distance, parents and the like), which
+ * would otherwise need a round trip for each call. All caches are emptied when the knowledge
+ * version published in the reasoner's status changes, or when knowledge is loaded or updated
+ * through this client. If the status carries no version, because polling is off or the reasoner
+ * doesn't publish it, changes made by others can't be seen and cached results expire after {@link
+ * #UNVERSIONED_CACHE_TTL_MS} instead.
+ *
+ * <p>TODO the amount of info cached should be configurable. We could also compile full info at
+ * x-level inheritance about each concept/observable and cache that instead of asking for frequent
+ * atomic ops, maybe even based on frequency and/or memory available to the client.
  */
 public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.Admin {
 
   // TODO link to configuration for debugging
   private boolean useCaches = true;
 
+  private static final int MAX_CACHED_RESULTS = 20000;
+
+  /** Lifetime of the cached results when the reasoner's status has no knowledge version. */
+  public static final long UNVERSIONED_CACHE_TTL_MS = 60_000;
+
+  // version of the knowledge the cached results refer to, and when the caches were last emptied
+  private volatile String knowledgeVersion;
+  private volatile long cachedSince = System.currentTimeMillis();
+
   /** Caches for concepts and observables. */
   private LoadingCache<String, Concept> concepts =
       CacheBuilder.newBuilder()
@@ -72,6 +91,13 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
                 }
               });
 
+  /**
+   * Results of the calls below, keyed by operation followed by the URNs of the arguments. Null
+   * results are not cached.
+   */
+  private final Cache<List<String>, Object> semantics =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RESULTS).build();
+
   public static ReasonerClient create(
       URL url, Identity identity, Parameters<Engine.Setting> settings) {
     return new ReasonerClient(url, identity, settings);
@@ -129,6 +155,7 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
     if (!useCaches) {
       return resolveConceptInternal(removeExcessParentheses(definition));
     }
+    checkKnowledgeVersion();
     try {
       return concepts.get(removeExcessParentheses(definition));
     } catch (ExecutionException e) {
@@ -142,6 +169,7 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
     if (!useCaches) {
       return resolveObservableInternal(removeExcessParentheses(definition));
     }
+    checkKnowledgeVersion();
     try {
       return observables.get(removeExcessParentheses(definition));
     } catch (ExecutionException e) {
@@ -200,10 +228,15 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
 
   @Override
   public boolean is(Semantics conceptImpl, Semantics other) {
-    return client.post(
+    return cached(
         ServicesAPI.REASONER.SUBSUMES,
-        List.of(conceptImpl.asConcept(), other.asConcept()),
-        Boolean.class);
+        () ->
+            client.post(
+                ServicesAPI.REASONER.SUBSUMES,
+                List.of(conceptImpl.asConcept(), other.asConcept()),
+                Boolean.class),
+        conceptImpl,
+        other);
   }
 
   @Override
@@ -213,12 +246,21 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
 
   @Override
   public Collection<Concept> children(Semantics target) {
-    return client.postCollection(ServicesAPI.REASONER.CHILDREN, target.asConcept(), Concept.class);
+    return cachedCollection(
+        ServicesAPI.REASONER.CHILDREN,
+        () ->
+            client.postCollection(
+                ServicesAPI.REASONER.CHILDREN, target.asConcept(), Concept.class),
+        target);
   }
 
   @Override
   public Collection<Concept> parents(Semantics target) {
-    return client.postCollection(ServicesAPI.REASONER.PARENTS, target.asConcept(), Concept.class);
+    return cachedCollection(
+        ServicesAPI.REASONER.PARENTS,
+        () ->
+            client.postCollection(ServicesAPI.REASONER.PARENTS, target.asConcept(), Concept.class),
+        target);
   }
 
   //  @Override
@@ -239,41 +281,228 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
 
   @Override
   public Collection<Concept> allChildren(Semantics target) {
-    return client.postCollection(
-        ServicesAPI.REASONER.ALL_CHILDREN, target.asConcept(), Concept.class);
+    return cachedCollection(
+        ServicesAPI.REASONER.ALL_CHILDREN,
+        () ->
+            client.postCollection(
+                ServicesAPI.REASONER.ALL_CHILDREN, target.asConcept(), Concept.class),
+        target);
   }
 
   @Override
   public Collection<Concept> allParents(Semantics target) {
-    return client.postCollection(
-        ServicesAPI.REASONER.ALL_PARENTS, target.asConcept(), Concept.class);
+    return cachedCollection(
+        ServicesAPI.REASONER.ALL_PARENTS,
+        () ->
+            client.postCollection(
+                ServicesAPI.REASONER.ALL_PARENTS, target.asConcept(), Concept.class),
+        target);
   }
 
   @Override
   public Collection<Concept> closure(Semantics target) {
-    return client.postCollection(ServicesAPI.REASONER.CLOSURE, target.asConcept(), Concept.class);
+    return cachedCollection(
+        ServicesAPI.REASONER.CLOSURE,
+        () ->
+            client.postCollection(ServicesAPI.REASONER.CLOSURE, target.asConcept(), Concept.class),
+        target);
   }
 
   @Override
   public int semanticDistance(Semantics target, Semantics other) {
-    return client.post(
-        ServicesAPI.REASONER.DISTANCE,
-        Lists.newArrayList(target.asConcept(), other.asConcept(), null),
-        Integer.class);
+    return semanticDistance(target, other, null);
   }
 
   @Override
   public int semanticDistance(Semantics target, Semantics other, Semantics context) {
-    return client.post(
+    return cached(
         ServicesAPI.REASONER.DISTANCE,
-        Lists.newArrayList(
-            target.asConcept(), other.asConcept(), context == null ? null : context.asConcept()),
-        Integer.class);
+        () ->
+            client.post(
+                ServicesAPI.REASONER.DISTANCE,
+                Lists.newArrayList(
+                    target.asConcept(),
+                    other.asConcept(),
+                    context == null ? null : context.asConcept()),
+                Integer.class),
+        target,
+        other,
+        context);
   }
 
   @Override
   public Concept coreObservable(Semantics target) {
-    return client.post(ServicesAPI.REASONER.CORE_OBSERVABLE, target.asConcept(), Concept.class);
+    return cached(
+        ServicesAPI.REASONER.CORE_OBSERVABLE,
+        () ->
+            client.post(ServicesAPI.REASONER.CORE_OBSERVABLE, target.asConcept(), Concept.class),
+        target);
+  }
+
+  /**
+   * Return the cached result of the passed call, making it if it is not cached.
+   *
+   * @param operation the endpoint, used to tell the results of different calls apart
+   * @param call
+   * @param arguments the semantic arguments of the call, which may include nulls
+   * @return
+   * @param <T>
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T cached(String operation, Supplier<T> call, Semantics... arguments) {
+    if (!useCaches) {
+      return call.get();
+    }
+    checkKnowledgeVersion();
+    return (T) semantics.asMap().computeIfAbsent(key(operation, arguments), k -> call.get());
+  }
+
+  private static List<String> key(String operation, Semantics... arguments) {
+    var ret = new ArrayList<String>(arguments.length + 1);
+    ret.add(operation);
+    for (var argument : arguments) {
+      ret.add(argument == null ? null : argument.asConcept().getUrn());
+    }
+    return ret;
+  }
+
+  /*
+   * Cached result for a batch call, or null if not cached (or caches are off). The keys are the
+   * same as for the corresponding single calls, so the two share results.
+   */
+  private Object cachedResult(String operation, Semantics... arguments) {
+    return useCaches ? semantics.getIfPresent(key(operation, arguments)) : null;
+  }
+
+  private void cacheResult(Object result, String operation, Semantics... arguments) {
+    if (useCaches && result != null) {
+      semantics.put(key(operation, arguments), result);
+    }
+  }
+
+  @Override
+  public boolean[] is(List<Pair<Semantics, Semantics>> pairs) {
+    if (useCaches) {
+      checkKnowledgeVersion();
+    }
+    var ret = new boolean[pairs.size()];
+    List<Integer> missing = new ArrayList<>();
+    List<Concept> request = new ArrayList<>();
+    for (int i = 0; i < ret.length; i++) {
+      var pair = pairs.get(i);
+      if (cachedResult(ServicesAPI.REASONER.SUBSUMES, pair.getFirst(), pair.getSecond())
+          instanceof Boolean result) {
+        ret[i] = result;
+      } else {
+        missing.add(i);
+        request.add(pair.getFirst().asConcept());
+        request.add(pair.getSecond().asConcept());
+      }
+    }
+    if (!missing.isEmpty()) {
+      var results = client.post(ServicesAPI.REASONER.SUBSUMES_ALL, request, boolean[].class);
+      for (int i = 0; i < missing.size(); i++) {
+        var pair = pairs.get(missing.get(i));
+        ret[missing.get(i)] = results[i];
+        cacheResult(results[i], ServicesAPI.REASONER.SUBSUMES, pair.getFirst(), pair.getSecond());
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  public int[] semanticDistances(
+      Semantics target, List<? extends Semantics> candidates, Semantics context) {
+    if (useCaches) {
+      checkKnowledgeVersion();
+    }
+    var ret = new int[candidates.size()];
+    List<Integer> missing = new ArrayList<>();
+    List<Concept> request =
+        Lists.newArrayList(target.asConcept(), context == null ? null : context.asConcept());
+    for (int i = 0; i < ret.length; i++) {
+      var candidate = candidates.get(i);
+      if (cachedResult(ServicesAPI.REASONER.DISTANCE, candidate, target, context)
+          instanceof Integer result) {
+        ret[i] = result;
+      } else {
+        missing.add(i);
+        request.add(candidate.asConcept());
+      }
+    }
+    if (!missing.isEmpty()) {
+      var results = client.post(ServicesAPI.REASONER.DISTANCES, request, int[].class);
+      for (int i = 0; i < missing.size(); i++) {
+        ret[missing.get(i)] = results[i];
+        cacheResult(
+            results[i],
+            ServicesAPI.REASONER.DISTANCE,
+            candidates.get(missing.get(i)),
+            target,
+            context);
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Collection<Concept>> allParents(List<? extends Semantics> targets) {
+    if (useCaches) {
+      checkKnowledgeVersion();
+    }
+    List<Collection<Concept>> ret = new ArrayList<>(targets.size());
+    List<Integer> missing = new ArrayList<>();
+    List<Concept> request = new ArrayList<>();
+    for (int i = 0; i < targets.size(); i++) {
+      var cached = cachedResult(ServicesAPI.REASONER.ALL_PARENTS, targets.get(i));
+      ret.add(cached == null ? null : new ArrayList<>((Collection<Concept>) cached));
+      if (cached == null) {
+        missing.add(i);
+        request.add(targets.get(i).asConcept());
+      }
+    }
+    if (!missing.isEmpty()) {
+      var results = client.post(ServicesAPI.REASONER.ALL_PARENTS_BATCH, request, Concept[][].class);
+      for (int i = 0; i < missing.size(); i++) {
+        var parents = List.of(results[i]);
+        ret.set(missing.get(i), new ArrayList<>(parents));
+        cacheResult(parents, ServicesAPI.REASONER.ALL_PARENTS, targets.get(missing.get(i)));
+      }
+    }
+    return ret;
+  }
+
+  /*
+   * Collections are cached unmodifiable and copied on return, as callers are free to modify them.
+   */
+  private Collection<Concept> cachedCollection(
+      String operation, Supplier<Collection<Concept>> call, Semantics... arguments) {
+    Collection<Concept> ret =
+        cached(
+            operation,
+            () -> {
+              var result = call.get();
+              return result == null ? null : List.copyOf(result);
+            },
+            arguments);
+    return ret == null ? null : new ArrayList<>(ret);
+  }
+
+  /*
+   * Empty the caches if the reasoner reports a knowledge version different from the one the
+   * cached results refer to, or if there is no version and the results have outlived their TTL.
+   * The status is read periodically by the service monitor, so this costs nothing.
+   */
+  private void checkKnowledgeVersion() {
+    var version = status().getMetadata().get(KNOWLEDGE_VERSION);
+    var current = version == null ? null : version.toString();
+    if (!Objects.equals(current, knowledgeVersion)
+        || (current == null
+            && System.currentTimeMillis() - cachedSince > UNVERSIONED_CACHE_TTL_MS)) {
+      invalidateCaches();
+      knowledgeVersion = current;
+    }
   }
 
   @Override
@@ -715,8 +944,10 @@ public class ReasonerClient extends ServiceClient implements Reasoner, Reasoner.
   }
 
   private void invalidateCaches() {
+    cachedSince = System.currentTimeMillis();
     concepts.invalidateAll();
     observables.invalidateAll();
+    semantics.invalidateAll();
   }
 
   @Override
@@ -0,0 +1,209 @@
+package org.integratedmodelling.klab.components;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import org.integratedmodelling.common.knowledge.GeometryRepository;
+import org.integratedmodelling.klab.api.collections.Parameters;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.data.mediation.classification.LookupTable;
+import org.integratedmodelling.klab.api.digitaltwin.Scheduler;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Expression;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.Resource;
+import org.integratedmodelling.klab.api.knowledge.Urn;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.Scale;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Space;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.time.Time;
+import org.integratedmodelling.klab.api.lang.Annotation;
+import org.integratedmodelling.klab.api.lang.ServiceCall;
+import org.integratedmodelling.klab.api.scope.ContextScope;
+import org.integratedmodelling.klab.api.scope.Scope;
+
+/**
+ * Precompiled call to a service method. The parameters are matched to the available arguments once,
+ * following the same rules as {@link ComponentRegistry#matchArguments}, leaving one slot per
+ * parameter that produces the value for each call. Only the scheduler event and the scope may vary
+ * between calls; everything else is fixed when the binder is created. The method is invoked
+ * through a {@link MethodHandle} taking the spread argument array.
+ */
+public class ArgumentBinder {
+
+  @FunctionalInterface
+  private interface Slot {
+    Object value(Scheduler.Event event, Scope scope);
+  }
+
+  private final Method method;
+  private final Slot[] slots;
+  private final MethodHandle invoker;
+
+  private ArgumentBinder(Method method, Slot[] slots, MethodHandle invoker) {
+    this.method = method;
+    this.slots = slots;
+    this.invoker = invoker;
+  }
+
+  /**
+   * Bind the method of the passed implementation to the passed arguments. Parameters that match
+   * none of the arguments are reported to the scope and receive null.
+   *
+   * @return the binder, or null if the method is not static and the implementation has no instance
+   *     to call it on
+   */
+  public static ArgumentBinder create(
+      ComponentRegistry.ServiceImplementation implementation,
+      Resource resource,
+      Geometry geometry,
+      Data.Builder builder,
+      Observation observation,
+      Observable observable,
+      Urn urn,
+      Parameters<String> urnParameters,
+      ServiceCall serviceCall,
+      Expression expression,
+      LookupTable lookupTable,
+      Data inputData,
+      Annotation storageAnnotation,
+      Scope scope) {
+
+    var method = implementation.method;
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    if (!isStatic && implementation.mainClassInstance == null) {
+      return null;
+    }
+
+    // looked up only if a parameter needs them
+    Storage storage = null;
+    Scale scale = geometry instanceof Scale geometryScale ? geometryScale : null;
+
+    var parameterTypes = method.getParameterTypes();
+    var slots = new Slot[parameterTypes.length];
+    for (int i = 0; i < parameterTypes.length; i++) {
+      var argument = parameterTypes[i];
+      if (Scope.class.isAssignableFrom(argument)) {
+        // TODO consider wrapping into read-only delegating wrappers
+        slots[i] = (e, s) -> s;
+      } else if (Observation.class.isAssignableFrom(argument)) {
+        slots[i] = constant(observation);
+      } else if (Data.Builder.class.isAssignableFrom(argument)) {
+        slots[i] = constant(builder);
+      } else if (Data.class.isAssignableFrom(argument)) {
+        slots[i] = constant(inputData);
+      } else if (ServiceCall.class.isAssignableFrom(argument)) {
+        slots[i] = constant(serviceCall);
+      } else if (Parameters.class.isAssignableFrom(argument)) {
+        slots[i] = constant(urnParameters);
+      } else if (Storage.Buffer.class.isAssignableFrom(argument)) {
+        var bufferClass = argument.asSubclass(Storage.Buffer.class);
+        if (storage == null) {
+          storage = storage(observation, storageAnnotation, scope);
+        }
+        final var bufferStorage = storage;
+        slots[i] =
+            bufferStorage == null
+                ? constant(null)
+                : (e, s) -> {
+                  var buffers =
+                      bufferStorage.buffers(
+                          geometry, e == null ? null : e.getTime(), bufferClass);
+                  if (buffers.size() != 1) {
+                    throw new KlabInternalErrorException(
+                        "Wrong buffer numerosity for single-buffer parameter: review"
+                            + " configuration");
+                  }
+                  return buffers.getFirst();
+                };
+      } else if (Storage.class.isAssignableFrom(argument)) {
+        if (storage == null) {
+          storage = storage(observation, storageAnnotation, scope);
+        }
+        slots[i] = constant(storage);
+      } else if (Scale.class.isAssignableFrom(argument)) {
+        slots[i] = constant(scale = scale(scale, geometry));
+      } else if (Geometry.class.isAssignableFrom(argument)) {
+        slots[i] = constant(geometry);
+      } else if (Observable.class.isAssignableFrom(argument)) {
+        slots[i] = constant(observable);
+      } else if (Space.class.isAssignableFrom(argument)) {
+        scale = scale(scale, geometry);
+        slots[i] = constant(scale == null ? null : scale.getSpace());
+      } else if (Time.class.isAssignableFrom(argument)) {
+        scale = scale(scale, geometry);
+        var time = scale == null ? null : scale.getTime();
+        slots[i] = (e, s) -> e == null ? time : e.getTime();
+      } else if (Scheduler.Event.class.isAssignableFrom(argument)) {
+        slots[i] = (e, s) -> e;
+      } else if (Resource.class.isAssignableFrom(argument) && resource != null) {
+        slots[i] = constant(resource);
+      } else if (Expression.class.isAssignableFrom(argument) && expression != null) {
+        slots[i] = constant(expression);
+      } else if (Urn.class.isAssignableFrom(argument) && urn != null) {
+        slots[i] = constant(urn);
+      } else if (LookupTable.class.isAssignableFrom(argument) && lookupTable != null) {
+        slots[i] = constant(lookupTable);
+      } else {
+        scope.error(
+            "Cannot map argument of type "
+                + argument.getCanonicalName()
+                + " to known objects in call to "
+                + method);
+        slots[i] = constant(null);
+      }
+    }
+
+    try {
+      var handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+      if (!isStatic) {
+        handle = handle.bindTo(implementation.mainClassInstance);
+      }
+      handle =
+          handle
+              .asSpreader(Object[].class, parameterTypes.length)
+              .asType(MethodType.methodType(Object.class, Object[].class));
+      return new ArgumentBinder(method, slots, handle);
+    } catch (IllegalAccessException e) {
+      throw new KlabInternalErrorException(e);
+    }
+  }
+
+  private static Slot constant(Object value) {
+    return (e, s) -> value;
+  }
+
+  private static Storage storage(Observation observation, Annotation annotation, Scope scope) {
+    return scope instanceof ContextScope contextScope
+        ? contextScope.getDigitalTwin().getStorageManager().getStorage(observation, annotation)
+        : null;
+  }
+
+  private static Scale scale(Scale scale, Geometry geometry) {
+    return scale == null && geometry != null ? GeometryRepository.INSTANCE.scale(geometry) : scale;
+  }
+
+  /**
+   * Call the method with the arguments for the passed event and scope.
+   *
+   * @param event
+   * @param scope
+   * @return the method's return value, or null if void
+   * @throws Throwable anything thrown by the method, unwrapped
+   */
+  public Object invoke(Scheduler.Event event, Scope scope) throws Throwable {
+    var arguments = new Object[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      arguments[i] = slots[i].value(event, scope);
+    }
+    return (Object) invoker.invokeExact(arguments);
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+}
@@ -63,6 +63,7 @@ import org.integratedmodelling.klab.data.mediation.UnitServiceImpl;
 import org.integratedmodelling.klab.runtime.language.LanguageService;
 import org.integratedmodelling.klab.runtime.scale.CoverageImpl;
 import org.integratedmodelling.klab.runtime.scale.ScaleImpl;
+import org.integratedmodelling.klab.runtime.scale.curves.GridCurve;
 import org.integratedmodelling.klab.runtime.scale.space.ProjectionImpl;
 import org.integratedmodelling.klab.runtime.scale.space.ShapeImpl;
 import org.integratedmodelling.klab.services.base.BaseService;
@@ -282,60 +283,19 @@ public enum ServiceConfiguration {
           }
 
           @Override
-          public Pair<Data.LongToLongArrayFunction, Data.LongArrayToLongFunction>
-              getSpatialOffsetMapping(Geometry geometry, Data.SpaceFillingCurve spaceFillingCurve) {
+          public Data.OffsetMapper getOffsetMapper(
+              Geometry geometry, Data.SpaceFillingCurve spaceFillingCurve) {
             return switch (spaceFillingCurve) {
-              case D1_LINEAR ->
-                  new Pair<Data.LongToLongArrayFunction, Data.LongArrayToLongFunction>() {
-
-                    final long[] l = new long[1];
-
-                    @Override
-                    public Data.LongToLongArrayFunction getFirst() {
-                      return n -> {
-                        l[0] = n;
-                        return l;
-                      };
-                    }
-
-                    @Override
-                    public Data.LongArrayToLongFunction getSecond() {
-                      return n -> n[0];
-                    }
-                  };
-              case D2_XY -> {
-                final var shape = geometry.dimension(Geometry.Dimension.Type.SPACE).getShape();
-                final var x = shape.get(0);
-                final var y = shape.get(1);
-
-                yield new Pair<Data.LongToLongArrayFunction, Data.LongArrayToLongFunction>() {
-
-                  final long[] l = new long[2];
-
-                  @Override
-                  public Data.LongToLongArrayFunction getFirst() {
-                    return n -> {
-                      l[0] = n / x;
-                      l[1] = n % x;
-                      return l;
-                    };
-                  }
-
-                  @Override
-                  public Data.LongArrayToLongFunction getSecond() {
-                    return n -> n[1] * x + n[0];
-                  }
-                };
-              }
-              //                case D2_YX -> null;
-              //                case D2_XInvY -> null;
-              //                case D3_XYZ -> null;
-              //                case D3_ZYX -> null;
-              //                case D2_HILBERT -> null;
-              //                case D3_HILBERT -> null;
-              default ->
+              case UNSPECIFIED ->
                   throw new KlabUnimplementedException(
-                      "ServiceConfiguration::getGeometryIterator(" + spaceFillingCurve + ")");
+                      "ServiceConfiguration::getOffsetMapper(" + spaceFillingCurve + ")");
+              case D1_LINEAR -> GridCurve.get(spaceFillingCurve, geometry.size());
+              default ->
+                  GridCurve.get(
+                      spaceFillingCurve,
+                      geometry.dimension(Geometry.Dimension.Type.SPACE).getShape().stream()
+                          .mapToLong(Long::longValue)
+                          .toArray());
             };
           }
         });
@@ -359,6 +319,12 @@ public enum ServiceConfiguration {
   public static final String KLAB_DEBUG_RESOLUTION_DFLOW = "klab.debugging.resolution.dflow";
   public static final String KLAB_USE_IN_MEMORY_DATABASE = "klab.database.inmemory";
   public static final String KLAB_PARALLELIZE_CONTEXTUALIZATION = "klab.computation.parallel";
+  /**
+   * Maximum number of CPU-bound tasks run at once by each context, between 1 and the number of
+   * processors (the default).
+   */
+  public static final String KLAB_CONTEXT_PARALLELISM = "klab.computation.context.parallelism";
+
   public static final String KLAB_USE_IN_MEMORY_STORAGE = "klab.storage.inmemory";
   public static final String CERTFILE_PROPERTY = "klab.certificate";
   public static final String KLAB_CONNECTION_TIMEOUT = "klab.connection.timeout";
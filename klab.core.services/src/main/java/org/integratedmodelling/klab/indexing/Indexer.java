@@ -1,12 +1,16 @@
 package org.integratedmodelling.klab.indexing;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -16,13 +20,18 @@ import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.ControlledRealTimeReopenThread;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
@@ -31,6 +40,7 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.integratedmodelling.klab.api.data.Metadata;
 import org.integratedmodelling.klab.api.exceptions.KlabIOException;
 import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
@@ -47,18 +57,35 @@ import org.integratedmodelling.klab.api.lang.ValueOperator;
 import org.integratedmodelling.klab.api.lang.kim.KimConceptStatement;
 //import org.integratedmodelling.klab.api.lang.kim.KimInstance;
 import org.integratedmodelling.klab.api.lang.kim.KimModel;
-import org.integratedmodelling.klab.api.lang.kim.KimNamespace;
+import org.integratedmodelling.klab.api.lang.kim.KlabDocument;
 import org.integratedmodelling.klab.api.lang.kim.KlabStatement;
 import org.integratedmodelling.klab.api.scope.Scope;
-import org.integratedmodelling.klab.api.services.Reasoner;
 import org.integratedmodelling.klab.api.services.reasoner.objects.SemanticMatch;
 import org.integratedmodelling.klab.api.utils.Utils;
 import org.integratedmodelling.common.logging.Logging;
 import org.springframework.stereotype.Service;
 
+/**
+ * Lucene index of the concepts and models for semantic search. If created with a directory, the
+ * index is kept on disk and reused across restarts: the checksum of each indexed namespace is saved
+ * with every commit, so that only the namespaces whose source has changed since need to be indexed
+ * again (see {@link #isCurrent(String, String)} and {@link #updateNamespace(KlabDocument, String)}).
+ * Otherwise the index is in memory and must be rebuilt at each start.
+ */
 @Service
 public class Indexer {
 
+    /**
+     * Change when the indexed fields change, so that any index written by a previous version is
+     * rebuilt.
+     */
+    public static final String INDEX_VERSION = "3";
+
+    private static final String INDEX_VERSION_KEY = "klab.index.version";
+    private static final String NAMESPACE_CHECKSUM_PREFIX = "klab.namespace:";
+    // one term per semantic type of the indexed object, for the constraints in queries
+    private static final String SEMANTIC_TYPE_FIELD = "semtype";
+
     private Directory index;
     private IndexWriter writer;
     private StandardAnalyzer analyzer;
@@ -66,20 +93,55 @@ public class Indexer {
     private ControlledRealTimeReopenThread<IndexSearcher> nrtReopenThread;
     // private QueryParser namespaceRemover;
     private Scope scope;
+    // checksums of the namespaces in the index, saved as commit data
+    private final Map<String, String> namespaceChecksums = new ConcurrentHashMap<>();
 
     public static final int MAX_RESULT_COUNT = 9;
 
+    /**
+     * In-memory index, rebuilt at each start.
+     *
+     * @param scope
+     */
     public Indexer(Scope scope) {
+        this(scope, null, false);
+    }
+
+    /**
+     * @param scope
+     * @param directory where to keep the index, or null to keep it in memory
+     * @param clean if true, any index already in the directory is discarded
+     */
+    public Indexer(Scope scope, File directory, boolean clean) {
 
         this.scope = scope;
 
         try {
-            this.index = new ByteBuffersDirectory(); // new
-            // MMapDirectory(Configuration.INSTANCE.getDataPath("index").toPath());
+            this.index = directory == null
+                         ? new ByteBuffersDirectory()
+                         : new MMapDirectory(directory.toPath());
             this.analyzer = new StandardAnalyzer();
             IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
             this.writer = new IndexWriter(index, config);
 
+            if (!clean && DirectoryReader.indexExists(index)) {
+                var commitData = SegmentInfos.readLatestCommit(index).getUserData();
+                if (INDEX_VERSION.equals(commitData.get(INDEX_VERSION_KEY))) {
+                    for (var entry : commitData.entrySet()) {
+                        if (entry.getKey().startsWith(NAMESPACE_CHECKSUM_PREFIX)) {
+                            namespaceChecksums.put(
+                                    entry.getKey().substring(NAMESPACE_CHECKSUM_PREFIX.length()),
+                                    entry.getValue());
+                        }
+                    }
+                }
+            }
+            if (namespaceChecksums.isEmpty()) {
+                // new, obsolete or discarded: start from scratch
+                writer.deleteAll();
+            }
+
             this.searcherManager = new SearcherManager(writer, true, true, null);
             /**
              * Thread supporting near-realtime index background refresh
@@ -97,6 +159,50 @@ public class Indexer {
         }
     }
 
+    /**
+     * Checksum of a document's source code, used to tell whether the index has its current version.
+     * Documents without source code fall back on their version and last update time.
+     *
+     * @param document
+     * @return
+     */
+    public static String checksum(KlabDocument<?> document) {
+        var source = document.getSourceCode();
+        if (source == null) {
+            source = document.getUrn() + "@" + document.getVersion() + "@"
+                    + document.getLastUpdateTimestamp();
+        }
+        return Utils.Strings.hash(source);
+    }
+
+    /**
+     * Checksum of a document combined with the passed checksums of the documents it depends on, so
+     * that the index of a namespace is also invalidated when any of its imports change. Pass the
+     * dependency checksums obtained with this same method to cover indirect imports.
+     *
+     * @param document
+     * @param dependencies checksums of the documents imported by this one, in import order
+     * @return
+     */
+    public static String checksum(KlabDocument<?> document, Collection<String> dependencies) {
+        if (dependencies.isEmpty()) {
+            return checksum(document);
+        }
+        return Utils.Strings.hash(checksum(document) + "|" + String.join("|", dependencies));
+    }
+
+    /**
+     * True if the namespace was indexed from a source with the passed checksum and needs no
+     * reindexing.
+     *
+     * @param namespace
+     * @param checksum
+     * @return
+     */
+    public boolean isCurrent(String namespace, String checksum) {
+        return checksum != null && checksum.equals(namespaceChecksums.get(namespace));
+    }
+
     public void index(Resource resource) {
 
         try {
@@ -147,7 +253,11 @@ public class Indexer {
                 ret.setId(object.getNamespace() + ":" + conceptStatement.getUrn());
                 ret.setName(conceptStatement.getUrn());
 
-                semanticType = conceptStatement.getType();
+                semanticType = EnumSet.noneOf(SemanticType.class);
+                semanticType.addAll(conceptStatement.getType());
+                if (conceptStatement.isAbstract()) {
+                    semanticType.add(SemanticType.ABSTRACT);
+                }
 
                 /*
                  * TODO a concept that 'equals' something should index its definition with high
@@ -202,6 +312,11 @@ public class Indexer {
                         SemanticType.fundamentalType(ret.getConceptType()).ordinal()));
                 document.add(new StoredField("vmtype", ret.getMatchType().ordinal()));
                 document.add(new StoredField("smtype", encodeType(semanticType)));
+                if (semanticType != null) {
+                    for (SemanticType type : semanticType) {
+                        document.add(new StringField(SEMANTIC_TYPE_FIELD, type.name(), Store.NO));
+                    }
+                }
 
                 this.writer.addDocument(document);
 
@@ -224,33 +339,66 @@ public class Indexer {
         return ret;
     }
 
-    public void commitChanges() {
+    public synchronized void commitChanges() {
         try {
+            Map<String, String> commitData = new HashMap<>();
+            commitData.put(INDEX_VERSION_KEY, INDEX_VERSION);
+            for (var entry : namespaceChecksums.entrySet()) {
+                commitData.put(NAMESPACE_CHECKSUM_PREFIX + entry.getKey(), entry.getValue());
+            }
+            this.writer.setLiveCommitData(commitData.entrySet());
             this.writer.commit();
         } catch (IOException e) {
             throw new KlabIOException(e);
         }
     }
 
-    public void updateNamespace(KimNamespace namespace) {
-
-        Thread writerThread = new Thread() {
+    /**
+     * Replace everything indexed for the document's namespace with the contents of the passed
+     * document, unless the index is already current with its checksum. Call {@link #commitChanges()}
+     * after all the documents have been updated to make the changes persistent.
+     *
+     * @param document
+     * @param checksum the checksum of the document's source, normally from
+     *                 {@link #checksum(KlabDocument)}
+     * @return true if the namespace was reindexed
+     */
+    public synchronized boolean updateNamespace(KlabDocument<? extends KlabStatement> document,
+                                                String checksum) {
+        if (isCurrent(document.getUrn(), checksum)) {
+            return false;
+        }
+        try {
+            writer.deleteDocuments(new TermQuery(new Term("namespace", document.getUrn())));
+            for (KlabStatement statement : document.getStatements()) {
+                index(statement);
+            }
+            if (checksum != null) {
+                namespaceChecksums.put(document.getUrn(), checksum);
+            }
+        } catch (IOException e) {
+            throw new KlabIOException(e);
+        }
+        return true;
+    }
 
-            @Override
-            public void run() {
+    /**
+     * Remove all the namespaces not in the passed collection, e.g. after they have been removed
+     * from the worldview.
+     *
+     * @param namespaces
+     */
+    public synchronized void retainNamespaces(Collection<String> namespaces) {
+        for (var namespace : new HashSet<>(namespaceChecksums.keySet())) {
+            if (!namespaces.contains(namespace)) {
                 try {
-                    writer.deleteDocuments(new TermQuery(new Term("namespace", namespace.getUrn())));
-                    writer.commit();
-                    for (KlabStatement statement : namespace.getStatements()) {
-                        index((KlabStatement) statement);
-                    }
-                    writer.commit();
-                } catch (Exception e) {
+                    writer.deleteDocuments(new TermQuery(new Term("namespace", namespace)));
+                } catch (IOException e) {
                     throw new KlabIOException(e);
                 }
+                namespaceChecksums.remove(namespace);
             }
-        };
-        writerThread.start();
+        }
     }
 
     public boolean ensureClosed() {
@@ -281,6 +429,40 @@ public class Indexer {
         }
     }
 
+    /**
+     * Translate the constraints of a {@link SemanticScope} into a filter on the indexed semantic
+     * types, with the same meaning as {@link SemanticScope.Constraint#matches(Concept)}: the
+     * constraints are in OR, the arguments of each in AND, and those of a negated constraint are
+     * prohibited. Arguments that aren't semantic types or constraints are not checked, as in
+     * {@code matches()}.
+     *
+     * @param constraints
+     * @return
+     */
+    public Query buildFilter(Collection<SemanticScope.Constraint> constraints) {
+        BooleanQuery.Builder ret = new BooleanQuery.Builder();
+        for (SemanticScope.Constraint constraint : constraints) {
+            ret.add(buildFilter(constraint), BooleanClause.Occur.SHOULD);
+        }
+        return ret.setMinimumNumberShouldMatch(1).build();
+    }
+
+    private Query buildFilter(SemanticScope.Constraint constraint) {
+        BooleanQuery.Builder ret = new BooleanQuery.Builder();
+        // a query made only of prohibitions matches nothing
+        ret.add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER);
+        BooleanClause.Occur occur = constraint.negated ? BooleanClause.Occur.MUST_NOT
+                                                       : BooleanClause.Occur.FILTER;
+        for (Object argument : constraint.arguments) {
+            if (argument instanceof SemanticType type) {
+                ret.add(new TermQuery(new Term(SEMANTIC_TYPE_FIELD, type.name())), occur);
+            } else if (argument instanceof SemanticScope.Constraint nested) {
+                ret.add(buildFilter(nested), occur);
+            }
+        }
+        return ret.build();
+    }
+
     /**
      * Updated query function: arguments beyond the search term defines the type of result we may be
      * interested in. We will return matches in order of request, incrementally filtering any duplicates.
@@ -371,40 +553,40 @@ public class Indexer {
             Set<String> ids = new HashSet<>();
             try {
 
-                TopDocs docs = searcher.search(buildQuery(term, this.analyzer), maxResults);
+                /*
+                 * the constraints are applied by the index, so that all the hits are admissible and
+                 * none of them needs to be resolved to a concept to be checked
+                 */
+                Query query = new BooleanQuery.Builder()
+                        .add(buildQuery(term, this.analyzer), BooleanClause.Occur.MUST)
+                        .add(buildFilter(composer.getAdmittedLogicalInput()), BooleanClause.Occur.FILTER)
+                        .build();
+
+                TopDocs docs = searcher.search(query, maxResults);
                 ScoreDoc[] hits = docs.scoreDocs;
 
                 for (ScoreDoc hit : hits) {
 
                     Document document = searcher.storedFields().document(hit.doc);
-                    Concept concept = scope.getService(Reasoner.class).resolveConcept(document.get("id"));
                     SemanticMatch.Type matchType = SemanticMatch.Type.values()[Integer
                             .parseInt(document.get("vmtype"))];
 
-                    if (concept == null || ids.contains(document.get("id"))) {
+                    if (ids.contains(document.get("id"))) {
                         continue;
                     }
 
-                    for (SemanticScope.Constraint constraint : composer.getAdmittedLogicalInput()) {
-
-                        if (constraint.matches(concept)) {
-
-                            SemanticMatch match = new SemanticMatch();
-                            match.setId(document.get("id"));
-                            match.setName(document.get("name"));
-                            match.setDescription(document.get("description"));
-                            match.setScore(hit.score);
-                            match.setSemantics(decodeType(document.get("smtype")));
-                            match.setMatchType(matchType);
-                            match.getConceptType().add(SemanticType.values()[Integer.parseInt(document.get(
-                                    "vctype"))]);
-
-                            ret.add(match);
-                            ids.add(document.get("id"));
-
-                            break;
-                        }
-                    }
+                    SemanticMatch match = new SemanticMatch();
+                    match.setId(document.get("id"));
+                    match.setName(document.get("name"));
+                    match.setDescription(document.get("description"));
+                    match.setScore(hit.score);
+                    match.setSemantics(decodeType(document.get("smtype")));
+                    match.setMatchType(matchType);
+                    match.getConceptType().add(SemanticType.values()[Integer.parseInt(document.get(
+                            "vctype"))]);
+
+                    ret.add(match);
+                    ids.add(document.get("id"));
                 }
 
             } catch (Exception e) {
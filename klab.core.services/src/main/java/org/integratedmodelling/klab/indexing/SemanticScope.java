@@ -63,15 +63,20 @@ public class SemanticScope {
 
 		public boolean matches(Concept concept) {
 			for (Object o : arguments) {
-				if (o instanceof SemanticType
-						&& (!concept.is((SemanticType) o) || (negated && concept.is((SemanticType) o)))) {
-					return false;
-				} else if (o instanceof Constraint && (!((Constraint) o).matches(concept))
-						|| (negated && ((Constraint) o).matches(concept))) {
+				boolean present;
+				if (o instanceof SemanticType) {
+					present = concept.is((SemanticType) o);
+				} else if (o instanceof Constraint) {
+					present = ((Constraint) o).matches(concept);
+				} else {
+					// TODO continue
+					continue;
+				}
+				if (present == negated) {
 					return false;
-				} // TODO continue
+				}
 			}
-			return negated ? false : true;
+			return true;
 		}
 
 		public String toString() {
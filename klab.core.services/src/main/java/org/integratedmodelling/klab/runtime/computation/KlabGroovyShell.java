@@ -32,6 +32,43 @@ public class KlabGroovyShell extends GroovyShell {
     }
   }
 
+  /**
+   * Compile the source into a class defined by a new class loader of its own, so that the class
+   * can be unloaded as soon as nothing references it. Classes parsed by the shell's loader stay
+   * in it for as long as the shell exists.
+   *
+   * @param sourceCode
+   * @return
+   */
+  public Class<?> compileClass(String sourceCode) {
+    try {
+      return new GroovyClassLoader(getClassLoader(), getConfiguration()).parseClass(sourceCode);
+    } catch (Exception e) {
+      throw new KlabInternalErrorException(e);
+    }
+  }
+
+  /**
+   * Create an instance of a class obtained from {@link #compileClass(String)}.
+   *
+   * @param compiledClass
+   * @param resultClass
+   * @param constructorArguments
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends GroovyObject> T instantiate(
+      Class<?> compiledClass, Class<T> resultClass, Object... constructorArguments) {
+    try {
+      return (T)
+          compiledClass
+              .getConstructor(Utils.Java.mapArgumentsToInterfaces(constructorArguments))
+              .newInstance(constructorArguments);
+    } catch (Exception e) {
+      throw new KlabInternalErrorException(e);
+    }
+  }
+
   private static CompilerConfiguration getConfiguration() {
     CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
     compilerConfiguration.setScriptBaseClass(BASE_ACTION_CLASS);
@@ -1,16 +1,23 @@
 package org.integratedmodelling.klab.runtime.computation;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import gg.jte.ContentType;
 import gg.jte.TemplateEngine;
 import gg.jte.TemplateOutput;
 import gg.jte.output.StringOutput;
 import gg.jte.resolve.ResourceCodeResolver;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.digitaltwin.Scheduler;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.Expression;
 import org.integratedmodelling.klab.api.knowledge.observation.Observation;
@@ -35,6 +42,20 @@ public class ScalarComputationGroovy implements ScalarComputation {
       TemplateEngine.create(new ResourceCodeResolver("code/templates"), ContentType.Plain);
   static KlabGroovyShell groovyShell = new KlabGroovyShell();
 
+  /*
+   * Compiled classes by hash of their normalized source and storage type signature, so that the
+   * same computation in a new context or at a new time step does not recompile. Each class is
+   * defined by its own class loader, so evicted classes are unloaded once their instances are gone.
+   */
+  private static final int MAX_COMPILED_CLASSES = 512;
+  static Cache<String, Class<?>> compiledClasses =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_COMPILED_CLASSES)
+          .expireAfterAccess(Duration.ofHours(1))
+          .build();
+  // cached in place of the class when static compilation fails, so that it's only attempted once
+  private static final Class<?> STATIC_COMPILATION_FAILED = Void.class;
+
   static class BuilderImpl implements Builder {
 
     private final List<Step> steps = new ArrayList<>();
@@ -113,10 +134,53 @@ public class ScalarComputationGroovy implements ScalarComputation {
 
     @Override
     public ScalarComputation build() {
+      if (canCompileStatically()) {
+        var ret = build(true);
+        if (ret != null) {
+          return ret;
+        }
+      }
+      return build(false);
+    }
+
+    /*
+     * Static compilation is only possible when the expressions use nothing but the scalar values
+     * of the inputs, as anything else (observations, concepts, predefined identifiers) is only
+     * known to the dynamic Groovy runtime.
+     */
+    private boolean canCompileStatically() {
+      for (var step : steps) {
+        if (!(step.expressionDescriptor
+                instanceof GroovyProcessor.GroovyDescriptor groovyDescriptor)
+            || !groovyDescriptor.getTemplateFields().isEmpty()) {
+          return false;
+        }
+        for (var desc : step.expressionDescriptor.getIdentifiers().values()) {
+          if (desc.observable() == null || desc.nonScalarReferenceCount() > 0) {
+            return false;
+          }
+          var observation = scope.getObservation(desc.observable());
+          var storage = scope.getDigitalTwin().getStorageManager().getStorage(observation);
+          if (storage.getType() == Storage.Type.BOXING) {
+            return false;
+          }
+        }
+      }
+      return scope.getDigitalTwin().getStorageManager().getStorage(target).getType()
+          != Storage.Type.BOXING;
+    }
+
+    /**
+     * Returns null if static compilation was requested and the code does not compile statically,
+     * e.g. because an expression produces a double for an int target.
+     */
+    private ScalarComputation build(boolean staticCompilation) {
 
       var codeInfo = new TemplateCodeInfo();
       codeInfo.setTemplateName("ScalarBufferFiller.jte");
-      codeInfo.setClassName("ScalarComputation_" + Utils.Names.shortUUID());
+      // each class has its own loader, so the name needs no uniqueness and must not affect the key
+      codeInfo.setClassName("ScalarComputation");
+      codeInfo.setStaticCompilation(staticCompilation);
 
       // constructor arguments
       List<Object> args = new ArrayList<>();
@@ -132,11 +196,11 @@ public class ScalarComputationGroovy implements ScalarComputation {
        *
        * <p>Add selfBuffers + all others to the fields and constructor
        */
-      record VarInfo(String name, String type, int index) {}
 
-      // ordering in this one is important
-      Map<String, VarInfo> scalarBuffers = new LinkedHashMap<>();
-      var selfStorage = scope.getDigitalTwin().getStorageManager().getStorage(target);
+      // ordering in this one is important: self comes first, then the scalar dependencies
+      Map<String, Storage.Type> scalarBuffers = new LinkedHashMap<>();
+      scalarBuffers.put(
+          "self", scope.getDigitalTwin().getStorageManager().getStorage(target).getType());
       var codeStatements = new ArrayList<String>();
 
       for (var step : steps) {
@@ -146,7 +210,6 @@ public class ScalarComputationGroovy implements ScalarComputation {
             codeInfo.getFieldDeclarations().add(field);
           }
           if (step.expressionDescriptor != null) {
-            int n = 1;
             codeStatements.add(groovyDescriptor.getProcessedCode());
             for (var identifier : step.expressionDescriptor.getIdentifiers().keySet()) {
               var desc = step.expressionDescriptor.getIdentifiers().get(identifier);
@@ -169,72 +232,191 @@ public class ScalarComputationGroovy implements ScalarComputation {
                 codeInfo
                     .getConstructorInitializationStatements()
                     .add("this.__" + identifier + " = " + identifier);
-
-                var typeDeclaration = getTypeDeclaration(storage);
-                scalarBuffers.put(identifier, new VarInfo(identifier, typeDeclaration, n++));
+                scalarBuffers.put(identifier, storage.getType());
               }
             }
           }
         }
       }
 
-      // we need it for the type
-      scalarBuffers.put("self", new VarInfo("self", getTypeDeclaration(selfStorage), 0));
+      generateBufferCode(codeInfo, scalarBuffers, codeStatements);
+
+      var source = render(codeInfo);
+      var signature =
+          scalarBuffers.values().stream().map(Storage.Type::name).collect(Collectors.joining(","));
+      var compiledClass =
+          compiledClasses
+              .asMap()
+              .computeIfAbsent(
+                  Utils.Strings.hash(normalize(source) + "\n" + signature),
+                  key -> compile(source, staticCompilation));
+      if (compiledClass == STATIC_COMPILATION_FAILED) {
+        return null;
+      }
+      var compiled = groovyShell.instantiate(compiledClass, ExpressionBase.class, args.toArray());
+      return new ScalarComputationGroovy(compiled, scope, source);
+    }
 
-      // buffer creation
-      codeInfo.getBodyInitializationStatements().add("def eventTime = event == null ? null : event.time");
-      StringBuilder bufferDeclaration =
-          new StringBuilder("def bufferSets = Utils.Collections.transpose(selfBuffers");
-      for (String var : scalarBuffers.keySet()) {
-        var info = scalarBuffers.get(var);
-        codeInfo
-            .getBodyInitializationStatements()
-            .add(
-                "def "
-                    + info.name
-                    + "Buffers = scope.getDigitalTwin().getStorageManager().getStorage(__"
-                    + info.name
-                    + ").buffers(geometry, eventTime)");
-
-        if (info.index > 0) {
-          bufferDeclaration.append(", ").append(info.name).append("Buffers");
-          codeInfo
-              .getMainCodeBlocks()
-              .add(info.type + " " + info.name + " = scannerArray[" + info.index + "].get()");
+    private Class<?> compile(String source, boolean staticCompilation) {
+      try {
+        return groovyShell.compileClass(source);
+      } catch (KlabInternalErrorException e) {
+        if (!staticCompilation) {
+          throw e;
         }
+        Logging.INSTANCE.debug(
+            "Scalar code for " + target + " cannot be compiled statically: " + e.getMessage());
+        return STATIC_COMPILATION_FAILED;
       }
+    }
+  }
 
-      bufferDeclaration.append(")");
+  /**
+   * Generate the code that obtains the buffers for the current geometry and event and scans each
+   * set of corresponding buffers, setting the target's from the values of the others. With static
+   * compilation each buffer gets a scanner of its own type that produces primitive values, so the
+   * loop compiles to direct calls with no boxing. Otherwise the values come from an array of
+   * untyped scanners through the Groovy runtime.
+   *
+   * @param codeInfo the template info to fill in
+   * @param buffers the names of the buffers and the types of their storage, target first. Each
+   *     name must correspond to an {@code __}-prefixed observation field.
+   * @param statements the code computing the target value from the buffer names
+   */
+  public static void generateBufferCode(
+      TemplateCodeInfo codeInfo, Map<String, Storage.Type> buffers, List<String> statements) {
+
+    String target = null;
+    int index = 0;
+    var bufferSets =
+        new StringBuilder("List<List<Storage.Buffer>> bufferSets = Utils.Collections.transpose(");
+
+    codeInfo
+        .getBodyInitializationStatements()
+        .add("def eventTime = event == null ? null : event.getTime()");
+
+    for (var name : buffers.keySet()) {
+
+      var type = buffers.get(name);
+      codeInfo
+          .getBodyInitializationStatements()
+          .add(
+              "List<Storage.Buffer> "
+                  + name
+                  + "Buffers = (List<Storage.Buffer>) scope.getDigitalTwin().getStorageManager()"
+                  + ".getStorage(__"
+                  + name
+                  + ").buffers(geometry, eventTime)");
+      bufferSets.append(index == 0 ? "" : ", ").append(name).append("Buffers");
+
+      if (codeInfo.isStaticCompilation()) {
+        codeInfo
+            .getLocalVariableDeclarations()
+            .add(
+                getScannerType(type)
+                    + " "
+                    + name
+                    + "Scanner = (("
+                    + getBufferType(type)
+                    + ") buffers["
+                    + index
+                    + "]).scan()");
+      }
 
-      if (codeStatements.size() == 1) {
-        codeInfo.getMainCodeBlocks().add("scannerArray[0].add(" + codeStatements.getFirst() + ")");
+      if (index == 0) {
+        target = codeInfo.isStaticCompilation() ? name + "Scanner" : "scannerArray[0]";
       } else {
-        for (var statement : codeStatements) {
-          // TODO first statement declares self = statement, last statements sets bufferArray[0] to
-          //  the computed value
-        }
+        codeInfo
+            .getLoopVariableAssignments()
+            .add(
+                getTypeDeclaration(type)
+                    + " "
+                    + name
+                    + " = "
+                    + (codeInfo.isStaticCompilation()
+                        ? name + "Scanner"
+                        : "scannerArray[" + index + "]")
+                    + ".get()");
       }
+      index++;
+    }
 
-      codeInfo.getBodyInitializationStatements().add(bufferDeclaration.toString());
-      TemplateOutput output = new StringOutput();
-      templateEngine.render(codeInfo.getTemplateName(), codeInfo, output);
-      var compiled = groovyShell.compile(output.toString(), ExpressionBase.class, args.toArray());
-      return new ScalarComputationGroovy(compiled, scope, output.toString());
+    codeInfo.getBodyInitializationStatements().add(bufferSets.append(")").toString());
+    if (!codeInfo.isStaticCompilation()) {
+      codeInfo
+          .getLocalVariableDeclarations()
+          .add("def scannerArray = buffers.stream().map({b -> b.scan()}).toArray()");
     }
 
-    private String getTypeDeclaration(Storage storage) {
-      return switch (storage.getType()) {
-        case BOXING -> "Object";
-        case DOUBLE -> "double";
-        case FLOAT -> "float";
-        case INTEGER -> "int";
-        case LONG -> "long";
-        case KEYED -> "Concept";
-        case BOOLEAN -> "boolean";
-      };
+    if (statements.size() == 1) {
+      codeInfo.getMainCodeBlocks().add(target + ".add(" + statements.getFirst() + ")");
+    } else {
+      for (var statement : statements) {
+        // TODO first statement declares self = statement, last statements sets the target to
+        //  the computed value
+      }
     }
   }
 
+  // generated code is full of template indentation and blank lines that make no difference
+  private static String normalize(String source) {
+    return source
+        .lines()
+        .map(String::strip)
+        .filter(line -> !line.isEmpty())
+        .collect(Collectors.joining("\n"));
+  }
+
+  /**
+   * Render the template named in the passed info into source code.
+   *
+   * @param codeInfo
+   * @return
+   */
+  public static String render(TemplateCodeInfo codeInfo) {
+    TemplateOutput output = new StringOutput();
+    templateEngine.render(codeInfo.getTemplateName(), codeInfo, output);
+    return output.toString();
+  }
+
+  // keyed storage holds concepts, text or any other category, so its values are only known as Object
+  private static String getTypeDeclaration(Storage.Type type) {
+    return switch (type) {
+      case BOXING, KEYED -> "Object";
+      case DOUBLE -> "double";
+      case FLOAT -> "float";
+      case INTEGER -> "int";
+      case LONG -> "long";
+      case BOOLEAN -> "boolean";
+    };
+  }
+
+  private static String getScannerType(Storage.Type type) {
+    return switch (type) {
+      case DOUBLE -> "Storage.DoubleBuffer.DoubleScanner";
+      case FLOAT -> "Storage.FloatBuffer.FloatScanner";
+      case INTEGER -> "Storage.IntBuffer.IntScanner";
+      case LONG -> "Storage.LongBuffer.LongScanner";
+      case KEYED -> "Storage.KeyedBuffer.KeyedScanner";
+      case BOOLEAN -> "Storage.BooleanBuffer.BooleanScanner";
+      case BOXING ->
+          throw new KlabIllegalArgumentException("boxing storage has no typed buffers");
+    };
+  }
+
+  private static String getBufferType(Storage.Type type) {
+    return switch (type) {
+      case DOUBLE -> "Storage.DoubleBuffer";
+      case FLOAT -> "Storage.FloatBuffer";
+      case INTEGER -> "Storage.IntBuffer";
+      case LONG -> "Storage.LongBuffer";
+      case KEYED -> "Storage.KeyedBuffer";
+      case BOOLEAN -> "Storage.BooleanBuffer";
+      case BOXING ->
+          throw new KlabIllegalArgumentException("boxing storage has no typed buffers");
+    };
+  }
+
   private ExpressionBase script;
   private ContextScope scope;
   private String sourceCode;
@@ -20,6 +20,7 @@ public class TemplateCodeInfo {
 
   private String className;
   private String templateName;
+  private boolean staticCompilation;
 
   public List<String> getFieldDeclarations() {
     return fieldDeclarations;
@@ -101,4 +102,17 @@ public class TemplateCodeInfo {
   public void setBodyInitializationStatements(List<String> bodyInitializationStatements) {
     this.bodyInitializationStatements = bodyInitializationStatements;
   }
+
+  /**
+   * If true, the template must produce fully typed code and annotate it for static compilation.
+   *
+   * @return
+   */
+  public boolean isStaticCompilation() {
+    return staticCompilation;
+  }
+
+  public void setStaticCompilation(boolean staticCompilation) {
+    this.staticCompilation = staticCompilation;
+  }
 }
@@ -0,0 +1,125 @@
+package org.integratedmodelling.klab.runtime.scale.curves;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Arrays;
+import java.util.List;
+import org.integratedmodelling.klab.api.collections.Pair;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
+import org.integratedmodelling.klab.api.exceptions.KlabUnimplementedException;
+
+/**
+ * Bijection between the dense linear offsets of a storage and the integer coordinates of the cells
+ * in a regular n-dimensional grid, according to a {@link Data.SpaceFillingCurve}. Coordinates are
+ * in the order of the grid shape (x, y, z), each starting at 0.
+ *
+ * <p>Implementations are immutable and do not allocate: the coordinate array is supplied by the
+ * caller, so the same curve can be used by any number of threads as long as each uses its own
+ * array. The methods that take or return single coordinates use a per-thread array unless
+ * implementations compute them directly.
+ */
+public abstract class GridCurve implements Data.OffsetMapper {
+
+  private static final ThreadLocal<long[]> threadCoordinates =
+      ThreadLocal.withInitial(() -> new long[3]);
+
+  // curves with precomputed tables are expensive to build and are requested for every buffer
+  private static final Cache<Pair<Data.SpaceFillingCurve, List<Long>>, GridCurve> curves =
+      CacheBuilder.newBuilder().maximumSize(256).build();
+
+  protected final long[] shape;
+  protected final long size;
+
+  protected GridCurve(long[] shape) {
+    this.shape = shape.clone();
+    long size = 1;
+    for (long extent : shape) {
+      size *= extent;
+    }
+    this.size = size;
+  }
+
+  /**
+   * Get the curve for a grid of the passed shape. Curves are immutable and cached.
+   *
+   * @param curve
+   * @param shape the number of cells along each dimension, matching the curve dimensionality
+   * @return
+   */
+  public static GridCurve get(Data.SpaceFillingCurve curve, long... shape) {
+    return curves
+        .asMap()
+        .computeIfAbsent(
+            Pair.of(curve, Arrays.stream(shape).boxed().toList()),
+            key -> create(curve, shape));
+  }
+
+  private static GridCurve create(Data.SpaceFillingCurve curve, long... shape) {
+
+    // a linear curve on a multi-dimensional grid is the same as the row-major layout
+    if (curve != Data.SpaceFillingCurve.D1_LINEAR && curve.dimensions != shape.length) {
+      throw new KlabIllegalArgumentException(
+          "Space filling curve "
+              + curve
+              + " cannot be used on a grid with "
+              + shape.length
+              + " dimensions");
+    }
+
+    return switch (curve) {
+      case D1_LINEAR, D2_XY, D3_XYZ -> new LinearCurve(shape, new int[] {0, 1, 2}, 0);
+      case D2_YX -> new LinearCurve(shape, new int[] {1, 0}, 0);
+      case D2_XInvY -> new LinearCurve(shape, new int[] {0, 1}, 1 << 1);
+      case D3_ZYX -> new LinearCurve(shape, new int[] {2, 1, 0}, 0);
+      case D2_HILBERT, D3_HILBERT -> new Hilbert(shape);
+      default ->
+          throw new KlabUnimplementedException("GridCurve::create(" + curve + ")");
+    };
+  }
+
+  @Override
+  public int dimensions() {
+    return shape.length;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  public long[] shape() {
+    return shape.clone();
+  }
+
+  @Override
+  public long offset(long x, long y) {
+    var ret = threadCoordinates.get();
+    ret[0] = x;
+    ret[1] = y;
+    return offset(ret);
+  }
+
+  @Override
+  public long toX(long offset) {
+    return coordinates(offset, threadCoordinates.get())[0];
+  }
+
+  @Override
+  public long toY(long offset) {
+    return shape.length < 2 ? 0 : coordinates(offset, threadCoordinates.get())[1];
+  }
+
+  /**
+   * Translate an offset along this curve to the offset of the same cell along another curve over
+   * the same grid.
+   *
+   * @param offset
+   * @param target
+   * @param scratch an array with at least {@link #dimensions()} elements, overwritten
+   * @return
+   */
+  public long remap(long offset, GridCurve target, long[] scratch) {
+    return target.offset(coordinates(offset, scratch));
+  }
+}
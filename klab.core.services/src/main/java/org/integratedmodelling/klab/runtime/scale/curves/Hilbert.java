@@ -1,104 +1,227 @@
-//package org.integratedmodelling.klab.runtime.scale.curves;
-//
-//import java.time.Instant;
-//import java.util.ArrayList;
-//import java.util.List;
-//import java.util.function.Function;
-//
-//public class HilbertSpaceTimeKeyIndex implements KeyIndex<SpaceTimeKey> {
-//    private final KeyBounds<SpaceTimeKey> keyBounds;
-//    private final int xResolution;
-//    private final int yResolution;
-//    private final int temporalResolution;
-//    private final long startMillis;
-//    private final long timeWidth;
-//    private final long temporalBinCount;
-//    private final SpaceTimeKey minKey;
-//    private final CompactHilbertCurve chc;
-//
-//    private HilbertSpaceTimeKeyIndex(KeyBounds<SpaceTimeKey> keyBounds, int xResolution, int yResolution, int temporalResolution) {
-//        this.keyBounds = keyBounds;
-//        this.xResolution = xResolution;
-//        this.yResolution = yResolution;
-//        this.temporalResolution = temporalResolution;
-//        this.startMillis = keyBounds.getMinKey().getTemporalKey().getTime().toInstant().toEpochMilli();
-//        this.timeWidth = keyBounds.getMaxKey().getTemporalKey().getTime().toInstant().toEpochMilli() - this.startMillis;
-//        this.temporalBinCount = Math.pow(2, temporalResolution);
-//        this.minKey = keyBounds.getMinKey().getSpatialKey();
-//        this.chc = new CompactHilbertCurve(new MultiDimensionalSpec(List.of(xResolution, yResolution, temporalResolution).stream().map(Integer::valueOf).toList()));
-//    }
-//
-//    public static HilbertSpaceTimeKeyIndex apply(KeyBounds<SpaceTimeKey> keyBounds, int spatialResolution, int temporalResolution) {
-//        return apply(keyBounds, spatialResolution, spatialResolution, temporalResolution);
-//    }
-//
-//    public static HilbertSpaceTimeKeyIndex apply(KeyBounds<SpaceTimeKey> keyBounds, int xResolution, int yResolution, int temporalResolution) {
-//        return new HilbertSpaceTimeKeyIndex(keyBounds, xResolution, yResolution, temporalResolution);
-//    }
-//
-//    public static HilbertSpaceTimeKeyIndex apply(SpaceTimeKey minKey, SpaceTimeKey maxKey, int spatialResolution, int temporalResolution) {
-//        return apply(KeyBounds.create(minKey, maxKey), spatialResolution, temporalResolution);
-//    }
-//
-//    private long binTime(SpaceTimeKey key) {
-//        long bin = ((key.getTemporalKey().getTime().toInstant().toEpochMilli() - startMillis) * (long) temporalBinCount) / timeWidth;
-//        return bin == temporalBinCount ? bin - 1 : bin;
-//    }
-//
-//    @Override
-//    public BigInteger toIndex(SpaceTimeKey key) {
-//        BitVector[] bitVectors = new BitVector[]{
-//                BitVectorFactories.OPTIMAL.apply(xResolution),
-//                BitVectorFactories.OPTIMAL.apply(yResolution),
-//                BitVectorFactories.OPTIMAL.apply(temporalResolution)
-//        };
-//
-//        int col = key.getSpatialKey().getCol() - minKey.getCol();
-//        int row = key.getSpatialKey().getRow() - minKey.getRow();
-//        bitVectors[0].copyFrom(col);
-//        bitVectors[1].copyFrom(row);
-//        bitVectors[2].copyFrom(binTime(key));
-//
-//        BitVector hilbertBitVector = BitVectorFactories.OPTIMAL.apply(chc.getSpec().getSumBitsPerDimension());
-//        chc.index(bitVectors, 0, hilbertBitVector);
-//        return BigInteger.valueOf(hilbertBitVector.toExactLong());
-//    }
-//
-//    @Override
-//    public List<Pair<BigInteger, BigInteger>> indexRanges(Pair<SpaceTimeKey, SpaceTimeKey> keyRange) {
-//        List<LongRange> ranges = List.of(
-//                LongRange.of(keyRange.getFirst().getSpatialKey().getCol() - minKey.getCol(), keyRange.getSecond().getSpatialKey().getCol() - minKey.getCol() + 1),
-//                LongRange.of(keyRange.getFirst().getSpatialKey().getRow() - minKey.getRow(), keyRange.getSecond().getSpatialKey().getRow() - minKey.getRow() + 1),
-//                LongRange.of(binTime(keyRange.getFirst()), binTime(keyRange.getSecond()) + 1)
-//        );
-//
-//        RegionInspector<LongRange, LongContent> regionInspector = SimpleRegionInspector.create(
-//                ranges,
-//                new LongContent(1),
-//                Function.identity(),
-//                LongRangeHome.INSTANCE,
-//                new LongContent(0L)
-//        );
-//
-//        PlainFilterCombiner<LongRange, Long, LongContent, LongRange> combiner =
-//                new PlainFilterCombiner<>(LongRange.of(0, 1));
-//
-//        BacktrackingQueryBuilder<LongRange, Long, LongContent, LongRange> queryBuilder = BacktrackingQueryBuilder.create(
-//                regionInspector,
-//                combiner,
-//                Integer.MAX_VALUE,
-//                true,
-//                LongRangeHome.INSTANCE,
-//                new LongContent(0L)
-//        );
-//
-//        chc.accept(new ZoomingSpaceVisitorAdapter(chc, queryBuilder));
-//        List<FilteredIndexRange<LongRange>> filteredIndexRanges = queryBuilder.get().getFilteredIndexRanges();
-//
-//        List<Pair<BigInteger, BigInteger>> result = new ArrayList<>(filteredIndexRanges.size());
-//        for (FilteredIndexRange<LongRange> range : filteredIndexRanges) {
-//            result.add(new Pair<>(BigInteger.valueOf(range.getIndexRange().getStart()), BigInteger.valueOf(range.getIndexRange().getEnd() - 1)));
-//        }
-//        return result;
-//    }
-//}
\ No newline at end of file
+package org.integratedmodelling.klab.runtime.scale.curves;
+
+import java.util.Objects;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
+
+/**
+ * Compact Hilbert curve over a grid of any shape in 2 or 3 dimensions. The Hilbert index is
+ * computed on the smallest power-of-two cube enclosing the grid (J. Skilling, "Programming the
+ * Hilbert curve", AIP Conf. Proc. 707, 2004), then ranked among the cells that fall inside the
+ * grid, so that offsets are dense and the storage is no larger than the grid.
+ *
+ * <p>Ranking uses the fact that every aligned sub-cube of the enclosing cube is a contiguous run of
+ * the curve. The rank of the first cell of each sub-cube at a block level is precomputed (at most
+ * 2^16 blocks), so cells in blocks entirely within the grid are ranked in constant time. In blocks
+ * that straddle the grid edge, the cells of the sub-cubes that precede the one containing the point
+ * are counted by intersecting their box with the grid, descending until a sub-cube lies entirely
+ * within the grid. When the grid is itself a power-of-two cube no ranking is needed.
+ */
+public class Hilbert extends GridCurve {
+
+  private static final int MAX_BLOCK_TABLE_BITS = 16;
+
+  private final int dimensions;
+  private final int bits;
+  private final boolean complete;
+  private final int blockLevel;
+  // rank of the first grid cell in each block, plus the grid size at the end
+  private final long[] ranks;
+  private final ThreadLocal<long[]> scratch;
+
+  public Hilbert(long[] shape) {
+    super(shape);
+    this.dimensions = shape.length;
+    long max = 1;
+    for (long extent : shape) {
+      max = Math.max(max, extent);
+    }
+    this.bits = Math.max(1, Long.SIZE - Long.numberOfLeadingZeros(max - 1));
+    if (bits * dimensions > Long.SIZE - 2) {
+      throw new KlabIllegalArgumentException("grid is too large for a Hilbert index");
+    }
+    boolean complete = true;
+    for (long extent : shape) {
+      complete &= extent == 1L << bits;
+    }
+    this.complete = complete;
+    this.scratch = ThreadLocal.withInitial(() -> new long[dimensions]);
+    this.blockLevel = Math.max(0, bits - MAX_BLOCK_TABLE_BITS / dimensions);
+    if (complete) {
+      this.ranks = null;
+    } else {
+      int shift = blockLevel * dimensions;
+      this.ranks = new long[(1 << ((bits - blockLevel) * dimensions)) + 1];
+      var x = new long[dimensions];
+      for (int block = 0; block < ranks.length - 1; block++) {
+        ranks[block + 1] = ranks[block] + count((long) block << shift, blockLevel, x);
+      }
+    }
+  }
+
+  @Override
+  public long offset(long[] coordinates) {
+
+    var x = scratch.get();
+    System.arraycopy(coordinates, 0, x, 0, dimensions);
+    axesToTranspose(x);
+    long index = interleave(x);
+
+    if (complete) {
+      return index;
+    }
+
+    int shift = blockLevel * dimensions;
+    int block = (int) (index >>> shift);
+    long base = (long) block << shift;
+    long rank = ranks[block];
+    if (ranks[block + 1] - rank == 1L << shift) {
+      return rank + index - base;
+    }
+
+    int level = blockLevel;
+    while (count(base, level, x) != 1L << (level * dimensions)) {
+      level--;
+      long cells = 1L << (level * dimensions);
+      long child = (index - base) >>> (level * dimensions);
+      for (long c = 0; c < child; c++) {
+        rank += count(base + c * cells, level, x);
+      }
+      base += child * cells;
+    }
+
+    return rank + index - base;
+  }
+
+  @Override
+  public long[] coordinates(long offset, long[] coordinates) {
+
+    Objects.checkIndex(offset, size);
+
+    if (complete) {
+      return point(offset, coordinates);
+    }
+
+    // the last block starting at or before the offset, which is never empty
+    int low = 0;
+    int high = ranks.length - 2;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (ranks[mid] <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    int shift = blockLevel * dimensions;
+    long base = (long) low << shift;
+    offset -= ranks[low];
+    if (ranks[low + 1] - ranks[low] == 1L << shift) {
+      return point(base + offset, coordinates);
+    }
+
+    int level = blockLevel;
+    while (count(base, level, coordinates) != 1L << (level * dimensions)) {
+      level--;
+      long cells = 1L << (level * dimensions);
+      long cellsInChild;
+      while (offset >= (cellsInChild = count(base, level, coordinates))) {
+        offset -= cellsInChild;
+        base += cells;
+      }
+    }
+
+    return point(base + offset, coordinates);
+  }
+
+  /**
+   * Number of grid cells in the aligned sub-cube of side 2^level starting at the passed index.
+   *
+   * @param index
+   * @param level
+   * @param x scratch array
+   * @return
+   */
+  private long count(long index, int level, long[] x) {
+    point(index, x);
+    long side = 1L << level;
+    long ret = 1;
+    for (int i = 0; i < dimensions; i++) {
+      long origin = x[i] & -side;
+      ret *= Math.max(0, Math.min(side, shape[i] - origin));
+    }
+    return ret;
+  }
+
+  private long[] point(long index, long[] x) {
+    for (int i = 0; i < dimensions; i++) {
+      x[i] = 0;
+    }
+    for (int b = bits - 1; b >= 0; b--) {
+      for (int i = 0; i < dimensions; i++) {
+        x[i] |= ((index >>> (b * dimensions + dimensions - 1 - i)) & 1) << b;
+      }
+    }
+    transposeToAxes(x);
+    return x;
+  }
+
+  private long interleave(long[] x) {
+    long ret = 0;
+    for (int b = bits - 1; b >= 0; b--) {
+      for (int i = 0; i < dimensions; i++) {
+        ret = (ret << 1) | ((x[i] >>> b) & 1);
+      }
+    }
+    return ret;
+  }
+
+  private void axesToTranspose(long[] x) {
+    long m = 1L << (bits - 1);
+    for (long q = m; q > 1; q >>>= 1) {
+      long p = q - 1;
+      for (int i = 0; i < dimensions; i++) {
+        if ((x[i] & q) != 0) {
+          x[0] ^= p;
+        } else {
+          long t = (x[0] ^ x[i]) & p;
+          x[0] ^= t;
+          x[i] ^= t;
+        }
+      }
+    }
+    for (int i = 1; i < dimensions; i++) {
+      x[i] ^= x[i - 1];
+    }
+    long t = 0;
+    for (long q = m; q > 1; q >>>= 1) {
+      if ((x[dimensions - 1] & q) != 0) {
+        t ^= q - 1;
+      }
+    }
+    for (int i = 0; i < dimensions; i++) {
+      x[i] ^= t;
+    }
+  }
+
+  private void transposeToAxes(long[] x) {
+    long n = 2L << (bits - 1);
+    long t = x[dimensions - 1] >>> 1;
+    for (int i = dimensions - 1; i > 0; i--) {
+      x[i] ^= x[i - 1];
+    }
+    x[0] ^= t;
+    for (long q = 2; q != n; q <<= 1) {
+      long p = q - 1;
+      for (int i = dimensions - 1; i >= 0; i--) {
+        if ((x[i] & q) != 0) {
+          x[0] ^= p;
+        } else {
+          t = (x[0] ^ x[i]) & p;
+          x[0] ^= t;
+          x[i] ^= t;
+        }
+      }
+    }
+  }
+}
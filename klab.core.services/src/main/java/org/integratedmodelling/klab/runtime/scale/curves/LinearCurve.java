@@ -0,0 +1,71 @@
+package org.integratedmodelling.klab.runtime.scale.curves;
+
+/**
+ * Row-major layouts: the dimensions are traversed in a fixed order, each after the faster ones
+ * have been exhausted, optionally going from last to first along some of them. Covers all the
+ * linear {@link org.integratedmodelling.klab.api.data.Data.SpaceFillingCurve}s. All the mappings
+ * are computed directly from the strides, with no scratch storage.
+ */
+public class LinearCurve extends GridCurve {
+
+  // offset increment for a unit step along each dimension
+  private final long[] strides;
+  // bit i set if dimension i is traversed from last to first
+  private final int inverted;
+
+  /**
+   * @param shape
+   * @param order dimension indices from fastest to slowest varying; only the first {@code
+   *     shape.length} are used
+   * @param inverted bitmask of the dimensions traversed in reverse
+   */
+  public LinearCurve(long[] shape, int[] order, int inverted) {
+    super(shape);
+    this.strides = new long[shape.length];
+    this.inverted = inverted;
+    long stride = 1;
+    for (int i = 0; i < shape.length; i++) {
+      strides[order[i]] = stride;
+      stride *= shape[order[i]];
+    }
+  }
+
+  @Override
+  public long offset(long[] coordinates) {
+    long ret = 0;
+    for (int d = 0; d < strides.length; d++) {
+      ret += coordinate(d, coordinates[d]) * strides[d];
+    }
+    return ret;
+  }
+
+  @Override
+  public long offset(long x, long y) {
+    return strides.length < 2
+        ? coordinate(0, x)
+        : coordinate(0, x) * strides[0] + coordinate(1, y) * strides[1];
+  }
+
+  @Override
+  public long[] coordinates(long offset, long[] coordinates) {
+    for (int d = 0; d < strides.length; d++) {
+      coordinates[d] = coordinate(d, (offset / strides[d]) % shape[d]);
+    }
+    return coordinates;
+  }
+
+  @Override
+  public long toX(long offset) {
+    return coordinate(0, (offset / strides[0]) % shape[0]);
+  }
+
+  @Override
+  public long toY(long offset) {
+    return strides.length < 2 ? 0 : coordinate(1, (offset / strides[1]) % shape[1]);
+  }
+
+  // the inversion is its own inverse, so this works in both directions
+  private long coordinate(int dimension, long value) {
+    return (inverted & (1 << dimension)) == 0 ? value : shape[dimension] - 1 - value;
+  }
+}
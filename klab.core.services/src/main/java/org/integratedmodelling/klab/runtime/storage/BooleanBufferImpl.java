@@ -0,0 +1,176 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import com.dynatrace.dynahist.layout.CustomLayout;
+import com.dynatrace.dynahist.layout.Layout;
+import java.util.function.LongUnaryOperator;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+
+/**
+ * Bit-packed boolean buffer over a region of 64-bit words. Each split starts at a word boundary of
+ * the region (see {@link StorageImpl}), so that splits never share a word and can be written
+ * concurrently. Offsets passed to the random access methods are the storage offsets of the states
+ * in this buffer.
+ *
+ * <p>In views along another fill curve the remapping yields bit indices directly. Their cells are
+ * scattered over words owned by other splits and views, so that a view may write a word at the
+ * same time as another view or split: all single-bit writes are therefore atomic updates of their
+ * word.
+ */
+public class BooleanBufferImpl extends BufferImpl implements Storage.BooleanBuffer {
+
+  private final Region data;
+  private final long firstBit;
+
+  /**
+   * @param region the bitmap for all the splits
+   * @param firstBit the bit in the region where this buffer starts, a multiple of 64
+   */
+  protected BooleanBufferImpl(
+      Geometry geometry,
+      Observation observation,
+      StorageImpl storage,
+      Region region,
+      long firstBit,
+      long size,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      long offsets,
+      long timestamp) {
+    super(geometry, observation, storage, size, spaceFillingCurve, offsets, timestamp);
+    this.data = region;
+    this.firstBit = firstBit;
+  }
+
+  private BooleanBufferImpl(
+      BooleanBufferImpl source,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+    this.firstBit = source.firstBit;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new BooleanBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
+    return data;
+  }
+
+  @Override
+  protected Layout histogramLayout(Observable observable) {
+    // false and true
+    return CustomLayout.create(0.5);
+  }
+
+  /*
+   * Counts the set bits a word at a time, reading the words in chunks with the bulk accessor.
+   */
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    long trues = 0;
+    long words = (size() + Long.SIZE - 1) / Long.SIZE;
+    var chunk = new long[(int) Math.min(CHUNK_SIZE, words)];
+    for (long start = 0; start < words; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, words - start);
+      data.getLongs((firstBit >>> 6) + start, chunk, 0, length);
+      for (int i = 0; i < length; i++) {
+        var word = chunk[i];
+        // ignore the bits past the end of the buffer in its last word
+        long bits = size() - (start + i) * Long.SIZE;
+        if (bits < Long.SIZE) {
+          word &= (1L << bits) - 1;
+        }
+        trues += Long.bitCount(word);
+      }
+    }
+    if (trues < size()) {
+      histogram.addValue(0, size() - trues);
+    }
+    if (trues > 0) {
+      histogram.addValue(1, trues);
+    }
+  }
+
+  private boolean bit(long index) {
+    return (data.getLong(index >>> 6) & (1L << (index & 63))) != 0;
+  }
+
+  private void setBit(long index, boolean value) {
+    data.putBits(index >>> 6, 1L << (index & 63), value);
+  }
+
+  private long bitIndex(long offset) {
+    return remapping == null ? firstBit + offset - offset() : remapping.applyAsLong(offset);
+  }
+
+  public BooleanScanner scan() {
+    return new BooleanScanner() {
+
+      final long end = offset() + size();
+      long next = offset();
+
+      @Override
+      public boolean get() {
+        return bit(bitIndex(next++));
+      }
+
+      @Override
+      public boolean peek() {
+        return bit(bitIndex(next));
+      }
+
+      @Override
+      public void add(boolean value) {
+        source.modified = true;
+        setBit(bitIndex(next++), value);
+      }
+
+      @Override
+      public long nextLong() {
+        return next++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+    };
+  }
+
+  @Override
+  public boolean get(long offset) {
+    return bit(bitIndex(offset));
+  }
+
+  @Override
+  public void set(boolean value, long offset) {
+    source.modified = true;
+    setBit(bitIndex(offset), value);
+  }
+
+  @Override
+  public void fill(boolean value) {
+    source.modified = true;
+    if (remapping != null) {
+      for (long i = offset(); i < offset() + size(); i++) {
+        setBit(bitIndex(i), value);
+      }
+      return;
+    }
+    long end = firstBit + size();
+    long index = firstBit;
+    // whole words first, then the bits in the last partial one
+    for (; index + 64 <= end; index += 64) {
+      data.putLong(index >>> 6, value ? -1L : 0L);
+    }
+    if (index < end) {
+      data.putBits(index >>> 6, (1L << (end - index)) - 1, value);
+    }
+  }
+}
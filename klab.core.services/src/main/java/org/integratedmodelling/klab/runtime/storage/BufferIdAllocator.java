@@ -0,0 +1,67 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+import org.integratedmodelling.klab.utilities.BlockIdAllocator;
+
+/**
+ * Allocates buffer IDs that survive restarts. IDs are handed out by a {@link BlockIdAllocator}
+ * whose blocks are reserved by raising a high-water mark kept in a small memory-mapped header file.
+ * Raising the mark is a memory write that the OS flushes to disk on its own schedule, so no
+ * reservation waits for I/O, and after a restart the numbering resumes past the last reserved
+ * block. At most one block of IDs is wasted per restart.
+ */
+public class BufferIdAllocator {
+
+  public static final long DEFAULT_BLOCK_SIZE = 1024L;
+
+  private static final long MAGIC = 0x6b4c414249445331L;
+  private static final int HEADER_SIZE = 2 * Long.BYTES;
+
+  private final MappedByteBuffer header;
+  private final BlockIdAllocator allocator;
+
+  /**
+   * @param file the header file, created if it does not exist
+   * @param initialValue the high-water mark to start from when the file is new
+   * @param blockSize
+   */
+  public BufferIdAllocator(File file, long initialValue, long blockSize) {
+    try (var channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      // the mapping stays valid after the channel is closed
+      this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+    if (header.getLong(0) != MAGIC) {
+      header.putLong(Long.BYTES, initialValue);
+      header.putLong(0, MAGIC);
+    }
+    this.allocator = new BlockIdAllocator(blockSize, this::reserve);
+  }
+
+  // called by the allocator under its lock: the block starts past the current mark
+  private long reserve(long blockSize) {
+    var first = header.getLong(Long.BYTES) + 1;
+    header.putLong(Long.BYTES, first + blockSize - 1);
+    return first;
+  }
+
+  public long nextId() {
+    return allocator.nextId();
+  }
+
+  /** Write the high-water mark to disk synchronously. */
+  public synchronized void flush() {
+    header.force();
+  }
+}
@@ -1,6 +1,7 @@
 package org.integratedmodelling.klab.runtime.storage;
 
 import com.dynatrace.dynahist.layout.Layout;
+import java.util.function.LongUnaryOperator;
 import org.integratedmodelling.klab.api.Klab;
 import org.integratedmodelling.klab.api.data.CursorImpl;
 import org.integratedmodelling.klab.api.data.Data;
@@ -12,24 +13,54 @@ import org.integratedmodelling.klab.api.knowledge.observation.Observation;
 import org.integratedmodelling.klab.api.scope.Persistence;
 import org.integratedmodelling.klab.utilities.Utils;
 
-/** Base buffer provides the histogram and the geometry indexing/merging */
+/**
+ * Base buffer provides the histogram and the geometry indexing/merging.
+ *
+ * <p>A buffer can also be a view of another that presents the same data along a different fill
+ * curve: offsets along the view's curve are translated to storage offsets on access, without
+ * copying. The view covers the same range of offsets as its source along its own curve, so the
+ * views of all the splits of a storage cover it exactly once.
+ */
 public abstract class BufferImpl extends CursorImpl implements Storage.Buffer {
 
+  /**
+   * Number of values passed at once by the chunked scanners: 32 KB of doubles, so that a chunk
+   * stays in L1/L2 cache while the consumer works on it.
+   */
+  public static final int CHUNK_SIZE = 4096;
+
+  private final Geometry geometry;
   private final Data.SpaceFillingCurve spaceFillingCurve;
   private final Persistence persistence;
   private final Storage.Type dataType;
   private final long offset;
+  private final long size;
   private long id; // for reference in the knowledge graoh
   private final String urn; // for persistent reference in storage manager
   private final StorageImpl storage;
   private final long timestamp;
-  protected com.dynatrace.dynahist.Histogram histogram;
+  // null if histograms aren't recorded
+  private final Layout histogramLayout;
+  private volatile com.dynatrace.dynahist.Histogram histogram;
+
+  /*
+   * Set by all writers, reset when the histogram is computed from the data. Not volatile:
+   * histograms are requested after the tasks that write have been joined, and a stale read only
+   * costs a recomputation.
+   */
+  protected boolean modified;
   private long transientId = Klab.getNextId();
 
+  /** The buffer owning the modification flag: this one, unless this is a view. */
+  protected final BufferImpl source;
+
+  /** Maps offsets along this buffer's fill curve to storage offsets; null if they coincide. */
+  protected final LongUnaryOperator remapping;
+
   /**
    * @param geometry The <em>overall</em> geometry for the buffer
    * @param stateStorage
-   * @param size
+   * @param size the number of states in this buffer, which may be a split of the geometry
    * @param spaceFillingCurve
    * @param offsets extent-based offsets with the start offset in the
    */
@@ -42,22 +73,121 @@ public abstract class BufferImpl extends CursorImpl implements Storage.Buffer {
       long offsets,
       long timestamp) {
     super(geometry, spaceFillingCurve);
+    this.geometry = geometry;
+    this.source = this;
+    this.remapping = null;
     this.storage = stateStorage;
     this.timestamp = timestamp;
     this.dataType = stateStorage.getType();
     this.urn = observation.getUrn() + "#" + stateStorage.stateStorage.nextBufferId();
     this.persistence = Persistence.SERVICE_SHUTDOWN;
     this.offset = offsets;
+    this.size = size;
     this.spaceFillingCurve = spaceFillingCurve;
-    if (stateStorage.stateStorage.isRecordHistogram()) {
-      this.histogram =
-          com.dynatrace.dynahist.Histogram.createDynamic(
-              histogramLayout(observation.getObservable()));
-    }
+    this.histogramLayout =
+        stateStorage.stateStorage.isRecordHistogram()
+            ? histogramLayout(observation.getObservable())
+            : null;
+  }
+
+  /**
+   * Create a view of the passed buffer along another fill curve, sharing data, histogram and
+   * identity with it.
+   *
+   * @param source
+   * @param spaceFillingCurve
+   * @param remapping from offsets along the passed curve to the offsets used by the source
+   */
+  protected BufferImpl(
+      BufferImpl source, Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    super(source.geometry, spaceFillingCurve);
+    this.geometry = source.geometry;
+    this.source = source;
+    this.remapping = remapping;
+    this.storage = source.storage;
+    this.timestamp = source.timestamp;
+    this.dataType = source.dataType;
+    this.urn = source.urn;
+    this.persistence = source.persistence;
+    this.offset = source.offset;
+    this.size = source.size;
+    this.spaceFillingCurve = spaceFillingCurve;
+    this.histogramLayout = null;
+    this.id = source.id;
+    this.transientId = source.transientId;
   }
 
   protected abstract Layout histogramLayout(Observable observable);
 
+  /**
+   * Add all the values in this buffer's range of the storage to the passed histogram. Only called
+   * on buffers that aren't views.
+   *
+   * @param histogram
+   */
+  protected abstract void addValues(com.dynatrace.dynahist.Histogram histogram);
+
+  /**
+   * Create a view of this buffer along the passed fill curve.
+   *
+   * @param spaceFillingCurve
+   * @param remapping
+   * @return
+   */
+  abstract BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping);
+
+  /**
+   * The storage offset for the passed offset along this buffer's fill curve.
+   *
+   * @param offset
+   * @return
+   */
+  protected final long stored(long offset) {
+    return remapping == null ? offset : remapping.applyAsLong(offset);
+  }
+
+  protected StorageImpl getStorage() {
+    return storage;
+  }
+
+  /**
+   * Compute the histogram again from the data if the buffer has been written since it was last
+   * computed. Rewritten cells are therefore only counted with their current value, however many
+   * times they are written. Views update the histogram of their source.
+   *
+   * @return whether the histogram has changed
+   */
+  boolean updateHistogram() {
+    if (source != this) {
+      return source.updateHistogram();
+    }
+    synchronized (this) {
+      if (histogramLayout == null || (histogram != null && !modified)) {
+        return false;
+      }
+      var written = modified;
+      // reset first: writes happening during the scan will cause another update
+      modified = false;
+      var ret = com.dynatrace.dynahist.Histogram.createDynamic(histogramLayout);
+      if (written) {
+        addValues(ret);
+      }
+      histogram = ret;
+      return true;
+    }
+  }
+
+  /**
+   * The histogram of the values in this buffer, up to date with the data, or null if histograms
+   * aren't recorded.
+   *
+   * @return
+   */
+  com.dynatrace.dynahist.Histogram currentHistogram() {
+    updateHistogram();
+    return source.histogram;
+  }
+
   @Override
   public long getId() {
     return id;
@@ -69,7 +199,7 @@ public abstract class BufferImpl extends CursorImpl implements Storage.Buffer {
 
   @Override
   public long size() {
-    return multiplicity;
+    return size;
   }
 
   @Override
@@ -117,7 +247,7 @@ public abstract class BufferImpl extends CursorImpl implements Storage.Buffer {
   //  }
 
   public Histogram histogram() {
-    return Utils.Data.adaptHistogram(this.histogram);
+    return Utils.Data.adaptHistogram(currentHistogram());
   }
 
   @Override
@@ -126,7 +256,7 @@ public abstract class BufferImpl extends CursorImpl implements Storage.Buffer {
         + "fillCurve="
         + spaceFillingCurve
         + ", size="
-        + multiplicity
+        + size
         + ", offset="
         + offset
         + ", id='"
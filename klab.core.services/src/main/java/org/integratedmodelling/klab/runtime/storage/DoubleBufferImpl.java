@@ -1,61 +1,103 @@
 package org.integratedmodelling.klab.runtime.storage;
 
 import com.dynatrace.dynahist.layout.Layout;
-import com.dynatrace.dynahist.layout.OpenTelemetryExponentialBucketsLayout;
+import java.util.function.LongUnaryOperator;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.Observable;
 import org.integratedmodelling.klab.api.knowledge.observation.Observation;
-import org.ojalgo.array.BufferArray;
 
+/**
+ * A view on the range of the storage's backing region starting at the buffer's offset. All the
+ * splits of a storage at the same time share the same region.
+ */
 public class DoubleBufferImpl extends BufferImpl implements Storage.DoubleBuffer {
 
-  private final BufferArray data;
+  private final Region data;
 
   protected DoubleBufferImpl(
       Geometry geometry,
       Observation observation,
       StorageImpl doubleStorage,
+      Region region,
       long size,
       Data.SpaceFillingCurve spaceFillingCurve,
       long offsets,
       long timestamp) {
     super(geometry, observation, doubleStorage, size, spaceFillingCurve, offsets, timestamp);
-    this.data = doubleStorage.stateStorage.getDoubleBuffer(doubleStorage.geometry.size());
+    this.data = region;
   }
 
-  public BufferArray data() {
+  private DoubleBufferImpl(
+      DoubleBufferImpl source,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new DoubleBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
     return data;
   }
 
   @Override
   protected Layout histogramLayout(Observable observable) {
-    // TODO if the observable has numeric boundaries, use those for a predefined layout
-    return OpenTelemetryExponentialBucketsLayout.create(10);
+    return getStorage().numericHistogramLayout();
+  }
+
+  /*
+   * Reads the data in chunks through the bulk accessors, adding runs of equal values (e.g. the
+   * nodata areas of a map) with a single call.
+   */
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    var chunk = new double[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      data.getDoubles(start, chunk, 0, length);
+      for (int i = 0; i < length; ) {
+        var value = chunk[i];
+        int run = 1;
+        while (i + run < length && chunk[i + run] == value) {
+          run++;
+        }
+        // nodata values don't go in the histogram
+        if (!Double.isNaN(value)) {
+          histogram.addValue(value, run);
+        }
+        i += run;
+      }
+    }
   }
 
   public DoubleScanner scan() {
     return new DoubleScanner() {
 
-      long next = 0L;
+      final long start = offset();
+      final long end = start + size();
+      long next = start;
 
       @Override
       public double get() {
-        return data.get(next++);
+        return data.getDouble(stored(next++));
       }
 
       @Override
       public double peek() {
-        return data.get(next);
+        return data.getDouble(stored(next));
       }
 
       @Override
       public void add(double value) {
-        if (histogram != null) {
-          histogram.addValue(value);
-        }
-        data.set(next++, value);
+        source.modified = true;
+        data.putDouble(stored(next++), value);
       }
 
       @Override
@@ -65,23 +107,63 @@ public class DoubleBufferImpl extends BufferImpl implements Storage.DoubleBuffer
 
       @Override
       public boolean hasNext() {
-        return next < multiplicity;
+        return next < end;
       }
     };
   }
 
   @Override
   public double get(long offset) {
-    return 0;
+    return data.getDouble(stored(offset));
   }
 
   @Override
   public void set(double value, long offset) {
-    data.add(offset, value);
+    source.modified = true;
+    data.putDouble(stored(offset), value);
   }
 
   @Override
   public void fill(double value) {
-    data.fillAll(value);
+    source.modified = true;
+    for (long i = offset(); i < offset() + size(); i++) {
+      data.putDouble(stored(i), value);
+    }
+  }
+
+  @Override
+  public void read(long offset, double[] destination, int length) {
+    if (remapping == null) {
+      data.getDoubles(offset, destination, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        destination[i] = data.getDouble(remapping.applyAsLong(offset + i));
+      }
+    }
+  }
+
+  @Override
+  public void write(long offset, double[] values, int length) {
+    source.modified = true;
+    if (remapping == null) {
+      data.putDoubles(offset, values, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        data.putDouble(remapping.applyAsLong(offset + i), values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachChunk(DoubleChunkConsumer consumer) {
+    var chunk = new double[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      read(start, chunk, length);
+      if (consumer.accept(start, chunk, length)) {
+        write(start, chunk, length);
+      }
+    }
   }
 }
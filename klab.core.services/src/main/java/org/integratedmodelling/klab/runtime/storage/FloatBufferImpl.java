@@ -0,0 +1,165 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import com.dynatrace.dynahist.layout.Layout;
+import java.util.function.LongUnaryOperator;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+
+/**
+ * Single-precision floating point buffer, a view on a range of the storage's backing region like
+ * {@link DoubleBufferImpl}.
+ */
+public class FloatBufferImpl extends BufferImpl implements Storage.FloatBuffer {
+
+  private final Region data;
+
+  protected FloatBufferImpl(
+      Geometry geometry,
+      Observation observation,
+      StorageImpl storage,
+      Region region,
+      long size,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      long offsets,
+      long timestamp) {
+    super(geometry, observation, storage, size, spaceFillingCurve, offsets, timestamp);
+    this.data = region;
+  }
+
+  private FloatBufferImpl(
+      FloatBufferImpl source,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new FloatBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
+    return data;
+  }
+
+  @Override
+  protected Layout histogramLayout(Observable observable) {
+    return getStorage().numericHistogramLayout();
+  }
+
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    var chunk = new float[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      data.getFloats(start, chunk, 0, length);
+      for (int i = 0; i < length; ) {
+        var value = chunk[i];
+        int run = 1;
+        while (i + run < length && chunk[i + run] == value) {
+          run++;
+        }
+        // nodata values don't go in the histogram
+        if (!Float.isNaN(value)) {
+          histogram.addValue(value, run);
+        }
+        i += run;
+      }
+    }
+  }
+
+  public FloatScanner scan() {
+    return new FloatScanner() {
+
+      final long start = offset();
+      final long end = start + size();
+      long next = start;
+
+      @Override
+      public float get() {
+        return data.getFloat(stored(next++));
+      }
+
+      @Override
+      public float peek() {
+        return data.getFloat(stored(next));
+      }
+
+      @Override
+      public void add(float value) {
+        source.modified = true;
+        data.putFloat(stored(next++), value);
+      }
+
+      @Override
+      public long nextLong() {
+        return next++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+    };
+  }
+
+  @Override
+  public float get(long offset) {
+    return data.getFloat(stored(offset));
+  }
+
+  @Override
+  public void set(float value, long offset) {
+    source.modified = true;
+    data.putFloat(stored(offset), value);
+  }
+
+  @Override
+  public void fill(float value) {
+    source.modified = true;
+    for (long i = offset(); i < offset() + size(); i++) {
+      data.putFloat(stored(i), value);
+    }
+  }
+
+  @Override
+  public void read(long offset, float[] destination, int length) {
+    if (remapping == null) {
+      data.getFloats(offset, destination, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        destination[i] = data.getFloat(remapping.applyAsLong(offset + i));
+      }
+    }
+  }
+
+  @Override
+  public void write(long offset, float[] values, int length) {
+    source.modified = true;
+    if (remapping == null) {
+      data.putFloats(offset, values, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        data.putFloat(remapping.applyAsLong(offset + i), values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachChunk(FloatChunkConsumer consumer) {
+    var chunk = new float[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      read(start, chunk, length);
+      if (consumer.accept(start, chunk, length)) {
+        write(start, chunk, length);
+      }
+    }
+  }
+}
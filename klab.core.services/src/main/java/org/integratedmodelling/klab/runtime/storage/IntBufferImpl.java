@@ -0,0 +1,160 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import com.dynatrace.dynahist.layout.Layout;
+import java.util.function.LongUnaryOperator;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+
+/**
+ * 32-bit integer buffer, a view on a range of the storage's backing region like {@link
+ * DoubleBufferImpl}.
+ */
+public class IntBufferImpl extends BufferImpl implements Storage.IntBuffer {
+
+  private final Region data;
+
+  protected IntBufferImpl(
+      Geometry geometry,
+      Observation observation,
+      StorageImpl storage,
+      Region region,
+      long size,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      long offsets,
+      long timestamp) {
+    super(geometry, observation, storage, size, spaceFillingCurve, offsets, timestamp);
+    this.data = region;
+  }
+
+  private IntBufferImpl(
+      IntBufferImpl source, Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new IntBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
+    return data;
+  }
+
+  @Override
+  protected Layout histogramLayout(Observable observable) {
+    return getStorage().numericHistogramLayout();
+  }
+
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    var chunk = new int[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      data.getInts(start, chunk, 0, length);
+      for (int i = 0; i < length; ) {
+        var value = chunk[i];
+        int run = 1;
+        while (i + run < length && chunk[i + run] == value) {
+          run++;
+        }
+        histogram.addValue(value, run);
+        i += run;
+      }
+    }
+  }
+
+  public IntScanner scan() {
+    return new IntScanner() {
+
+      final long start = offset();
+      final long end = start + size();
+      long next = start;
+
+      @Override
+      public int get() {
+        return data.getInt(stored(next++));
+      }
+
+      @Override
+      public int peek() {
+        return data.getInt(stored(next));
+      }
+
+      @Override
+      public void add(int value) {
+        source.modified = true;
+        data.putInt(stored(next++), value);
+      }
+
+      @Override
+      public long nextLong() {
+        return next++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+    };
+  }
+
+  @Override
+  public int get(long offset) {
+    return data.getInt(stored(offset));
+  }
+
+  @Override
+  public void set(int value, long offset) {
+    source.modified = true;
+    data.putInt(stored(offset), value);
+  }
+
+  @Override
+  public void fill(int value) {
+    source.modified = true;
+    for (long i = offset(); i < offset() + size(); i++) {
+      data.putInt(stored(i), value);
+    }
+  }
+
+  @Override
+  public void read(long offset, int[] destination, int length) {
+    if (remapping == null) {
+      data.getInts(offset, destination, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        destination[i] = data.getInt(remapping.applyAsLong(offset + i));
+      }
+    }
+  }
+
+  @Override
+  public void write(long offset, int[] values, int length) {
+    source.modified = true;
+    if (remapping == null) {
+      data.putInts(offset, values, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        data.putInt(remapping.applyAsLong(offset + i), values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachChunk(IntChunkConsumer consumer) {
+    var chunk = new int[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      read(start, chunk, length);
+      if (consumer.accept(start, chunk, length)) {
+        write(start, chunk, length);
+      }
+    }
+  }
+}
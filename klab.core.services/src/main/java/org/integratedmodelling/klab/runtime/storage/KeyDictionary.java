@@ -0,0 +1,111 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Int-coded dictionary for the values of a keyed storage, shared by all its buffers so that keys
+ * are consistent across splits and time slices. Keys are assigned in order of first appearance and
+ * lookups in both directions are lock-free; only new values take a lock.
+ *
+ * <p>Values are kept in fixed-size chunks that are never copied once filled, so adding a value
+ * costs the same however many there are. A value is published by the volatile size written after
+ * it.
+ *
+ * <p>New values can be passed to a listener as they are added, in key order, so that the dictionary
+ * can be saved along with the data and restored with the same keys.
+ */
+public class KeyDictionary {
+
+  /** The key for null values. */
+  public static final int NO_KEY = -1;
+
+  private static final int CHUNK_SHIFT = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+  private final Map<Object, Integer> keys = new ConcurrentHashMap<>();
+  private volatile Object[][] chunks = new Object[1][];
+  private volatile int size;
+  private final Consumer<Object> listener;
+
+  public KeyDictionary() {
+    this(List.of(), null);
+  }
+
+  /**
+   * @param values values already known, which get keys from 0 in the order passed
+   * @param listener called with each value added afterwards, under the dictionary's lock; may be
+   *     null
+   */
+  public KeyDictionary(List<?> values, Consumer<Object> listener) {
+    for (var value : values) {
+      // appended even if repeated, so that the keys of the values that follow don't shift
+      keys.putIfAbsent(value, append(value));
+    }
+    this.listener = listener;
+  }
+
+  public int key(Object value) {
+    if (value == null) {
+      return NO_KEY;
+    }
+    var ret = keys.get(value);
+    if (ret != null) {
+      return ret;
+    }
+    synchronized (this) {
+      return keys.computeIfAbsent(
+          value,
+          v -> {
+            // first, so that nothing is added if the listener fails
+            if (listener != null) {
+              listener.accept(v);
+            }
+            return append(v);
+          });
+    }
+  }
+
+  // called with the lock held
+  private int append(Object value) {
+    int ret = size;
+    var current = chunks;
+    int chunk = ret >>> CHUNK_SHIFT;
+    if (chunk == current.length) {
+      var grown = new Object[current.length * 2][];
+      System.arraycopy(current, 0, grown, 0, current.length);
+      chunks = current = grown;
+    }
+    if (current[chunk] == null) {
+      current[chunk] = new Object[CHUNK_SIZE];
+    }
+    current[chunk][ret & (CHUNK_SIZE - 1)] = value;
+    size = ret + 1;
+    return ret;
+  }
+
+  public Object value(int key) {
+    if (key == NO_KEY) {
+      return null;
+    }
+    if (key < 0 || key >= size) {
+      throw new IndexOutOfBoundsException("no value for key " + key);
+    }
+    return chunks[key >>> CHUNK_SHIFT][key & (CHUNK_SIZE - 1)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Map<Integer, String> dataKey() {
+    var ret = new LinkedHashMap<Integer, String>();
+    for (int i = 0; i < size(); i++) {
+      ret.put(i, value(i).toString());
+    }
+    return ret;
+  }
+}
@@ -1,15 +0,0 @@
-//package org.integratedmodelling.klab.runtime.storage;
-//
-//import org.integratedmodelling.klab.api.data.Data;
-//
-//public class KeyedBuffer extends AbstractBuffer {
-//
-//  protected KeyedBuffer(KeyedStorage keyedStorage, long size, Data.FillCurve fillCurve, long[] offsets) {
-//    super(keyedStorage, size, fillCurve, offsets);
-//  }
-//
-//  @Override
-//  public <T extends Data.Filler> T filler(Class<T> fillerClass) {
-//    return null;
-//  }
-//}
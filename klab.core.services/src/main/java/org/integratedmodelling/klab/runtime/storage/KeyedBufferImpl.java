@@ -0,0 +1,152 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import com.dynatrace.dynahist.layout.Layout;
+import com.dynatrace.dynahist.layout.LogLinearLayout;
+import java.util.Map;
+import java.util.function.LongUnaryOperator;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+
+/**
+ * Categorical buffer storing the keys of the values in the storage's {@link KeyDictionary} in an
+ * integer region. Each cell holds the key plus one, so that the zeroes of a new region read as
+ * {@link KeyDictionary#NO_KEY}, i.e. null, whatever the dictionary contains. The histogram counts
+ * the occurrences of each key.
+ */
+public class KeyedBufferImpl extends BufferImpl implements Storage.KeyedBuffer {
+
+  private final Region data;
+  private final KeyDictionary dictionary;
+
+  protected KeyedBufferImpl(
+      Geometry geometry,
+      Observation observation,
+      StorageImpl storage,
+      Region region,
+      KeyDictionary dictionary,
+      long size,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      long offsets,
+      long timestamp) {
+    super(geometry, observation, storage, size, spaceFillingCurve, offsets, timestamp);
+    this.data = region;
+    this.dictionary = dictionary;
+  }
+
+  private KeyedBufferImpl(
+      KeyedBufferImpl source,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+    this.dictionary = source.dictionary;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new KeyedBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
+    return data;
+  }
+
+  public KeyDictionary dictionary() {
+    return dictionary;
+  }
+
+  @Override
+  protected Layout histogramLayout(Observable observable) {
+    // one bin per key for all reasonable numbers of categories
+    return LogLinearLayout.create(0.5, 0.01, 0, Integer.MAX_VALUE);
+  }
+
+  private Object decode(int stored) {
+    return dictionary.value(stored - 1);
+  }
+
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    var chunk = new int[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      data.getInts(start, chunk, 0, length);
+      for (int i = 0; i < length; ) {
+        var value = chunk[i];
+        int run = 1;
+        while (i + run < length && chunk[i + run] == value) {
+          run++;
+        }
+        // cells hold the key plus one, zero for null
+        if (value != 0) {
+          histogram.addValue(value - 1, run);
+        }
+        i += run;
+      }
+    }
+  }
+
+  public KeyedScanner scan() {
+    return new KeyedScanner() {
+
+      final long start = offset();
+      final long end = start + size();
+      long next = start;
+
+      @Override
+      public Object get() {
+        return decode(data.getInt(stored(next++)));
+      }
+
+      @Override
+      public Object peek() {
+        return decode(data.getInt(stored(next)));
+      }
+
+      @Override
+      public void add(Object value) {
+        source.modified = true;
+        data.putInt(stored(next++), dictionary.key(value) + 1);
+      }
+
+      @Override
+      public long nextLong() {
+        return next++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+    };
+  }
+
+  @Override
+  public Object get(long offset) {
+    return decode(data.getInt(stored(offset)));
+  }
+
+  @Override
+  public void set(Object value, long offset) {
+    source.modified = true;
+    data.putInt(stored(offset), dictionary.key(value) + 1);
+  }
+
+  @Override
+  public void fill(Object value) {
+    var key = dictionary.key(value);
+    source.modified = true;
+    for (long i = offset(); i < offset() + size(); i++) {
+      data.putInt(stored(i), key + 1);
+    }
+  }
+
+  @Override
+  public Map<Integer, String> dataKey() {
+    return dictionary.dataKey();
+  }
+}
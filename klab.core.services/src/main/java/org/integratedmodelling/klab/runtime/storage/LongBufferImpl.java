@@ -0,0 +1,162 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import com.dynatrace.dynahist.layout.Layout;
+import java.util.function.LongUnaryOperator;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+
+/**
+ * 64-bit integer buffer, a view on a range of the storage's backing region like {@link
+ * DoubleBufferImpl}.
+ */
+public class LongBufferImpl extends BufferImpl implements Storage.LongBuffer {
+
+  private final Region data;
+
+  protected LongBufferImpl(
+      Geometry geometry,
+      Observation observation,
+      StorageImpl storage,
+      Region region,
+      long size,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      long offsets,
+      long timestamp) {
+    super(geometry, observation, storage, size, spaceFillingCurve, offsets, timestamp);
+    this.data = region;
+  }
+
+  private LongBufferImpl(
+      LongBufferImpl source,
+      Data.SpaceFillingCurve spaceFillingCurve,
+      LongUnaryOperator remapping) {
+    super(source, spaceFillingCurve, remapping);
+    this.data = source.data;
+  }
+
+  @Override
+  BufferImpl remap(Data.SpaceFillingCurve spaceFillingCurve, LongUnaryOperator remapping) {
+    return new LongBufferImpl(this, spaceFillingCurve, remapping);
+  }
+
+  public Region data() {
+    return data;
+  }
+
+  @Override
+  protected Layout histogramLayout(Observable observable) {
+    return getStorage().numericHistogramLayout();
+  }
+
+  @Override
+  protected void addValues(com.dynatrace.dynahist.Histogram histogram) {
+    var chunk = new long[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      data.getLongs(start, chunk, 0, length);
+      for (int i = 0; i < length; ) {
+        var value = chunk[i];
+        int run = 1;
+        while (i + run < length && chunk[i + run] == value) {
+          run++;
+        }
+        histogram.addValue(value, run);
+        i += run;
+      }
+    }
+  }
+
+  public LongScanner scan() {
+    return new LongScanner() {
+
+      final long start = offset();
+      final long end = start + size();
+      long next = start;
+
+      @Override
+      public long get() {
+        return data.getLong(stored(next++));
+      }
+
+      @Override
+      public long peek() {
+        return data.getLong(stored(next));
+      }
+
+      @Override
+      public void add(long value) {
+        source.modified = true;
+        data.putLong(stored(next++), value);
+      }
+
+      @Override
+      public long nextLong() {
+        return next++;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+    };
+  }
+
+  @Override
+  public long get(long offset) {
+    return data.getLong(stored(offset));
+  }
+
+  @Override
+  public void set(long value, long offset) {
+    source.modified = true;
+    data.putLong(stored(offset), value);
+  }
+
+  @Override
+  public void fill(long value) {
+    source.modified = true;
+    for (long i = offset(); i < offset() + size(); i++) {
+      data.putLong(stored(i), value);
+    }
+  }
+
+  @Override
+  public void read(long offset, long[] destination, int length) {
+    if (remapping == null) {
+      data.getLongs(offset, destination, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        destination[i] = data.getLong(remapping.applyAsLong(offset + i));
+      }
+    }
+  }
+
+  @Override
+  public void write(long offset, long[] values, int length) {
+    source.modified = true;
+    if (remapping == null) {
+      data.putLongs(offset, values, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        data.putLong(remapping.applyAsLong(offset + i), values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachChunk(LongChunkConsumer consumer) {
+    var chunk = new long[(int) Math.min(CHUNK_SIZE, size())];
+    long end = offset() + size();
+    for (long start = offset(); start < end; start += chunk.length) {
+      int length = (int) Math.min(chunk.length, end - start);
+      read(start, chunk, length);
+      if (consumer.accept(start, chunk, length)) {
+        write(start, chunk, length);
+      }
+    }
+  }
+}
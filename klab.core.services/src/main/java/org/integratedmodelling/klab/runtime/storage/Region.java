@@ -0,0 +1,255 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A range of a {@link StorageArena} file mapped in memory, holding the primitive values of all the
+ * buffers of one storage at one time. Mappings are limited in size, so the region is mapped in
+ * segments of 1 GB; elements never straddle two segments. Each region only holds one primitive
+ * type, whose accessors must be used consistently.
+ *
+ * <p>The bulk accessors copy whole runs of elements between the mapping and primitive arrays,
+ * splitting them at segment boundaries, through typed views of each segment. They
+ * only use absolute positions, so views and region can be shared among threads.
+ *
+ * <p>Bits in long words can be set and cleared atomically, for bitmaps whose words are written by
+ * more than one thread. The arena starts all regions on a multiple of 8 bytes so that these updates
+ * are aligned.
+ */
+public final class Region {
+
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final MappedByteBuffer[] segments;
+  private final long size;
+  // typed views on each segment for the bulk accessors
+  private final DoubleBuffer[] doubleViews;
+  private final FloatBuffer[] floatViews;
+  private final IntBuffer[] intViews;
+  private final LongBuffer[] longViews;
+
+  private Region(MappedByteBuffer[] segments, long size) {
+    this.segments = segments;
+    this.size = size;
+    this.doubleViews = new DoubleBuffer[segments.length];
+    this.floatViews = new FloatBuffer[segments.length];
+    this.intViews = new IntBuffer[segments.length];
+    this.longViews = new LongBuffer[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      doubleViews[i] = segments[i].asDoubleBuffer();
+      floatViews[i] = segments[i].asFloatBuffer();
+      intViews[i] = segments[i].asIntBuffer();
+      longViews[i] = segments[i].asLongBuffer();
+    }
+  }
+
+  /**
+   * @param channel
+   * @param position byte position in the file
+   * @param size number of elements
+   * @param elementBytes
+   * @return
+   * @throws IOException
+   */
+  static Region map(FileChannel channel, long position, long size, int elementBytes)
+      throws IOException {
+    long bytes = size * elementBytes;
+    var segments = new MappedByteBuffer[(int) ((bytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+    for (int i = 0; i < segments.length; i++) {
+      long start = (long) i << SEGMENT_SHIFT;
+      segments[i] =
+          channel.map(
+              FileChannel.MapMode.READ_WRITE,
+              position + start,
+              Math.min(1L << SEGMENT_SHIFT, bytes - start));
+      segments[i].order(ByteOrder.nativeOrder());
+    }
+    return new Region(segments, size);
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public double getDouble(long index) {
+    long b = index << 3;
+    return segments[(int) (b >>> SEGMENT_SHIFT)].getDouble((int) (b & SEGMENT_MASK));
+  }
+
+  public void putDouble(long index, double value) {
+    long b = index << 3;
+    segments[(int) (b >>> SEGMENT_SHIFT)].putDouble((int) (b & SEGMENT_MASK), value);
+  }
+
+  public float getFloat(long index) {
+    long b = index << 2;
+    return segments[(int) (b >>> SEGMENT_SHIFT)].getFloat((int) (b & SEGMENT_MASK));
+  }
+
+  public void putFloat(long index, float value) {
+    long b = index << 2;
+    segments[(int) (b >>> SEGMENT_SHIFT)].putFloat((int) (b & SEGMENT_MASK), value);
+  }
+
+  public int getInt(long index) {
+    long b = index << 2;
+    return segments[(int) (b >>> SEGMENT_SHIFT)].getInt((int) (b & SEGMENT_MASK));
+  }
+
+  public void putInt(long index, int value) {
+    long b = index << 2;
+    segments[(int) (b >>> SEGMENT_SHIFT)].putInt((int) (b & SEGMENT_MASK), value);
+  }
+
+  public long getLong(long index) {
+    long b = index << 3;
+    return segments[(int) (b >>> SEGMENT_SHIFT)].getLong((int) (b & SEGMENT_MASK));
+  }
+
+  public void putLong(long index, long value) {
+    long b = index << 3;
+    segments[(int) (b >>> SEGMENT_SHIFT)].putLong((int) (b & SEGMENT_MASK), value);
+  }
+
+  /**
+   * Atomically set or clear the bits in the passed mask in the long at the passed index, leaving
+   * the others as they are.
+   *
+   * @param index
+   * @param mask
+   * @param value
+   */
+  public void putBits(long index, long mask, boolean value) {
+    long b = index << 3;
+    var segment = segments[(int) (b >>> SEGMENT_SHIFT)];
+    int position = (int) (b & SEGMENT_MASK);
+    if (value) {
+      LONGS.getAndBitwiseOr(segment, position, mask);
+    } else {
+      LONGS.getAndBitwiseAnd(segment, position, ~mask);
+    }
+  }
+
+  public void getDoubles(long index, double[] destination, int offset, int length) {
+    while (length > 0) {
+      long b = index << 3;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 3);
+      doubleViews[segment].get(position >>> 3, destination, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void putDoubles(long index, double[] source, int offset, int length) {
+    while (length > 0) {
+      long b = index << 3;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 3);
+      doubleViews[segment].put(position >>> 3, source, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void getFloats(long index, float[] destination, int offset, int length) {
+    while (length > 0) {
+      long b = index << 2;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 2);
+      floatViews[segment].get(position >>> 2, destination, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void putFloats(long index, float[] source, int offset, int length) {
+    while (length > 0) {
+      long b = index << 2;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 2);
+      floatViews[segment].put(position >>> 2, source, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void getInts(long index, int[] destination, int offset, int length) {
+    while (length > 0) {
+      long b = index << 2;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 2);
+      intViews[segment].get(position >>> 2, destination, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void putInts(long index, int[] source, int offset, int length) {
+    while (length > 0) {
+      long b = index << 2;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 2);
+      intViews[segment].put(position >>> 2, source, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void getLongs(long index, long[] destination, int offset, int length) {
+    while (length > 0) {
+      long b = index << 3;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 3);
+      longViews[segment].get(position >>> 3, destination, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public void putLongs(long index, long[] source, int offset, int length) {
+    while (length > 0) {
+      long b = index << 3;
+      int segment = (int) (b >>> SEGMENT_SHIFT);
+      int position = (int) (b & SEGMENT_MASK);
+      int n = Math.min(length, (segments[segment].capacity() - position) >>> 3);
+      longViews[segment].put(position >>> 3, source, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /** Write the content to disk synchronously. */
+  public void force() {
+    for (var segment : segments) {
+      segment.force();
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package org.integratedmodelling.klab.runtime.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.integratedmodelling.common.logging.Logging;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.exceptions.KlabIOException;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalStateException;
+import org.integratedmodelling.klab.utilities.Utils;
+
+/**
+ * The storage space of one context: a single data file holding the regions of all its storages,
+ * plus an index that records where each region is. The data file grows in chunks as regions are
+ * added. The index is an append-only list of entries, so that adding a region never rewrites it;
+ * the last entry for a key wins. A context whose arena is closed can be reopened from the same
+ * directory and will find its regions with their content, so that nothing must be recomputed.
+ *
+ * <p>Keyed regions only hold the keys of their values, so the arena also keeps the dictionaries
+ * that give them meaning, in a third append-only file with one line per value in key order. Index
+ * and dictionary lines are flushed as they are written; the content of the regions is forced to
+ * disk when the arena is closed.
+ *
+ * <p>The last modification time of the directory records when the arena was last opened or closed,
+ * so that arenas left behind by contexts that were never disposed can be expired.
+ */
+public class StorageArena {
+
+  public static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+  private static final String DATA_FILE = "storage.bin";
+  private static final String INDEX_FILE = "storage.idx";
+  private static final String DICTIONARY_FILE = "storage.keys";
+
+  private record Entry(String key, Storage.Type type, long position, long size) {}
+
+  private final File directory;
+  private final Map<String, Entry> index = new HashMap<>();
+  private final Map<String, Region> regions = new HashMap<>();
+  private final Map<String, List<String>> dictionaries = new HashMap<>();
+  private RandomAccessFile file;
+  private Writer indexWriter;
+  private Writer dictionaryWriter;
+  private long capacity;
+  private long end;
+
+  public StorageArena(File directory) {
+    this.directory = directory;
+    directory.mkdirs();
+    try {
+      var indexFile = new File(directory, INDEX_FILE);
+      if (indexFile.exists()) {
+        try (var reader = new BufferedReader(new FileReader(indexFile))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            var fields = line.split("\t");
+            if (fields.length == 4) {
+              var entry =
+                  new Entry(
+                      fields[0],
+                      Storage.Type.valueOf(fields[1]),
+                      Long.parseLong(fields[2]),
+                      Long.parseLong(fields[3]));
+              index.put(entry.key(), entry);
+              end = Math.max(end, entry.position() + entry.size() * elementBytes(entry.type()));
+            }
+          }
+        }
+      }
+      var dictionaryFile = new File(directory, DICTIONARY_FILE);
+      if (dictionaryFile.exists()) {
+        try (var reader = new BufferedReader(new FileReader(dictionaryFile))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            var separator = line.indexOf('\t');
+            if (separator > 0) {
+              dictionaries
+                  .computeIfAbsent(line.substring(0, separator), k -> new ArrayList<>())
+                  .add(unescape(line.substring(separator + 1)));
+            }
+          }
+        }
+      }
+      this.file = new RandomAccessFile(new File(directory, DATA_FILE), "rw");
+      this.capacity = file.length();
+      this.indexWriter = new FileWriter(indexFile, true);
+      this.dictionaryWriter = new FileWriter(dictionaryFile, true);
+      directory.setLastModified(System.currentTimeMillis());
+      if (!index.isEmpty()) {
+        Logging.INSTANCE.info(
+            "Reopened storage arena in " + directory + " with " + index.size() + " regions");
+      }
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  public static int elementBytes(Storage.Type type) {
+    return switch (type) {
+      case DOUBLE, LONG, BOOLEAN -> Long.BYTES;
+      case FLOAT, INTEGER, KEYED -> Integer.BYTES;
+      case BOXING -> throw new KlabIllegalStateException("boxing storage has no primitive region");
+    };
+  }
+
+  /**
+   * Return the region for the passed key, mapping the existing one if the arena has it with the
+   * same type and size, or allocating a new one otherwise.
+   *
+   * @param key
+   * @param type
+   * @param size number of elements (words for bitmaps)
+   * @return
+   */
+  public synchronized Region region(String key, Storage.Type type, long size) {
+
+    if (file == null) {
+      throw new KlabIllegalStateException("storage arena in " + directory + " is closed");
+    }
+
+    var entry = index.get(key);
+    var ret = regions.get(key);
+    if (ret != null && entry.type() == type && ret.size() == size) {
+      return ret;
+    }
+
+    try {
+      if (entry == null || entry.type() != type || entry.size() != size) {
+        entry = new Entry(key, type, reserve(size * elementBytes(type)), size);
+        index.put(key, entry);
+        indexWriter.write(
+            key + "\t" + type + "\t" + entry.position() + "\t" + entry.size() + "\n");
+        indexWriter.flush();
+      }
+      ret = Region.map(file.getChannel(), entry.position(), size, elementBytes(type));
+      regions.put(key, ret);
+      return ret;
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  /**
+   * The values recorded for the dictionary with the passed key, in key order.
+   *
+   * @param key
+   * @return
+   */
+  public synchronized List<String> dictionary(String key) {
+    return List.copyOf(dictionaries.getOrDefault(key, List.of()));
+  }
+
+  /**
+   * Record the next value of the dictionary with the passed key. Values must be recorded in the
+   * order their keys were assigned. The value is on disk when this returns, before any region data
+   * that uses its key.
+   *
+   * @param key
+   * @param value
+   */
+  public synchronized void addDictionaryValue(String key, String value) {
+    if (file == null) {
+      throw new KlabIllegalStateException("storage arena in " + directory + " is closed");
+    }
+    dictionaries.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+    try {
+      dictionaryWriter.write(key + "\t" + escape(value) + "\n");
+      dictionaryWriter.flush();
+    } catch (IOException e) {
+      throw new KlabIOException(e);
+    }
+  }
+
+  // one line per value: tabs, newlines and backslashes in values are escaped
+  private static String escape(String value) {
+    return value
+        .replace("\\", "\\\\")
+        .replace("\t", "\\t")
+        .replace("\n", "\\n")
+        .replace("\r", "\\r");
+  }
+
+  private static String unescape(String value) {
+    var ret = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      var c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        c =
+            switch (value.charAt(++i)) {
+              case 't' -> '\t';
+              case 'n' -> '\n';
+              case 'r' -> '\r';
+              default -> value.charAt(i);
+            };
+      }
+      ret.append(c);
+    }
+    return ret.toString();
+  }
+
+  private long reserve(long bytes) throws IOException {
+    // aligned for the atomic updates of long words, whatever the previous region held
+    var ret = (end + Long.BYTES - 1) & -Long.BYTES;
+    end = ret;
+    end += bytes;
+    if (end > capacity) {
+      capacity = ((end + CHUNK_SIZE - 1) / CHUNK_SIZE) * CHUNK_SIZE;
+      file.setLength(capacity);
+    }
+    return ret;
+  }
+
+  /** Flush all regions to disk and release the files. The arena can be reopened later. */
+  public synchronized void close() {
+    if (file == null) {
+      return;
+    }
+    regions.values().forEach(Region::force);
+    regions.clear();
+    try {
+      indexWriter.close();
+      dictionaryWriter.close();
+      file.close();
+    } catch (IOException e) {
+      Logging.INSTANCE.error(e);
+    }
+    file = null;
+    directory.setLastModified(System.currentTimeMillis());
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /** Close the arena and delete its files. */
+  public synchronized void delete() {
+    close();
+    index.clear();
+    dictionaries.clear();
+    Utils.Files.deleteQuietly(directory);
+  }
+}
@@ -1,6 +1,10 @@
 package org.integratedmodelling.klab.runtime.storage;
 
+import com.dynatrace.dynahist.layout.CustomLayout;
+import com.dynatrace.dynahist.layout.Layout;
+import com.dynatrace.dynahist.layout.OpenTelemetryExponentialBucketsLayout;
 import java.util.*;
+import java.util.function.LongUnaryOperator;
 import org.integratedmodelling.common.knowledge.GeometryRepository;
 import org.integratedmodelling.klab.api.Klab;
 import org.integratedmodelling.klab.api.data.Data;
@@ -10,11 +14,14 @@ import org.integratedmodelling.klab.api.digitaltwin.Scheduler;
 import org.integratedmodelling.klab.api.exceptions.KlabIllegalStateException;
 import org.integratedmodelling.klab.api.exceptions.KlabUnimplementedException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Concept;
 import org.integratedmodelling.klab.api.knowledge.Observable;
 import org.integratedmodelling.klab.api.knowledge.observation.Observation;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.time.Time;
 import org.integratedmodelling.klab.api.lang.Annotation;
 import org.integratedmodelling.klab.api.scope.Persistence;
+import org.integratedmodelling.klab.api.services.Reasoner;
+import org.integratedmodelling.klab.runtime.scale.curves.GridCurve;
 import org.integratedmodelling.klab.services.scopes.ServiceContextScope;
 import org.integratedmodelling.klab.utilities.Utils;
 
@@ -32,6 +39,13 @@ public class StorageImpl implements Storage {
   protected Data.SpaceFillingCurve spaceFillingCurve;
   protected int splits;
   private long transientId = Klab.getNextId();
+  private KeyDictionary dictionary;
+  private Layout histogramLayout;
+  private com.dynatrace.dynahist.Histogram mergedHistogram;
+  private final Set<Long> mergedSlices = new HashSet<>();
+  private final Map<Long, com.dynatrace.dynahist.Histogram> sliceHistograms = new TreeMap<>();
+  private final Map<Data.SpaceFillingCurve, LongUnaryOperator> remappings =
+      new EnumMap<>(Data.SpaceFillingCurve.class);
 
   /*
    * Buffer storage along slowest-varying dimensions. All dimensions except the
@@ -70,6 +84,20 @@ public class StorageImpl implements Storage {
     return buffersCovering(geometry, eventTime, this.spaceFillingCurve, this.type);
   }
 
+  /**
+   * Buffers presenting the data along the passed fill curve. If it differs from the storage's, the
+   * buffers are views that remap offsets to the stored layout on access, without copying.
+   *
+   * @param geometry
+   * @param eventTime
+   * @param fillingCurve
+   * @return
+   */
+  public List<Buffer> buffers(
+      Geometry geometry, Time eventTime, Data.SpaceFillingCurve fillingCurve) {
+    return buffersCovering(geometry, eventTime, fillingCurve, this.type);
+  }
+
   @Override
   public List<? extends Buffer> buffers(
       Geometry geometry, Time eventTime, Annotation storageAnnotation) {
@@ -98,28 +126,117 @@ public class StorageImpl implements Storage {
   }
 
   /**
-   * Retrieve the merged histogram. TODO we should cache if the owning state is finalized.
+   * Retrieve the histogram merged over all buffers at all times. Only the time slices written since
+   * the last call are merged again; if they are all new, they are added to the cached result, so
+   * that a state that grows in time never needs a full merge. Returns null if histograms are not
+   * recorded.
+   *
+   * @return
+   */
+  public synchronized com.dynatrace.dynahist.Histogram histogram() {
+
+    boolean rebuild = mergedHistogram == null;
+    List<com.dynatrace.dynahist.Histogram> added = new ArrayList<>();
+    for (var timestamp : buffers.keySet()) {
+      var merged = mergedSlices.contains(timestamp);
+      var changed = updateSliceHistogram(timestamp);
+      if (merged && changed) {
+        rebuild = true;
+      } else if (!merged && sliceHistograms.containsKey(timestamp)) {
+        added.add(sliceHistograms.get(timestamp));
+        mergedSlices.add(timestamp);
+      }
+    }
+
+    if (rebuild) {
+      mergedHistogram = null;
+      mergedSlices.clear();
+      for (var slice : sliceHistograms.entrySet()) {
+        mergedHistogram = merge(mergedHistogram, slice.getValue());
+        mergedSlices.add(slice.getKey());
+      }
+    } else {
+      for (var slice : added) {
+        mergedHistogram = merge(mergedHistogram, slice);
+      }
+    }
+
+    return mergedHistogram;
+  }
+
+  /**
+   * Retrieve the histogram of the buffers at the passed time, merged only if any buffer has been
+   * written since the last request.
    *
+   * @param timestamp
    * @return
    */
-  public com.dynatrace.dynahist.Histogram histogram() {
+  public synchronized com.dynatrace.dynahist.Histogram histogram(long timestamp) {
+    updateSliceHistogram(timestamp);
+    return sliceHistograms.get(timestamp);
+  }
 
-    var allBuffers = allBuffers();
-    if (allBuffers.size() == 1) {
-      return ((BufferImpl) allBuffers.getFirst()).histogram;
-    } else if (allBuffers.size() > 1) {
+  /*
+   * Re-merge the histogram for a time slice if any of its buffers was modified, after computing
+   * theirs from the data. Return whether the histogram has changed.
+   */
+  private boolean updateSliceHistogram(long timestamp) {
+    var sliceBuffers = buffers.get(timestamp);
+    if (sliceBuffers == null) {
+      return false;
+    }
+    boolean changed = !sliceHistograms.containsKey(timestamp);
+    for (var buffer : sliceBuffers) {
+      // update all of them to reset the flags
+      changed |= buffer != null && buffer.updateHistogram();
+    }
+    if (changed) {
       com.dynatrace.dynahist.Histogram ret = null;
-      var first = ((BufferImpl) allBuffers.getFirst()).histogram;
-      if (first != null) {
-        ret = com.dynatrace.dynahist.Histogram.createDynamic(first.getLayout());
-        for (var buffer : allBuffers) {
-          if (((BufferImpl) buffer).histogram != null) {
-            ret.addHistogram(((BufferImpl) buffer).histogram);
-          }
+      for (var buffer : sliceBuffers) {
+        var histogram = buffer == null ? null : buffer.currentHistogram();
+        if (histogram != null) {
+          ret = merge(ret, histogram);
         }
       }
+      if (ret == null) {
+        sliceHistograms.remove(timestamp);
+      } else {
+        sliceHistograms.put(timestamp, ret);
+      }
     }
-    return null;
+    return changed;
+  }
+
+  private static com.dynatrace.dynahist.Histogram merge(
+      com.dynatrace.dynahist.Histogram merged, com.dynatrace.dynahist.Histogram histogram) {
+    if (merged == null) {
+      merged = com.dynatrace.dynahist.Histogram.createDynamic(histogram.getLayout());
+    }
+    return merged.addHistogram(histogram);
+  }
+
+  /**
+   * The layout for the histograms of numeric buffers, shared by all buffers so that merging is
+   * exact. If the observable has a bounded numeric range, the range is divided in the configured
+   * number of bins; otherwise exponential buckets adapt to any values.
+   *
+   * @return
+   */
+  public synchronized Layout numericHistogramLayout() {
+    if (histogramLayout == null) {
+      var range = observation.getObservable().getRange();
+      if (range != null && range.isBounded() && range.getWidth() > 0) {
+        var bins = stateStorage.getHistogramBinSize();
+        var boundaries = new double[bins + 1];
+        for (int i = 0; i <= bins; i++) {
+          boundaries[i] = range.getLowerBound() + i * range.getWidth() / bins;
+        }
+        histogramLayout = CustomLayout.create(boundaries);
+      } else {
+        histogramLayout = OpenTelemetryExponentialBucketsLayout.create(10);
+      }
+    }
+    return histogramLayout;
   }
 
   @Override
@@ -138,10 +255,13 @@ public class StorageImpl implements Storage {
     }
 
     long timeStart = time.is(Time.Type.INITIALIZATION) ? 0 : time.getStart().getMilliseconds();
-    return buffers
-        .computeIfAbsent(
-            timeStart, k -> new ArrayList<>(createBuffers(geometry, observation, timeStart)))
-        .stream()
+    List<BufferImpl> slice;
+    synchronized (this) {
+      slice =
+          buffers.computeIfAbsent(
+              timeStart, k -> new ArrayList<>(createBuffers(geometry, observation, timeStart)));
+    }
+    return slice.stream()
         .map(b -> adaptBuffer(b, fillingCurve))
         .toList();
   }
@@ -156,26 +276,124 @@ public class StorageImpl implements Storage {
     Arrays.fill(splitSizes, size);
     splitSizes[splits - 1] += remd;
 
+    // one region for all the splits, each buffer being a view on a contiguous range of it
+    var region = allocate(splitSizes, timestamp);
+
     long offset = 0L;
+    long firstBit = 0L;
     for (long bs : splitSizes) {
       ret.add(
           switch (type) {
-            case BOXING -> null;
+            case BOXING ->
+                throw new KlabUnimplementedException("boxing storage is not implemented");
             case DOUBLE ->
                 new DoubleBufferImpl(
-                    geometry, observation, this, bs, spaceFillingCurve, offset, timestamp);
-            case FLOAT -> null;
-            case INTEGER -> null;
-            case LONG -> null;
-            case KEYED -> null;
-            case BOOLEAN -> null;
+                    geometry, observation, this, region, bs, spaceFillingCurve, offset, timestamp);
+            case FLOAT ->
+                new FloatBufferImpl(
+                    geometry, observation, this, region, bs, spaceFillingCurve, offset, timestamp);
+            case INTEGER ->
+                new IntBufferImpl(
+                    geometry, observation, this, region, bs, spaceFillingCurve, offset, timestamp);
+            case LONG ->
+                new LongBufferImpl(
+                    geometry, observation, this, region, bs, spaceFillingCurve, offset, timestamp);
+            case KEYED ->
+                new KeyedBufferImpl(
+                    geometry,
+                    observation,
+                    this,
+                    region,
+                    getDictionary(),
+                    bs,
+                    spaceFillingCurve,
+                    offset,
+                    timestamp);
+            case BOOLEAN ->
+                new BooleanBufferImpl(
+                    geometry,
+                    observation,
+                    this,
+                    region,
+                    firstBit,
+                    bs,
+                    spaceFillingCurve,
+                    offset,
+                    timestamp);
           });
       offset += bs;
+      firstBit += bitmapWords(bs) * Long.SIZE;
     }
 
     return ret;
   }
 
+  /**
+   * Allocate the backing region for all the buffers covering one time slice. Bitmaps start each
+   * split on a new word so that splits can be written concurrently.
+   *
+   * <p>Regions are keyed by observation URN and time, so that a storage reopened in a new session
+   * finds the data computed in a previous one.
+   *
+   * @param splitSizes
+   * @param timestamp
+   * @return
+   */
+  protected Region allocate(long[] splitSizes, long timestamp) {
+    if (type == Type.BOXING) {
+      return null;
+    }
+    long size = 0;
+    for (long splitSize : splitSizes) {
+      size += type == Type.BOOLEAN ? bitmapWords(splitSize) : splitSize;
+    }
+    return stateStorage.getArena().region(observation.getUrn() + "@" + timestamp, type, size);
+  }
+
+  private static long bitmapWords(long bits) {
+    return (bits + Long.SIZE - 1) / Long.SIZE;
+  }
+
+  /**
+   * The dictionary for keyed storage, shared by all buffers. It is saved in the arena along with
+   * the regions, and restored with the same keys when the storage is reopened.
+   *
+   * @return
+   */
+  public synchronized KeyDictionary getDictionary() {
+    if (dictionary == null) {
+      var arena = stateStorage.getArena();
+      var key = observation.getUrn();
+      List<Object> values = new ArrayList<>();
+      for (var value : arena.dictionary(key)) {
+        values.add(decodeKeyedValue(value));
+      }
+      dictionary =
+          new KeyDictionary(
+              values, value -> arena.addDictionaryValue(key, encodeKeyedValue(value)));
+    }
+    return dictionary;
+  }
+
+  /*
+   * Keyed values are concepts or text: concepts are saved by URN and resolved again when read.
+   */
+  private static String encodeKeyedValue(Object value) {
+    return value instanceof Concept concept ? "C" + concept.getUrn() : "T" + value;
+  }
+
+  private Object decodeKeyedValue(String value) {
+    if (value.startsWith("C")) {
+      var ret = contextScope.getService(Reasoner.class).resolveConcept(value.substring(1));
+      if (ret != null) {
+        return ret;
+      }
+      contextScope.warn(
+          "Unknown concept " + value.substring(1) + " in the saved states of " + observation);
+    }
+    return value.substring(1);
+  }
+
   @Override
   public long getTransientId() {
     return transientId;
@@ -187,15 +405,66 @@ public class StorageImpl implements Storage {
   }
 
   private Buffer adaptBuffer(BufferImpl b, Data.SpaceFillingCurve fillingCurve) {
-    // TODO !
-    if (b.getFillingCurve() != fillingCurve) {
-      // TODO
+    if (fillingCurve == null
+        || fillingCurve == Data.SpaceFillingCurve.UNSPECIFIED
+        || b.getFillingCurve() == null
+        || b.getFillingCurve() == Data.SpaceFillingCurve.UNSPECIFIED
+        || b.getFillingCurve() == fillingCurve) {
+      return b;
+    }
+    return b.remap(fillingCurve, remapping(b.getFillingCurve(), fillingCurve));
+  }
+
+  /**
+   * The mapping from offsets along the requested curve to the offsets in the stored data, which are
+   * bit indices for booleans. The cells are matched through their coordinates in the spatial grid,
+   * which must be the only distributed extent.
+   *
+   * @param stored
+   * @param requested
+   * @return
+   */
+  private synchronized LongUnaryOperator remapping(
+      Data.SpaceFillingCurve stored, Data.SpaceFillingCurve requested) {
+
+    var ret = remappings.get(requested);
+    if (ret == null) {
+
+      var space = geometry.dimension(Geometry.Dimension.Type.SPACE);
+      if (space == null) {
+        throw new KlabIllegalStateException(
+            "Cannot remap the fill curve of a storage without a spatial extent");
+      }
+      var shape = space.getShape().stream().mapToLong(Long::longValue).toArray();
+      var from = GridCurve.get(requested, shape);
+      var to = GridCurve.get(stored, shape);
+      if (from.size() != geometry.size()) {
+        throw new KlabUnimplementedException(
+            "Remapping the fill curve of storage distributed over extents other than space");
+      }
+
+      var scratch = ThreadLocal.withInitial(() -> new long[shape.length]);
+      if (type == Type.BOOLEAN) {
+        // splits have equal size except the last, and each starts on a new word
+        long splitSize = geometry.size() / splits;
+        long splitBits = bitmapWords(splitSize) * Long.SIZE;
+        ret =
+            o -> {
+              long offset = from.remap(o, to, scratch.get());
+              long split = splitSize == 0 ? splits - 1 : Math.min(offset / splitSize, splits - 1);
+              return split * splitBits + offset - split * splitSize;
+            };
+      } else {
+        ret = o -> from.remap(o, to, scratch.get());
+      }
+      remappings.put(requested, ret);
     }
-    return b;
+    return ret;
   }
 
+
   @Override
-  public List<Buffer> allBuffers() {
+  public synchronized List<Buffer> allBuffers() {
     var ret = new ArrayList<Buffer>();
     buffers.values().forEach(ret::addAll);
     return ret;
@@ -213,7 +482,8 @@ public class StorageImpl implements Storage {
 
   @Override
   public Histogram getHistogram() {
-    return Utils.Data.adaptHistogram(histogram());
+    var ret = histogram();
+    return ret == null ? null : Utils.Data.adaptHistogram(ret);
   }
 
   @Override
@@ -1,12 +1,15 @@
 package org.integratedmodelling.klab.runtime.storage;
 
+import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.klab.api.collections.Triple;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.digitaltwin.StorageManager;
 import org.integratedmodelling.klab.api.exceptions.KlabIOException;
 import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
+import org.integratedmodelling.klab.api.exceptions.KlabUnimplementedException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Artifact;
 import org.integratedmodelling.klab.api.knowledge.observation.Observation;
 import org.integratedmodelling.klab.api.lang.Annotation;
 import org.integratedmodelling.klab.api.scope.ContextScope;
@@ -15,15 +18,14 @@ import org.integratedmodelling.klab.api.services.RuntimeService;
 import org.integratedmodelling.klab.services.scopes.ServiceContextScope;
 import org.integratedmodelling.klab.utilities.Utils;
 import org.integratedmodelling.klab.configuration.ServiceConfiguration;
-import org.ojalgo.array.BufferArray;
 import org.ojalgo.concurrent.Parallelism;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * There is one separate <code>StorageScope</code> in each {@link ContextScope}. It's built on
@@ -34,18 +36,22 @@ import java.util.concurrent.atomic.AtomicLong;
 public class StorageManagerImpl implements StorageManager {
 
   private static final String NEXT_ID_PROPERTY = "storage.mmap.nextid";
+  private static final String BUFFER_ID_FILE = "storage.ids";
+  private static final String HISTOGRAM_BINS_PROPERTY = "klab.storage.histogram.bins";
+  private static final String ARENA_EXPIRATION_PROPERTY = "klab.storage.arena.expiration.days";
+  private static final String ARENA_DIRECTORY = "storage";
+
+  /* shared by all the contexts, which all number their buffers from the same sequence */
+  private static BufferIdAllocator bufferIdAllocator;
+  /* the arenas of all live contexts, closed at shutdown so that their content is on disk */
+  private static final Set<StorageArena> openArenas = ConcurrentHashMap.newKeySet();
 
   private final ServiceContextScope contextScope;
   private final File propertyFile;
-  private File workspace;
-  private File floatBackupFile;
-  private File doubleBackupFile;
-  private File intBackupFile;
-  private File longBackupFile;
-  private File booleanBackupFile;
-  private int histogramBinSize = 20;
+  private final StorageArena arena;
+  private int histogramBinSize =
+      Integer.parseInt(ServiceConfiguration.INSTANCE.getProperty(HISTOGRAM_BINS_PROPERTY, "20"));
   private final Map<String, Storage> storage = new HashMap<>();
-  private AtomicLong nextId = new AtomicLong(0);
 
   public boolean isRecordHistogram() {
     return recordHistogram;
@@ -56,101 +62,87 @@ public class StorageManagerImpl implements StorageManager {
   private Parallelism parallelism = Parallelism.ONE;
 
   public StorageManagerImpl(KlabService service, ServiceContextScope scope) {
-    // choose the mm files, parallelism level and the floating point representation
-    this.workspace = ServiceConfiguration.INSTANCE.getScratchDataDirectory("ktmp");
-    this.floatBackupFile = new File(this.workspace + File.separator + "fstorage.bin");
-    this.doubleBackupFile = new File(this.workspace + File.separator + "dstorage.bin");
-    this.longBackupFile = new File(this.workspace + File.separator + "lstorage.bin");
-    this.intBackupFile = new File(this.workspace + File.separator + "istorage.bin");
-    this.booleanBackupFile = new File(this.workspace + File.separator + "bstorage.bin");
+    // one arena per context, which persists with it and is reopened when the context is resumed
     this.contextScope = scope;
     this.propertyFile =
         ServiceConfiguration.INSTANCE.getFileWithTemplate(
             "storage.properties", NEXT_ID_PROPERTY + "=0");
-    // TODO should have a cache of existing storages and create the storage lazy proxies for the
-    //  existing ones.
-    readConfiguration();
+    var directory =
+        ServiceConfiguration.INSTANCE.getDataPath(ARENA_DIRECTORY + "/" + scope.getId());
+    initializeStorage(propertyFile, directory);
+    this.arena = new StorageArena(directory);
+    openArenas.add(arena);
   }
 
-  // FIXME this is for floats; there should be factories created on demand for each type and size.
-  // Put
-  //  this in the
-  //  constructor
-  BufferArray.MappedFileFactory floatMappedArrayFactory = null;
-  BufferArray.MappedFileFactory doubleMappedArrayFactory = null;
-  BufferArray.MappedFileFactory intMappedArrayFactory = null;
-  BufferArray.MappedFileFactory longMappedArrayFactory = null;
-  BufferArray.MappedFileFactory booleanMappedArrayFactory = null;
-
-  private BufferArray.MappedFileFactory getFloatFactory() {
-    if (this.floatMappedArrayFactory == null) {
-      this.floatMappedArrayFactory = BufferArray.R032.newMapped(this.floatBackupFile);
+  /**
+   * Called once per service: set up the shared buffer IDs, remove expired arenas and make sure that
+   * all arenas are flushed to disk when the service exits.
+   */
+  private static synchronized void initializeStorage(File propertyFile, File arenaDirectory) {
+    if (bufferIdAllocator == null) {
+      bufferIdAllocator =
+          new BufferIdAllocator(
+              new File(propertyFile.getParentFile(), BUFFER_ID_FILE),
+              readConfiguration(propertyFile),
+              BufferIdAllocator.DEFAULT_BLOCK_SIZE);
+      deleteExpiredArenas(arenaDirectory);
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    bufferIdAllocator.flush();
+                    closeAll();
+                  }));
     }
-    return this.floatMappedArrayFactory;
   }
 
-  private BufferArray.MappedFileFactory getLongFactory() {
-    if (this.longMappedArrayFactory == null) {
-      this.longMappedArrayFactory = BufferArray.Z032.newMapped(this.longBackupFile);
+  /**
+   * Close the arenas of all the contexts that are still open, forcing their content to disk. Called
+   * when the runtime shuts down; the contexts can be reopened from their arenas later.
+   */
+  public static void closeAll() {
+    for (var arena : openArenas) {
+      arena.close();
     }
-    return this.longMappedArrayFactory;
+    openArenas.clear();
   }
 
-  private BufferArray.MappedFileFactory getDoubleFactory() {
-    if (this.doubleMappedArrayFactory == null) {
-      this.doubleMappedArrayFactory = BufferArray.R064.newMapped(this.doubleBackupFile);
+  /**
+   * Arenas of contexts that were never disposed would stay on disk forever. Delete those that
+   * haven't been opened or closed for longer than the configured expiration, except the one that is
+   * being opened.
+   */
+  private static void deleteExpiredArenas(File keep) {
+    var days =
+        Integer.parseInt(
+            ServiceConfiguration.INSTANCE.getProperty(ARENA_EXPIRATION_PROPERTY, "30"));
+    var expiration = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+    var directories = ServiceConfiguration.INSTANCE.getDataPath(ARENA_DIRECTORY).listFiles();
+    if (directories == null) {
+      return;
+    }
+    for (var directory : directories) {
+      if (directory.isDirectory()
+          && !directory.equals(keep)
+          && directory.lastModified() < expiration) {
+        Logging.INSTANCE.info("Deleting expired storage arena " + directory);
+        Utils.Files.deleteQuietly(directory);
+      }
     }
-    return this.doubleMappedArrayFactory;
   }
 
-  /*
-  SHORT int. For now we use floats to encode longs
-   */
-  private BufferArray.MappedFileFactory getIntFactory() {
-    if (this.intMappedArrayFactory == null) {
-      this.intMappedArrayFactory = BufferArray.Z016.newMapped(this.intBackupFile);
-    }
-    return this.intMappedArrayFactory;
+  public StorageArena getArena() {
+    return arena;
   }
 
   /**
-   * Bytes. Not sure we should have the overhead of packing bytes but maybe we should as bitmaps
-   * make wonderful cheap masks and they may intersect more cheaply than 2D geometries.
-   *
-   * @return
+   * Release the storage, keeping the data on disk so that the context can be reopened. Use {@link
+   * #clear()} to delete them.
    */
-  private BufferArray.MappedFileFactory getBooleanFactory() {
-    if (this.booleanMappedArrayFactory == null) {
-      this.booleanMappedArrayFactory = BufferArray.Z008.newMapped(this.booleanBackupFile);
-    }
-    return this.booleanMappedArrayFactory;
-  }
-
   public void close() {
-
     storage.clear();
-
-    // TODO this is crucial for everything, ensure it's complete
-    if (doubleMappedArrayFactory != null) {
-      doubleMappedArrayFactory = null;
-      Utils.Files.deleteQuietly(doubleBackupFile);
-    }
-    if (floatMappedArrayFactory != null) {
-      floatMappedArrayFactory = null;
-      Utils.Files.deleteQuietly(floatBackupFile);
-    }
-    if (intMappedArrayFactory != null) {
-      intMappedArrayFactory = null;
-      Utils.Files.deleteQuietly(intBackupFile);
-    }
-    if (booleanMappedArrayFactory != null) {
-      booleanMappedArrayFactory = null;
-      Utils.Files.deleteQuietly(booleanBackupFile);
-    }
-    if (longMappedArrayFactory != null) {
-      longMappedArrayFactory = null;
-      Utils.Files.deleteQuietly(longBackupFile);
-    }
+    openArenas.remove(arena);
+    arena.close();
   }
 
   /**
@@ -162,31 +154,15 @@ public class StorageManagerImpl implements StorageManager {
   public static Class<? extends Storage.Buffer> bufferClass(Storage.Buffer buffer) {
     return switch (buffer) {
       case DoubleBufferImpl ignored -> Storage.DoubleBuffer.class;
-      // TODO the rest!
+      case FloatBufferImpl ignored -> Storage.FloatBuffer.class;
+      case IntBufferImpl ignored -> Storage.IntBuffer.class;
+      case LongBufferImpl ignored -> Storage.LongBuffer.class;
+      case BooleanBufferImpl ignored -> Storage.BooleanBuffer.class;
+      case KeyedBufferImpl ignored -> Storage.KeyedBuffer.class;
       default -> throw new KlabIllegalArgumentException("not a recognized buffer type");
     };
   }
 
-  public BufferArray getIntBuffer(long sliceSize) {
-    return getIntFactory().make(sliceSize);
-  }
-
-  public BufferArray getLongBuffer(long sliceSize) {
-    return getLongFactory().make(sliceSize);
-  }
-
-  public BufferArray getFloatBuffer(long sliceSize) {
-    return getFloatFactory().make(sliceSize);
-  }
-
-  public BufferArray getBooleanBuffer(long sliceSize) {
-    return getBooleanFactory().make(sliceSize);
-  }
-
-  public BufferArray getDoubleBuffer(long sliceSize) {
-    return getDoubleFactory().make(sliceSize);
-  }
-
   public int getHistogramBinSize() {
     return histogramBinSize;
   }
@@ -201,11 +177,7 @@ public class StorageManagerImpl implements StorageManager {
     // defaults
     var splits = contextScope.getParallelism().getAsInt();
     var fillingCurve = Data.SpaceFillingCurve.defaultCurve(observation.getGeometry());
-    var storageType =
-        contextScope
-            .getService(RuntimeService.class)
-            .capabilities(contextScope)
-            .getDefaultStorageType();
+    var storageType = defaultStorageType(contextScope, observation);
 
     /*
      * Find specs if any. May not be honored.
@@ -243,9 +215,35 @@ public class StorageManagerImpl implements StorageManager {
       }
     }
 
+    if (storageType == Storage.Type.BOXING) {
+      throw new KlabUnimplementedException(
+          "boxing storage is not implemented: cannot create storage for " + observation);
+    }
+
     return Triple.of(splits, fillingCurve, storageType);
   }
 
+  /**
+   * Booleans go in bitmaps and categories in keyed storage; numbers use the configured type.
+   *
+   * @param contextScope
+   * @param observation
+   * @return
+   */
+  private static Storage.Type defaultStorageType(
+      ServiceContextScope contextScope, Observation observation) {
+    var artifactType = observation.getObservable().getArtifactType();
+    if (artifactType == Artifact.Type.BOOLEAN) {
+      return Storage.Type.BOOLEAN;
+    } else if (artifactType == Artifact.Type.CONCEPT || artifactType == Artifact.Type.TEXT) {
+      return Storage.Type.KEYED;
+    }
+    return contextScope
+        .getService(RuntimeService.class)
+        .capabilities(contextScope)
+        .getDefaultStorageType();
+  }
+
   @Override
   public Storage getStorage(Observation observation, Annotation storageAnnotation) {
     final var options = getOptions(contextScope, storageAnnotation, observation);
@@ -326,40 +324,31 @@ public class StorageManagerImpl implements StorageManager {
 
   @Override
   public void clear() {
-    // CHECK the implementation of close() is actually a clear(); close() may save state for later
-    // re-opening,
-    // depending on context persistence
-    close();
+    storage.clear();
+    openArenas.remove(arena);
+    arena.delete();
   }
 
   /**
-   * Return a new unique ID for a buffer. TODO this must survive reboots.
+   * Return a new unique ID for a buffer. IDs survive reboots and are unique across all contexts.
    *
    * @return
    */
   public long nextBufferId() {
-    long ret = nextId.incrementAndGet();
-    writeConfiguration();
-    return ret;
+    return bufferIdAllocator.nextId();
   }
 
-  private void readConfiguration() {
+  /**
+   * The last ID recorded in the properties, used to start the ID sequence when there is no ID
+   * header file yet.
+   */
+  private static long readConfiguration(File propertyFile) {
     Properties properties = new Properties();
     try (InputStream input = new FileInputStream(propertyFile)) {
       properties.load(input);
-      this.nextId.set(Long.parseLong(properties.getProperty(NEXT_ID_PROPERTY)));
+      return Long.parseLong(properties.getProperty(NEXT_ID_PROPERTY));
     } catch (Exception e) {
       throw new KlabIOException("cannot read configuration properties");
     }
   }
-
-  private void writeConfiguration() {
-    Properties p = new Properties();
-    p.setProperty(NEXT_ID_PROPERTY, nextId.get() + "");
-    try {
-      p.store(new FileOutputStream(propertyFile), null);
-    } catch (Exception e) {
-      throw new KlabIOException(e);
-    }
-  }
 }
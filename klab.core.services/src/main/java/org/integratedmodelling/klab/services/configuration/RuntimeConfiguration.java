@@ -14,6 +14,7 @@ public class RuntimeConfiguration {
   private String serviceId;
 //  private URI brokerURI;
   private Storage.Type numericStorageType = Storage.Type.DOUBLE;
+  private int knowledgeGraphDebugPort = 0;
 
   public List<String> getAllowedGroups() {
     return allowedGroups;
@@ -53,6 +54,20 @@ public class RuntimeConfiguration {
     this.numericStorageType = numericStorageType;
   }
 
+  /**
+   * If positive, the embedded knowledge graph database exposes a Bolt connector on this port for
+   * debugging with external tools. The runtime itself never uses it.
+   *
+   * @return
+   */
+  public int getKnowledgeGraphDebugPort() {
+    return knowledgeGraphDebugPort;
+  }
+
+  public void setKnowledgeGraphDebugPort(int knowledgeGraphDebugPort) {
+    this.knowledgeGraphDebugPort = knowledgeGraphDebugPort;
+  }
+
 //  /**
 //   * If no broker URL is present, the service will install a local QPid broker for internal
 //   * connections on port 5672.
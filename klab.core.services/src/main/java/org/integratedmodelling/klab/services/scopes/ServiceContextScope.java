@@ -8,6 +8,7 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.common.utils.Utils;
 import org.integratedmodelling.klab.api.collections.Parameters;
@@ -31,8 +32,8 @@ import org.integratedmodelling.klab.api.services.RuntimeService;
 import org.integratedmodelling.klab.api.services.resolver.ResolutionConstraint;
 import org.integratedmodelling.klab.api.services.runtime.Dataflow;
 import org.integratedmodelling.klab.api.services.runtime.Report;
+import org.integratedmodelling.klab.configuration.ServiceConfiguration;
 import org.integratedmodelling.klab.services.base.BaseService;
-import org.ojalgo.concurrent.Parallelism;
 
 /**
  * The service-side {@link ContextScope}. Does most of the heavy lifting in the runtime service
@@ -70,6 +71,13 @@ public class ServiceContextScope extends ServiceSessionScope implements ContextS
    */
   private int splits = -1;
 
+  /**
+   * The maximum number of CPU-bound tasks this context runs at once, from {@link
+   * ServiceConfiguration#KLAB_CONTEXT_PARALLELISM} when the context is created. All contexts share
+   * the compute pool, so a lower bound leaves cores to the others.
+   */
+  private int parallelism;
+
   LoadingCache<Long, Observation> observationCache;
   private Activity currentActivity;
 
@@ -78,6 +86,7 @@ public class ServiceContextScope extends ServiceSessionScope implements ContextS
     super(parent);
     this.parent = parent;
     this.splits = parent.splits;
+    this.parallelism = parent.parallelism;
     this.observer = parent.observer;
     this.contextObservation = parent.contextObservation;
     this.digitalTwin = parent.digitalTwin;
@@ -130,6 +139,7 @@ public class ServiceContextScope extends ServiceSessionScope implements ContextS
     this.jobManager = parent.jobManager;
     this.configuration = configuration;
     this.setName(configuration.getName());
+    this.parallelism = configuredParallelism();
     this.observationCache =
         CacheBuilder.newBuilder()
             .maximumSize(MAX_CACHED_OBSERVATIONS)
@@ -561,9 +571,24 @@ public class ServiceContextScope extends ServiceSessionScope implements ContextS
     return null;
   }
 
-  public Parallelism getParallelism() {
-    // TODO
-    return Parallelism.CORES;
+  @Override
+  public IntSupplier getParallelism() {
+    return () -> parallelism;
+  }
+
+  private static int configuredParallelism() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    try {
+      var configured =
+          Integer.parseInt(
+              ServiceConfiguration.INSTANCE.getProperty(
+                  ServiceConfiguration.KLAB_CONTEXT_PARALLELISM, String.valueOf(processors)));
+      return Math.max(1, Math.min(configured, processors));
+    } catch (NumberFormatException e) {
+      Logging.INSTANCE.warn(
+          "Invalid " + ServiceConfiguration.KLAB_CONTEXT_PARALLELISM + ": using " + processors);
+      return processors;
+    }
   }
 
   /**
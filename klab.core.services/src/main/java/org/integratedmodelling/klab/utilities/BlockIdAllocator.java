@@ -0,0 +1,49 @@
+package org.integratedmodelling.klab.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Hands out unique long IDs from ranges reserved in bulk from persistent storage. Each reservation
+ * is a single atomic update of a high-water mark, so that after a crash the IDs restart past the
+ * last reserved block and no ID is ever handed out twice; at most one block of IDs is wasted. IDs
+ * within a block are handed out lock-free from an {@link AtomicLong}, so allocation is not a
+ * serialization point except when a block runs out.
+ */
+public class BlockIdAllocator {
+
+  public static final long DEFAULT_BLOCK_SIZE = 10000L;
+
+  private record Block(AtomicLong next, long limit) {}
+
+  private final long blockSize;
+  private final LongUnaryOperator reservation;
+  private volatile Block block = new Block(new AtomicLong(0), 0);
+
+  /**
+   * @param blockSize the number of IDs to reserve at each round trip to storage
+   * @param reservation receives the block size, persists the new high-water mark atomically and
+   *     returns the first ID of the reserved range.
+   */
+  public BlockIdAllocator(long blockSize, LongUnaryOperator reservation) {
+    this.blockSize = blockSize;
+    this.reservation = reservation;
+  }
+
+  public long nextId() {
+    while (true) {
+      var current = block;
+      var ret = current.next().getAndIncrement();
+      if (ret < current.limit()) {
+        return ret;
+      }
+      synchronized (this) {
+        // another thread may have reserved a new block while we were waiting
+        if (block == current) {
+          var first = reservation.applyAsLong(blockSize);
+          block = new Block(new AtomicLong(first), first + blockSize);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package org.integratedmodelling.klab.tests.computation;
+
+import groovy.lang.GroovyObject;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.runtime.computation.KlabGroovyShell;
+import org.integratedmodelling.klab.runtime.computation.ScalarComputationGroovy;
+import org.integratedmodelling.klab.runtime.computation.TemplateCodeInfo;
+
+/**
+ * Generates the scalar kernel for {@code self = a * b + c} over 10^7 double cells, both as dynamic
+ * Groovy and statically compiled, and prints the time per pass after warming up each. Only the
+ * generated code is measured: the buffers are plain arrays so that storage access costs the same
+ * for both.
+ */
+public class ScalarComputationBenchmark {
+
+  private static final int CELLS = 10_000_000;
+  private static final int WARMUP = 3;
+  private static final int PASSES = 10;
+
+  public static void main(String[] args) throws Exception {
+
+    var random = new Random(42);
+    var self = new ArrayBuffer(new double[CELLS]);
+    var a = new ArrayBuffer(random.doubles(CELLS).toArray());
+    var b = new ArrayBuffer(random.doubles(CELLS).toArray());
+    var c = new ArrayBuffer(random.doubles(CELLS).toArray());
+    List<Storage.Buffer> buffers = List.of(self, a, b, c);
+
+    var shell = new KlabGroovyShell();
+    for (boolean staticCompilation : new boolean[] {false, true}) {
+
+      var codeInfo = new TemplateCodeInfo();
+      codeInfo.setTemplateName("ScalarBufferFiller.jte");
+      codeInfo.setClassName("ScalarBenchmark" + (staticCompilation ? "Static" : "Dynamic"));
+      codeInfo.setStaticCompilation(staticCompilation);
+      Map<String, Storage.Type> types = new LinkedHashMap<>();
+      for (var name : List.of("self", "a", "b", "c")) {
+        types.put(name, Storage.Type.DOUBLE);
+        if (!"self".equals(name)) {
+          codeInfo.getFieldDeclarations().add("Observation __" + name);
+        }
+      }
+      ScalarComputationGroovy.generateBufferCode(codeInfo, types, List.of("a * b + c"));
+
+      var kernel =
+          (GroovyObject)
+              shell
+                  .getClassLoader()
+                  .parseClass(ScalarComputationGroovy.render(codeInfo))
+                  .getConstructors()[0]
+                  .newInstance(null, null);
+
+      for (int i = 0; i < WARMUP; i++) {
+        kernel.invokeMethod("compute", new Object[] {buffers});
+      }
+      long time = System.nanoTime();
+      for (int i = 0; i < PASSES; i++) {
+        kernel.invokeMethod("compute", new Object[] {buffers});
+      }
+      time = (System.nanoTime() - time) / PASSES;
+
+      for (int i = 0; i < CELLS; i += CELLS / 10) {
+        if (self.data[i] != a.data[i] * b.data[i] + c.data[i]) {
+          throw new IllegalStateException("wrong result at " + i);
+        }
+      }
+      System.out.printf(
+          "%-7s %8d ms per pass, %6.2f ns per cell%n",
+          staticCompilation ? "static" : "dynamic",
+          time / 1_000_000,
+          (double) time / CELLS);
+    }
+  }
+
+  /** Just enough of a double buffer to be scanned by the generated code. */
+  private static class ArrayBuffer implements Storage.DoubleBuffer {
+
+    final double[] data;
+
+    ArrayBuffer(double[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public DoubleScanner scan() {
+      return new DoubleScanner() {
+
+        int next = 0;
+
+        @Override
+        public double get() {
+          return data[next++];
+        }
+
+        @Override
+        public double peek() {
+          return data[next];
+        }
+
+        @Override
+        public void add(double value) {
+          data[next++] = value;
+        }
+
+        @Override
+        public long nextLong() {
+          return next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next < data.length;
+        }
+      };
+    }
+
+    @Override
+    public double get(long offset) {
+      return data[(int) offset];
+    }
+
+    @Override
+    public void set(double value, long offset) {
+      data[(int) offset] = value;
+    }
+
+    @Override
+    public void fill(double value) {
+      Arrays.fill(data, value);
+    }
+
+    @Override
+    public void read(long offset, double[] destination, int length) {
+      System.arraycopy(data, (int) offset, destination, 0, length);
+    }
+
+    @Override
+    public void write(long offset, double[] source, int length) {
+      System.arraycopy(source, 0, data, (int) offset, length);
+    }
+
+    @Override
+    public void forEachChunk(DoubleChunkConsumer consumer) {
+      consumer.accept(0, data, data.length);
+    }
+
+    @Override
+    public long size() {
+      return data.length;
+    }
+
+    @Override
+    public long offset() {
+      return 0;
+    }
+
+    @Override
+    public long offset(Data.Cursor other, long... dimensionOffsets) {
+      return -1L;
+    }
+
+    @Override
+    public String getUrn() {
+      return "benchmark";
+    }
+
+    @Override
+    public long getTimestamp() {
+      return 0;
+    }
+
+    @Override
+    public long getId() {
+      return 0;
+    }
+
+    @Override
+    public long getTransientId() {
+      return 0;
+    }
+  }
+}
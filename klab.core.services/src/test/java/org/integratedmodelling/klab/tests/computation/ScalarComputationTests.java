@@ -0,0 +1,245 @@
+package org.integratedmodelling.klab.tests.computation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import groovy.lang.GroovyObject;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.runtime.computation.KlabGroovyShell;
+import org.integratedmodelling.klab.runtime.computation.ScalarComputationGroovy;
+import org.integratedmodelling.klab.runtime.computation.TemplateCodeInfo;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the generated scalar kernel on array-backed buffers. Keyed inputs hold text as well as
+ * concepts, so their values must reach the expression whatever their class.
+ */
+class ScalarComputationTests {
+
+  private static final KlabGroovyShell shell = new KlabGroovyShell();
+
+  private static GroovyObject kernel(
+      String name, boolean staticCompilation, Map<String, Storage.Type> types, String code)
+      throws Exception {
+    var codeInfo = new TemplateCodeInfo();
+    codeInfo.setTemplateName("ScalarBufferFiller.jte");
+    codeInfo.setClassName(name);
+    codeInfo.setStaticCompilation(staticCompilation);
+    for (var buffer : types.keySet()) {
+      if (!"self".equals(buffer)) {
+        codeInfo.getFieldDeclarations().add("Observation __" + buffer);
+      }
+    }
+    ScalarComputationGroovy.generateBufferCode(codeInfo, types, List.of(code));
+    return (GroovyObject)
+        shell
+            .getClassLoader()
+            .parseClass(ScalarComputationGroovy.render(codeInfo))
+            .getConstructors()[0]
+            .newInstance(null, null);
+  }
+
+  @Test
+  void textInputsDynamic() throws Exception {
+    textInputs(false);
+  }
+
+  @Test
+  void textInputsStatic() throws Exception {
+    textInputs(true);
+  }
+
+  private void textInputs(boolean staticCompilation) throws Exception {
+    Map<String, Storage.Type> types = new LinkedHashMap<>();
+    types.put("self", Storage.Type.BOOLEAN);
+    types.put("landcover", Storage.Type.KEYED);
+    var self = new ArrayBooleanBuffer(4);
+    var landcover = new ArrayKeyedBuffer(new Object[] {"forest", "water", null, "forest"});
+    kernel(
+            "TextInput" + (staticCompilation ? "Static" : "Dynamic"),
+            staticCompilation,
+            types,
+            "landcover == \"forest\"")
+        .invokeMethod("compute", new Object[] {List.of(self, landcover)});
+    assertArrayEquals(new boolean[] {true, false, false, true}, self.data);
+  }
+
+  @Test
+  void keyedTargets() throws Exception {
+    Map<String, Storage.Type> types = new LinkedHashMap<>();
+    types.put("self", Storage.Type.KEYED);
+    types.put("landcover", Storage.Type.KEYED);
+    var self = new ArrayKeyedBuffer(new Object[3]);
+    var landcover = new ArrayKeyedBuffer(new Object[] {"forest", "water", "forest"});
+    kernel("KeyedTarget", false, types, "landcover + \" cover\"")
+        .invokeMethod("compute", new Object[] {List.of(self, landcover)});
+    assertArrayEquals(new Object[] {"forest cover", "water cover", "forest cover"}, self.data);
+  }
+
+  /** Common scaffolding of the array-backed buffers. */
+  private abstract static class ArrayBuffer implements Storage.Buffer {
+
+    @Override
+    public long offset() {
+      return 0;
+    }
+
+    @Override
+    public long offset(Data.Cursor other, long... dimensionOffsets) {
+      return -1L;
+    }
+
+    @Override
+    public String getUrn() {
+      return "test";
+    }
+
+    @Override
+    public long getTimestamp() {
+      return 0;
+    }
+
+    @Override
+    public long getId() {
+      return 0;
+    }
+
+    @Override
+    public long getTransientId() {
+      return 0;
+    }
+  }
+
+  private static class ArrayBooleanBuffer extends ArrayBuffer implements Storage.BooleanBuffer {
+
+    final boolean[] data;
+
+    ArrayBooleanBuffer(int size) {
+      this.data = new boolean[size];
+    }
+
+    @Override
+    public BooleanScanner scan() {
+      return new BooleanScanner() {
+
+        int next = 0;
+
+        @Override
+        public boolean get() {
+          return data[next++];
+        }
+
+        @Override
+        public boolean peek() {
+          return data[next];
+        }
+
+        @Override
+        public void add(boolean value) {
+          data[next++] = value;
+        }
+
+        @Override
+        public long nextLong() {
+          return next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next < data.length;
+        }
+      };
+    }
+
+    @Override
+    public boolean get(long offset) {
+      return data[(int) offset];
+    }
+
+    @Override
+    public void set(boolean value, long offset) {
+      data[(int) offset] = value;
+    }
+
+    @Override
+    public void fill(boolean value) {
+      Arrays.fill(data, value);
+    }
+
+    @Override
+    public long size() {
+      return data.length;
+    }
+  }
+
+  private static class ArrayKeyedBuffer extends ArrayBuffer implements Storage.KeyedBuffer {
+
+    final Object[] data;
+
+    ArrayKeyedBuffer(Object[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public KeyedScanner scan() {
+      return new KeyedScanner() {
+
+        int next = 0;
+
+        @Override
+        public Object get() {
+          return data[next++];
+        }
+
+        @Override
+        public Object peek() {
+          return data[next];
+        }
+
+        @Override
+        public void add(Object value) {
+          data[next++] = value;
+        }
+
+        @Override
+        public long nextLong() {
+          return next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next < data.length;
+        }
+      };
+    }
+
+    @Override
+    public Object get(long offset) {
+      return data[(int) offset];
+    }
+
+    @Override
+    public void set(Object value, long offset) {
+      data[(int) offset] = value;
+    }
+
+    @Override
+    public void fill(Object value) {
+      Arrays.fill(data, value);
+    }
+
+    @Override
+    public Map<Integer, String> dataKey() {
+      return Map.of();
+    }
+
+    @Override
+    public long size() {
+      return data.length;
+    }
+  }
+}
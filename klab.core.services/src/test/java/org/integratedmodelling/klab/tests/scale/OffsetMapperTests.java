@@ -0,0 +1,119 @@
+package org.integratedmodelling.klab.tests.scale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.runtime.scale.curves.GridCurve;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that offset mappers are bijective on grids of awkward shapes and that a single mapper
+ * shared by many threads scanning at the same time gives every thread the same, correct answers.
+ */
+class OffsetMapperTests {
+
+  private static final int THREADS = 8;
+  private static final int ROUNDS = 2;
+
+  @Test
+  void bijective() {
+    for (var curve : Data.SpaceFillingCurve.values()) {
+      if (curve == Data.SpaceFillingCurve.UNSPECIFIED) {
+        continue;
+      }
+      var shape = curve.dimensions == 3 ? new long[] {5, 6, 7} : new long[] {37, 23};
+      if (curve == Data.SpaceFillingCurve.D1_LINEAR) {
+        shape = new long[] {101};
+      }
+      var mapper = GridCurve.get(curve, shape);
+      var seen = new boolean[(int) mapper.size()];
+      var coordinates = new long[shape.length];
+      for (long offset = 0; offset < mapper.size(); offset++) {
+        mapper.coordinates(offset, coordinates);
+        long linear = 0;
+        for (int d = shape.length - 1; d >= 0; d--) {
+          assertTrue(coordinates[d] >= 0 && coordinates[d] < shape[d], curve + " out of grid");
+          linear = linear * shape[d] + coordinates[d];
+        }
+        assertTrue(!seen[(int) linear], curve + " maps two offsets to one cell");
+        seen[(int) linear] = true;
+        assertEquals(offset, mapper.offset(coordinates), curve + " round trip");
+      }
+    }
+  }
+
+  @Test
+  void concurrentScans() throws Exception {
+    for (var curve :
+        new Data.SpaceFillingCurve[] {
+          Data.SpaceFillingCurve.D2_XY,
+          Data.SpaceFillingCurve.D2_YX,
+          Data.SpaceFillingCurve.D2_XInvY,
+          Data.SpaceFillingCurve.D2_HILBERT
+        }) {
+      stress(GridCurve.get(curve, 307, 241));
+    }
+    stress(GridCurve.get(Data.SpaceFillingCurve.D3_HILBERT, 41, 29, 23));
+  }
+
+  /*
+   * All threads start together and scan the whole grid in interleaved strides, so that they are
+   * always working on neighboring cells. Each cell must be visited once per thread and round.
+   */
+  private void stress(Data.OffsetMapper mapper) throws Exception {
+
+    var visits = new AtomicIntegerArray((int) mapper.size());
+    var start = new CountDownLatch(1);
+    var executor = Executors.newFixedThreadPool(THREADS);
+    var results = new ArrayList<Future<Long>>();
+
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  long errors = 0;
+                  var coordinates = new long[mapper.dimensions()];
+                  for (int round = 0; round < ROUNDS; round++) {
+                    for (int s = 0; s < THREADS; s++) {
+                      int stride = (s + thread) % THREADS;
+                      for (long offset = stride; offset < mapper.size(); offset += THREADS) {
+                        mapper.coordinates(offset, coordinates);
+                        if (mapper.offset(coordinates) != offset
+                            || mapper.toX(offset) != coordinates[0]
+                            || mapper.toY(offset) != coordinates[1]
+                            || (mapper.dimensions() == 2
+                                && mapper.offset(coordinates[0], coordinates[1]) != offset)) {
+                          errors++;
+                        }
+                        visits.incrementAndGet((int) offset);
+                      }
+                    }
+                  }
+                  return errors;
+                }));
+      }
+
+      start.countDown();
+      for (var result : results) {
+        long errors = result.get(5, TimeUnit.MINUTES);
+        assertEquals(0L, errors, "inconsistent mapping under contention");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (int i = 0; i < visits.length(); i++) {
+      assertEquals(THREADS * ROUNDS, visits.get(i));
+    }
+  }
+}
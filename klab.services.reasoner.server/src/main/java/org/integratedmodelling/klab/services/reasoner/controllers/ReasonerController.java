@@ -1,6 +1,8 @@
 package org.integratedmodelling.klab.services.reasoner.controllers;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -116,6 +118,26 @@ public class ReasonerController {
     return reasoner.klabService().is(concepts[0], concepts[1]);
   }
 
+  /**
+   * POST /subsumesAll
+   *
+   * @param concepts
+   * @return
+   */
+  @Operation(summary = "Check subsumption for many pairs",
+            description = "Determines, for each consecutive pair of concepts, if the first is subsumed by the second")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Subsumption checks completed successfully")
+  })
+  @PostMapping(ServicesAPI.REASONER.SUBSUMES_ALL)
+  public boolean[] subsumesAll(@Parameter(description = "Array of concept pairs to check, flattened") @RequestBody Concept[] concepts) {
+    List<Pair<Semantics, Semantics>> pairs = new ArrayList<>();
+    for (int i = 0; i + 1 < concepts.length; i += 2) {
+      pairs.add(Pair.of(concepts[i], concepts[i + 1]));
+    }
+    return reasoner.klabService().is(pairs);
+  }
+
   /**
    * POST /matches
    *
@@ -228,6 +250,22 @@ public class ReasonerController {
     return reasoner.klabService().allParents(target);
   }
 
+  /**
+   * POST /allParentsBatch
+   *
+   * @param targets
+   * @return
+   */
+  @Operation(summary = "Get all parents of many concepts",
+            description = "Retrieves all parents (direct and indirect) of each of the specified concepts")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "All parents retrieved successfully")
+  })
+  @PostMapping(ServicesAPI.REASONER.ALL_PARENTS_BATCH)
+  public @ResponseBody List<Collection<Concept>> allParentsBatch(@Parameter(description = "Target concepts") @RequestBody Concept[] targets) {
+    return reasoner.klabService().allParents(Arrays.asList(targets));
+  }
+
   /**
    * POST /closure
    *
@@ -293,6 +331,26 @@ public class ReasonerController {
             .semanticDistance(concepts[0], concepts[1], concepts.length == 2 ? null : concepts[2]);
   }
 
+  /**
+   * POST /distances
+   *
+   * @param concepts
+   * @return
+   */
+  @Operation(summary = "Calculate semantic distances of many candidates",
+            description = "Calculates the semantic distance of each candidate to the same target")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Distances calculated successfully")
+  })
+  @PostMapping(ServicesAPI.REASONER.DISTANCES)
+  public int[] semanticDistances(
+      @Parameter(description = "Array with target, context (may be null) and candidates") @RequestBody Concept[] concepts) {
+    return reasoner
+        .klabService()
+        .semanticDistances(
+            concepts[0], Arrays.asList(concepts).subList(2, concepts.length), concepts[1]);
+  }
+
   
   
   @Operation(summary = "Get concept roles", 
@@ -11,6 +11,7 @@ import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.integratedmodelling.common.authentication.scope.AbstractServiceDelegatingScope;
@@ -63,6 +64,7 @@ import org.integratedmodelling.klab.services.configuration.ReasonerConfiguration
 import org.integratedmodelling.klab.services.reasoner.internal.CoreOntology;
 import org.integratedmodelling.klab.services.reasoner.internal.CoreOntology.NS;
 import org.integratedmodelling.klab.services.reasoner.internal.SemanticsBuilder;
+import org.integratedmodelling.klab.services.reasoner.internal.SubsumptionIndex;
 import org.integratedmodelling.klab.services.reasoner.owl.OWL;
 import org.integratedmodelling.klab.services.reasoner.owl.Ontology;
 import org.integratedmodelling.klab.services.reasoner.owl.Vocabulary;
@@ -110,6 +112,8 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
   public static final int USE_TRAIT_PARENT_CLOSURE = 0x08;
 
   private final AtomicBoolean consistent = new AtomicBoolean(false);
+  // incremented at each load or update of the knowledge, see knowledgeVersion()
+  private final AtomicLong knowledgeUpdates = new AtomicLong();
   private ReasonerConfiguration configuration = new ReasonerConfiguration();
   private final Map<String, String> coreConceptPeers = new HashMap<>();
   private final Map<Concept, Emergence> emergent = new HashMap<>();
@@ -119,6 +123,10 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
   private SyntacticMatcher syntacticMatcher;
   private SemanticMatcher semanticMatcher;
 
+  /** Ancestors of all named concepts, built when the worldview is loaded. */
+  private final SubsumptionIndex subsumption =
+      new SubsumptionIndex(this::parents, id -> owl.getRegisteredConcept(id));
+
   /** Caches for concepts and observables. */
   private final LoadingCache<String, Concept> concepts =
       CacheBuilder.newBuilder()
@@ -144,6 +152,12 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
 
   Indexer indexer;
 
+  /**
+   * Index checksum of each loaded ontology, including those of its imports, so that changes in an
+   * ontology also cause reindexing of the ontologies that depend on it.
+   */
+  private final Map<String, String> indexChecksums = new HashMap<>();
+
   /**
    * Cache for ongoing requests expires in 10 minutes. CHECK this may be less and become
    * configurable.
@@ -257,7 +271,11 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
     super(scope, Type.REASONER, options);
     this.scope = scope;
     this.owl = new OWL(scope);
-    this.indexer = new Indexer(scope);
+    this.indexer =
+        new Indexer(
+            scope,
+            BaseService.getConfigurationSubdirectory(options, "index"),
+            options.isClean());
     this.emergence = new IntelligentMap<>(scope);
     ServiceConfiguration.INSTANCE.setMainService(this);
     readConfiguration(options);
@@ -398,6 +416,9 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
   public ServiceStatus status() {
     var ret = super.status();
     if (ret instanceof ServiceStatusImpl serviceStatus) {
+      if (worldview != null) {
+        serviceStatus.getMetadata().put(KNOWLEDGE_VERSION, knowledgeVersion());
+      }
       serviceStatus
           .getAdvisories()
           .add(Notification.error("Reasoner knowledge base is inconsistent"));
@@ -405,6 +426,14 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
     return ret;
   }
 
+  /**
+   * The loaded worldview's ID followed by the number of times knowledge has been loaded or updated
+   * since boot. Published in the status as {@link #KNOWLEDGE_VERSION}.
+   */
+  private String knowledgeVersion() {
+    return worldview.getWorldviewId() + "." + knowledgeUpdates.get();
+  }
+
   @Override
   public Concept resolveConcept(String definition) {
     try {
@@ -1441,15 +1470,33 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
     }
 
     this.worldview = worldview;
+    this.knowledgeUpdates.incrementAndGet();
 
     this.owl.initialize(worldview.getOntologies().getFirst());
+    this.indexChecksums.clear();
+    int reindexed = 0;
     for (KimOntology ontology : worldview.getOntologies()) {
       for (var statement : ontology.getStatements()) {
         defineConcept(statement, scope);
       }
       this.owl.registerWithReasoner(ontology);
+      // only ontologies that changed since the index was saved are reindexed
+      if (indexer.updateNamespace(ontology, indexChecksum(ontology))) {
+        reindexed++;
+      }
     }
     this.owl.flushReasoner();
+    indexer.retainNamespaces(
+        worldview.getOntologies().stream().map(KimOntology::getUrn).toList());
+    indexer.commitChanges();
+    Logging.INSTANCE.info(
+        "Semantic search index: "
+            + reindexed
+            + " of "
+            + worldview.getOntologies().size()
+            + " ontologies indexed, the others were current");
+    this.subsumption.clear();
+    this.subsumption.build(this.owl.getRegisteredConcepts());
     for (var strategyDocument : worldview.getObservationStrategies()) {
       for (var strategy : strategyDocument.getStatements()) {
         observationReasoner.registerStrategy(strategy);
@@ -1482,12 +1529,14 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
       release all ontologies first. This should not be necessary but it prevents a NPE in case there are
       forward references - which the syntax should flag as errors, but doesn't at the moment.
        */
+      Map<String, KimOntology> updated = new LinkedHashMap<>();
       for (var resource : changes.getOntologies()) {
         var ontology = this.owl.getOntology(resource.getResourceUrn());
         if (ontology != null) {
           this.owl.releaseOntology(ontology);
         }
       }
+      this.subsumption.clear();
 
       for (var resource : changes.getOntologies()) {
 
@@ -1509,12 +1558,17 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
           defineConcept(statement, parsingScope);
         }
         this.owl.registerWithReasoner(ontology);
+        updated.put(ontology.getUrn(), ontology);
         resource.getNotifications().addAll(notifications);
 
         if (Utils.Notifications.hasErrors(notifications)) {
           inconsistent = true;
         }
       }
+      // again, in case anything was looked up while the ontologies were incomplete
+      this.subsumption.clear();
+      reindex(updated);
+      indexer.commitChanges();
 
       for (var resource : changes.getObservationStrategies()) {
 
@@ -1547,6 +1601,7 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
       inconsistent = true;
       scope.send(Notification.error(t));
     } finally {
+      this.knowledgeUpdates.incrementAndGet();
       serviceScope().setMaintenanceMode(false);
     }
 
@@ -1557,6 +1612,56 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
     return changes;
   }
 
+  /**
+   * Reindex the updated ontologies and any loaded ontology that imports them, directly or
+   * indirectly, visiting them in load order so that imports are checksummed before their
+   * dependents.
+   *
+   * @param updated the ontologies that were redefined, indexed by URN
+   */
+  private void reindex(Map<String, KimOntology> updated) {
+    List<KimOntology> ontologies = new ArrayList<>();
+    if (worldview != null) {
+      for (var ontology : worldview.getOntologies()) {
+        ontologies.add(updated.getOrDefault(ontology.getUrn(), ontology));
+      }
+    }
+    for (var ontology : updated.values()) {
+      if (!ontologies.contains(ontology)) {
+        ontologies.add(ontology);
+      }
+    }
+    Set<String> changed = new HashSet<>(updated.keySet());
+    for (var ontology : ontologies) {
+      if (changed.contains(ontology.getUrn())
+          || ontology.getImportedOntologies().stream().anyMatch(changed::contains)) {
+        var previous = indexChecksums.get(ontology.getUrn());
+        var checksum = indexChecksum(ontology);
+        if (!checksum.equals(previous)) {
+          changed.add(ontology.getUrn());
+          indexer.updateNamespace(ontology, checksum);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute and record the index checksum of an ontology, combining its own with those of its
+   * imports. The imports must have been checksummed before.
+   *
+   * @param ontology
+   * @return
+   */
+  private String indexChecksum(KimOntology ontology) {
+    List<String> dependencies = new ArrayList<>();
+    for (var imported : ontology.getImportedOntologies()) {
+      dependencies.add(indexChecksums.getOrDefault(imported, imported));
+    }
+    var ret = Indexer.checksum(ontology, dependencies);
+    indexChecksums.put(ontology.getUrn(), ret);
+    return ret;
+  }
+
   public void setLocalName(String localName) {
     this.localName = localName;
   }
@@ -1591,11 +1696,6 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
       }
     }
 
-    /*
-     * TODO this would be a good point to insert caching logics. It should also go
-     * in all remote clients.
-     */
-
     /*
      * Speed up checking for logical expressions without forcing the reasoner to
      * compute complex logics.
@@ -1617,9 +1717,14 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
       }
       return true;
 
+    } else if (subsumption.isIndexed(concept.asConcept())
+        && subsumption.isIndexed(other.asConcept())) {
+
+      return subsumption.is(concept.asConcept(), other.asConcept());
+
     } else {
       /*
-       * use the semantic closure. We may want to cache this eventually.
+       * use the semantic closure.
        */
       Collection<Concept> collection = allParents(concept);
       collection.add(concept.asConcept());
@@ -2136,8 +2241,6 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
     ontology.define();
     main = ontology.getConcept(mainId);
 
-    indexer.index(concept);
-
     if (concept.getDeclaredParent() != null) {
 
       //            List<Concept> concepts = new ArrayList<>();
@@ -2792,7 +2895,7 @@ public class ReasonerService extends BaseService implements Reasoner, Reasoner.A
 //            Message.MessageClass.ServiceLifecycle,
 //            Message.MessageType.ServiceUnavailable,
 //            capabilities(serviceScope()));
-    // TODO Auto-generated method stub
+    indexer.ensureClosed();
     return super.shutdown();
   }
 
@@ -0,0 +1,173 @@
+package org.integratedmodelling.klab.services.reasoner.internal;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import org.integratedmodelling.common.knowledge.ConceptImpl;
+import org.integratedmodelling.klab.api.knowledge.Concept;
+import org.integratedmodelling.klab.api.knowledge.Semantics;
+
+/**
+ * Precomputed ancestor sets for the named concepts in the worldview, so that subsumption between
+ * two of them is a lookup instead of a walk up the hierarchy. Each concept's set contains the ids
+ * of all its asserted ancestors and its own, sorted for binary search. Sets are computed on demand
+ * (or all at once with {@link #build(Collection)}), never modified after that, and all dropped
+ * when an ontology is released.
+ *
+ * <p>Ids are used rather than concepts, so only concepts that have one (see {@link
+ * #isIndexed(Semantics)}) can be looked up; concept ids are global and sparse, which is why the
+ * sets are sorted arrays and not bitsets. A concept gets a new id when it is redefined, so an
+ * instance obtained before that has an id that no longer designates it: only concepts whose id is
+ * still registered with their URN are indexed.
+ */
+public class SubsumptionIndex {
+
+  private final Function<Concept, Collection<Concept>> parents;
+  private final LongFunction<? extends Concept> registered;
+  private final Map<Long, long[]> ancestors = new ConcurrentHashMap<>();
+
+  /**
+   * @param parents the direct parents of a concept, normally the asserted superclasses
+   * @param registered the concept currently registered with an id, or null
+   */
+  public SubsumptionIndex(
+      Function<Concept, Collection<Concept>> parents, LongFunction<? extends Concept> registered) {
+    this.parents = parents;
+    this.registered = registered;
+  }
+
+  /**
+   * True if the concept has an id that can be indexed and that still designates it. Concepts
+   * without one (negative ids for non-semantic types, or anything that isn't a {@link
+   * ConceptImpl}) and stale instances of redefined concepts must be checked otherwise.
+   *
+   * @param semantics
+   * @return
+   */
+  public boolean isIndexed(Semantics semantics) {
+    if (!(semantics instanceof ConceptImpl concept) || concept.getId() <= 0) {
+      return false;
+    }
+    var current = registered.apply(concept.getId());
+    return current != null && Objects.equals(current.getUrn(), concept.getUrn());
+  }
+
+  /**
+   * Compute the ancestor sets for all the passed concepts and their ancestors. Only the sets not
+   * already known are computed.
+   *
+   * @param concepts
+   */
+  public void build(Collection<? extends Concept> concepts) {
+    for (var concept : concepts) {
+      if (isIndexed(concept)) {
+        ancestors(concept);
+      }
+    }
+  }
+
+  /**
+   * Reflexive subsumption: true if {@code other} is {@code concept} or one of its ancestors. Both
+   * must be {@link #isIndexed(Semantics) indexed}.
+   *
+   * @param concept
+   * @param other
+   * @return
+   */
+  public boolean is(Concept concept, Concept other) {
+    return Arrays.binarySearch(ancestors(concept), ((ConceptImpl) other).getId()) >= 0;
+  }
+
+  /**
+   * Drop all the ancestor sets. Must be called whenever concepts are redefined or released, as
+   * their ids change; the sets are recomputed when next needed.
+   */
+  public void clear() {
+    ancestors.clear();
+  }
+
+  public int size() {
+    return ancestors.size();
+  }
+
+  private long[] ancestors(Concept concept) {
+    var ret = ancestors.get(((ConceptImpl) concept).getId());
+    if (ret == null) {
+      var computed = compute(concept, new HashSet<>());
+      ret = computed == null ? closure(concept) : toArray(computed);
+    }
+    return ret;
+  }
+
+  /*
+   * Depth-first on the parents, storing the result for each concept on the way back. Returns null
+   * if a cycle is found or a parent can't be indexed: nothing depending on those is stored, and the
+   * caller falls back on walking the hierarchy.
+   */
+  private Set<Long> compute(Concept concept, Set<Long> path) {
+
+    long id = ((ConceptImpl) concept).getId();
+    var known = ancestors.get(id);
+    if (known != null) {
+      Set<Long> ret = new HashSet<>(known.length);
+      for (long ancestor : known) {
+        ret.add(ancestor);
+      }
+      return ret;
+    }
+
+    if (!path.add(id)) {
+      return null;
+    }
+
+    Set<Long> ret = new HashSet<>();
+    ret.add(id);
+    for (var parent : parents.apply(concept)) {
+      if (!isIndexed(parent)) {
+        return null;
+      }
+      var parentAncestors = compute(parent, path);
+      if (parentAncestors == null) {
+        return null;
+      }
+      ret.addAll(parentAncestors);
+    }
+    path.remove(id);
+
+    ancestors.put(id, toArray(ret));
+    return ret;
+  }
+
+  // used for concepts in cycles: not stored, as the result isn't valid for the other members
+  private long[] closure(Concept concept) {
+    Set<Long> ret = new HashSet<>();
+    Deque<Concept> stack = new ArrayDeque<>();
+    stack.push(concept);
+    while (!stack.isEmpty()) {
+      var current = stack.pop();
+      if (!(current instanceof ConceptImpl conceptImpl) || !ret.add(conceptImpl.getId())) {
+        continue;
+      }
+      var known = ancestors.get(conceptImpl.getId());
+      if (known != null) {
+        for (long ancestor : known) {
+          ret.add(ancestor);
+        }
+      } else {
+        parents.apply(current).forEach(stack::push);
+      }
+    }
+    return toArray(ret);
+  }
+
+  private static long[] toArray(Set<Long> ids) {
+    var ret = new long[ids.size()];
+    int i = 0;
+    for (long id : ids) {
+      ret[i++] = id;
+    }
+    Arrays.sort(ret);
+    return ret;
+  }
+}
@@ -484,6 +484,26 @@ public class OWL {
     this.conceptsById.put(concept.getId(), concept);
   }
 
+  /**
+   * The concept currently registered with the passed id, or null if the id is unknown or its
+   * concept was released.
+   *
+   * @param id
+   * @return
+   */
+  public ConceptImpl getRegisteredConcept(long id) {
+    return conceptsById.get(id);
+  }
+
+  /**
+   * All the concepts currently known by id.
+   *
+   * @return a copy of the concepts
+   */
+  public Collection<ConceptImpl> getRegisteredConcepts() {
+    return new ArrayList<>(conceptsById.values());
+  }
+
   public String getConceptSpace(IRI iri) {
 
     if (iri2ns.containsKey(iri.toString())) {
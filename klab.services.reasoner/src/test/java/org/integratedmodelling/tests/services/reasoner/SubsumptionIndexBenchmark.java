@@ -0,0 +1,100 @@
+package org.integratedmodelling.tests.services.reasoner;
+
+import java.util.*;
+import org.integratedmodelling.common.knowledge.ConceptImpl;
+import org.integratedmodelling.klab.api.knowledge.Concept;
+import org.integratedmodelling.klab.services.reasoner.internal.SubsumptionIndex;
+
+/**
+ * Compares subsumption checks through the {@link SubsumptionIndex} with the walk up the hierarchy
+ * that {@code ReasonerService.is()} does without it, on a synthetic hierarchy shaped like a
+ * worldview: a tree about ten levels deep with a few concepts inheriting from two parents. Random
+ * pairs are checked, so most answers are negative as in actual use.
+ */
+public class SubsumptionIndexBenchmark {
+
+  private static final int CONCEPTS = 20_000;
+  private static final int BRANCHING = 3;
+  private static final int CHECKS = 1_000_000;
+  private static final int WARMUP = 3;
+
+  public static void main(String[] args) {
+
+    var random = new Random(42);
+    List<Concept> concepts = new ArrayList<>();
+    Map<Concept, Collection<Concept>> parents = new HashMap<>();
+    for (int i = 0; i < CONCEPTS; i++) {
+      var concept = new ConceptImpl();
+      concept.setId(i + 1);
+      concept.setUrn("benchmark:Concept" + i);
+      Set<Concept> conceptParents = new HashSet<>();
+      if (i > 0) {
+        conceptParents.add(concepts.get((i - 1) / BRANCHING));
+        if (i % 10 == 0) {
+          conceptParents.add(concepts.get(random.nextInt(i)));
+        }
+      }
+      parents.put(concept, conceptParents);
+      concepts.add(concept);
+    }
+
+    var pairs = new Concept[CHECKS * 2];
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i] = concepts.get(random.nextInt(CONCEPTS));
+    }
+
+    long time = System.nanoTime();
+    var index = new SubsumptionIndex(parents::get, id -> concepts.get((int) id - 1));
+    index.build(concepts);
+    System.out.printf(
+        "index built for %d concepts in %d ms%n",
+        index.size(), (System.nanoTime() - time) / 1_000_000);
+
+    for (int pass = 0; pass <= WARMUP; pass++) {
+
+      int walked = 0;
+      time = System.nanoTime();
+      for (int i = 0; i < pairs.length; i += 2) {
+        var ancestors = allParents(pairs[i], parents, new HashSet<>());
+        ancestors.add(pairs[i]);
+        if (ancestors.contains(pairs[i + 1])) {
+          walked++;
+        }
+      }
+      long walkTime = System.nanoTime() - time;
+
+      int indexed = 0;
+      time = System.nanoTime();
+      for (int i = 0; i < pairs.length; i += 2) {
+        if (index.is(pairs[i], pairs[i + 1])) {
+          indexed++;
+        }
+      }
+      long indexTime = System.nanoTime() - time;
+
+      if (walked != indexed) {
+        throw new IllegalStateException("index and walk disagree: " + indexed + " vs " + walked);
+      }
+      if (pass == WARMUP) {
+        System.out.printf(
+            "walk:  %8.1f ns per check%nindex: %8.1f ns per check (%d of %d true)%n",
+            (double) walkTime / CHECKS, (double) indexTime / CHECKS, indexed, CHECKS);
+      }
+    }
+  }
+
+  // same as ReasonerService.allParentsInternal()
+  private static Set<Concept> allParents(
+      Concept target, Map<Concept, Collection<Concept>> parents, Set<Concept> seen) {
+    Set<Concept> ret = new HashSet<>();
+    if (seen.contains(target)) {
+      return ret;
+    }
+    seen.add(target);
+    for (var parent : parents.get(target)) {
+      ret.add(parent);
+      ret.addAll(allParents(parent, parents, seen));
+    }
+    return ret;
+  }
+}
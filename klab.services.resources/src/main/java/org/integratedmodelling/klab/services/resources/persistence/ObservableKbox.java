@@ -341,34 +341,32 @@ public abstract class ObservableKbox extends H2Kbox {
      * ('any' dependencies). The initial set of candidates is weeded out of all incompatible or
      * unrepresented concepts later.
      */
-    for (Concept candidate :
-        getCandidates(
-            main,
-            observable.getDescriptionType().isInstantiation(),
-            observable.getSpecializedComponents())) {
+    List<Concept> candidates =
+        new ArrayList<>(
+            getCandidates(
+                main,
+                observable.getDescriptionType().isInstantiation(),
+                observable.getSpecializedComponents()));
 
-      /*
-       * let an abstract model resolve a concrete observable if the abstract traits are in the
-       * resolved predicates for the observable. If the observable contains the "specialized"
-       * flag, we don't compare the inherency, letting through models that are contextualized
-       * to specialized contexts
-       */
-
-      if (scope.getService(Reasoner.class).semanticDistance(candidate, observable, context) /*
-                             * TODO handle the resolved predicates?
-                             * candidate.getSemanticDistance(observable, context,
-                             * !observable.isSpecialized(), ((Observable)
-                             * observable).getResolvedPredicates())
-                             */
-          >= 0) {
-        // System.out.println(" YES");
-        long id = getConceptId(candidate);
+    /*
+     * let an abstract model resolve a concrete observable if the abstract traits are in the
+     * resolved predicates for the observable. If the observable contains the "specialized"
+     * flag, we don't compare the inherency, letting through models that are contextualized
+     * to specialized contexts. All candidates are checked in one call, which makes a single
+     * request to a remote reasoner.
+     *
+     * TODO handle the resolved predicates? candidate.getSemanticDistance(observable, context,
+     * !observable.isSpecialized(), ((Observable) observable).getResolvedPredicates())
+     */
+    int[] distances =
+        scope.getService(Reasoner.class).semanticDistances(observable, candidates, context);
+    for (int i = 0; i < distances.length; i++) {
+      if (distances[i] >= 0) {
+        long id = getConceptId(candidates.get(i));
         if (id >= 0) {
           ret.add(id);
         }
-      } /*
-         * else { System.out.println("    NOPE"); }
-         */
+      }
     }
 
     return ret;
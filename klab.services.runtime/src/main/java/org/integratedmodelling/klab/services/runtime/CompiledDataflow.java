@@ -6,7 +6,6 @@ import java.util.*;
 import org.integratedmodelling.common.runtime.ActuatorImpl;
 import org.integratedmodelling.klab.api.Klab;
 import org.integratedmodelling.klab.api.collections.Pair;
-import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.Version;
 import org.integratedmodelling.klab.api.data.mediation.classification.LookupTable;
 import org.integratedmodelling.klab.api.digitaltwin.DigitalTwin;
@@ -26,10 +25,12 @@ import org.integratedmodelling.klab.api.services.runtime.Dataflow;
 import org.integratedmodelling.klab.api.services.runtime.Message;
 import org.integratedmodelling.klab.api.services.runtime.ScalarComputation;
 import org.integratedmodelling.klab.api.services.runtime.extension.Extensions;
+import org.integratedmodelling.klab.components.ArgumentBinder;
 import org.integratedmodelling.klab.components.ComponentRegistry;
 import org.integratedmodelling.klab.data.ClientResourceContextualizer;
 import org.integratedmodelling.klab.data.ServiceResourceContextualizer;
 import org.integratedmodelling.klab.services.runtime.digitaltwin.DigitalTwinImpl;
+import org.integratedmodelling.klab.services.runtime.neo4j.KnowledgeGraphNeo4j;
 import org.integratedmodelling.klab.services.scopes.ServiceContextScope;
 import org.integratedmodelling.klab.utilities.Utils;
 import org.jgrapht.Graph;
@@ -79,6 +80,30 @@ public class CompiledDataflow {
     this.digitalTwin = contextScope.getDigitalTwin();
   }
 
+  /**
+   * Rebuild the executor for an observation from its actuator as recorded in the knowledge graph,
+   * when the executor compiled with the original dataflow is no longer available.
+   *
+   * @param runtimeService
+   * @param observation
+   * @param actuator the actuator linked to the observation through CONTEXTUALIZED_BY
+   * @param scope
+   * @return the executor, or null if the actuator could not be compiled
+   */
+  public static DigitalTwin.Executor reconstructExecutor(
+      RuntimeService runtimeService,
+      Observation observation,
+      Actuator actuator,
+      ServiceContextScope scope) {
+    var dataflow = new CompiledDataflow(runtimeService, observation, scope);
+    // the KG assigns its own ID to the actuator; the executor finds its observation by ID
+    if (actuator instanceof ActuatorImpl actuator1) {
+      actuator1.setId(observation.getId());
+    }
+    var ret = dataflow.new ExecutorImpl(actuator);
+    return ret.isOperational() ? ret : null;
+  }
+
   /**
    * Build the ordered dependency graph, the executors and the observations
    *
@@ -308,7 +333,12 @@ public class CompiledDataflow {
       var source = allObservations.get(aSource.getId());
       var target = allObservations.get(aTarget.getId());
       // TODO geometry?
-      transaction.link(source, target, GraphModel.Relationship.AFFECTS, "rank", edge.order);
+      transaction.link(
+          source,
+          target,
+          GraphModel.Relationship.AFFECTS,
+          KnowledgeGraphNeo4j.Dependency.SEQUENCE_PROPERTY,
+          edge.order);
       // TODO the geometry should probably be here if coverage is not full
       transaction.link(aTarget, aSource, GraphModel.Relationship.HAS_CHILD);
     }
@@ -466,10 +496,9 @@ public class CompiledDataflow {
                 "storage", currentDescriptor.serviceInfo, actuator, observation.getObservable());
 
         // if we're a quality, we need storage at the discretion of the StorageManager.
-        Storage storage =
-            observation.getObservable().is(SemanticType.QUALITY)
-                ? digitalTwin.getStorageManager().getStorage(observation, storageAnnotation)
-                : null;
+        if (observation.getObservable().is(SemanticType.QUALITY)) {
+          digitalTwin.getStorageManager().getStorage(observation, storageAnnotation);
+        }
         /*
          * Create a runnable with matched parameters and have it set the context observation
          * TODO allow multiple methods with same annotation, taking different storage
@@ -478,101 +507,33 @@ public class CompiledDataflow {
          * Should match arguments, check if they all match, and if not move to the next until
          * no available implementations remain.
          */
-        if (componentRegistry.implementation(currentDescriptor).method != null) {
-
-          //          var runArguments =
-          //              ;
-          //
-          //          if (runArguments == null) {
-          //            return false;
-          //          }
-
-          if (currentDescriptor.staticMethod) {
-            Extensions.FunctionDescriptor finalDescriptor1 = currentDescriptor;
-            var implementation = componentRegistry.implementation(currentDescriptor);
-            var resource1 = resource;
-            if (implementation == null) {
-              return false;
-            }
-            executors.add(
-                (geometry, event, scope) -> {
-                  try {
-                    var arguments =
-                        ComponentRegistry.matchArguments(
-                            implementation.method,
-                            resource1,
-                            observation.getGeometry(),
-                            null,
-                            observation,
-                            observation.getObservable(),
-                            urn,
-                            call.getParameters(),
-                            call,
-                            storage,
-                            expression,
-                            lookupTable,
-                            null,
-                            storageAnnotation,
-                            event,
-                            scope);
-
-                    if (arguments == null) {
-                      return false;
-                    }
-
-                    var context =
-                        componentRegistry
-                            .implementation(finalDescriptor1)
-                            .method
-                            .invoke(null, arguments.toArray());
-
-                    return true;
-                  } catch (Exception e) {
-                    cause = e;
-                    scope.error(e /* TODO tracing parameters */);
-                  }
-                  return true;
-                });
-          } else if (componentRegistry.implementation(currentDescriptor).mainClassInstance
-              != null) {
-            var implementation = componentRegistry.implementation(currentDescriptor);
-            var resource1 = resource;
-            Extensions.FunctionDescriptor finalDescriptor = currentDescriptor;
+        var implementation = componentRegistry.implementation(currentDescriptor);
+        if (implementation != null && implementation.method != null) {
+
+          // arguments are matched once here; each execution only fills in event and scope
+          var binder =
+              ArgumentBinder.create(
+                  implementation,
+                  resource,
+                  observation.getGeometry(),
+                  null,
+                  observation,
+                  observation.getObservable(),
+                  urn,
+                  call.getParameters(),
+                  call,
+                  expression,
+                  lookupTable,
+                  null,
+                  storageAnnotation,
+                  scope);
+
+          if (binder != null) {
             executors.add(
                 (geometry, event, scope) -> {
                   try {
-                    var arguments =
-                        ComponentRegistry.matchArguments(
-                            implementation.method,
-                            resource1,
-                            observation.getGeometry(),
-                            null,
-                            observation,
-                            observation.getObservable(),
-                            urn,
-                            call.getParameters(),
-                            call,
-                            storage,
-                            expression,
-                            lookupTable,
-                            null,
-                            storageAnnotation,
-                            event,
-                            scope);
-
-                    if (arguments == null) {
-                      return false;
-                    }
-
-                    var context =
-                        componentRegistry
-                            .implementation(finalDescriptor)
-                            .method
-                            .invoke(
-                                componentRegistry.implementation(finalDescriptor).mainClassInstance,
-                                arguments.toArray());
-                    return true;
-                  } catch (Exception e) {
+                    binder.invoke(event, scope);
+                  } catch (Throwable e) {
                     cause = e;
                     scope.error(e /* TODO tracing parameters */);
                   }
@@ -40,6 +40,7 @@ import org.integratedmodelling.klab.api.services.runtime.objects.SessionInfo;
 import org.integratedmodelling.klab.api.view.UIView;
 import org.integratedmodelling.klab.configuration.ServiceConfiguration;
 import org.integratedmodelling.klab.runtime.computation.ScalarComputationGroovy;
+import org.integratedmodelling.klab.runtime.storage.StorageManagerImpl;
 import org.integratedmodelling.common.services.ServiceStartupOptions;
 import org.integratedmodelling.klab.services.base.BaseService;
 import org.integratedmodelling.klab.services.configuration.RuntimeConfiguration;
@@ -89,7 +90,8 @@ public class RuntimeService extends BaseService
   private boolean createMainKnowledgeGraph() {
     // TODO choose the DB from configuration - client or embedded server
     var path = BaseService.getConfigurationSubdirectory(startupOptions, "dt").toPath();
-    this.knowledgeGraph = new KnowledgeGraphNeo4JEmbedded(path);
+    this.knowledgeGraph =
+        new KnowledgeGraphNeo4JEmbedded(path, configuration.getKnowledgeGraphDebugPort());
     return this.knowledgeGraph.isOnline();
   }
 
@@ -162,6 +164,9 @@ public class RuntimeService extends BaseService
     //            Message.MessageClass.ServiceLifecycle,
     //            Message.MessageType.ServiceUnavailable,
     //            capabilities(serviceScope()));
+    // the contexts that outlive the service keep their storage on disk for reopening
+    StorageManagerImpl.closeAll();
+
     if (systemLauncher != null) {
       systemLauncher.shutdown();
     }
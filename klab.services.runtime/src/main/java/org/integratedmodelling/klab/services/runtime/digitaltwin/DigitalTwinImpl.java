@@ -40,7 +40,8 @@ public class DigitalTwinImpl implements DigitalTwin {
   private final KnowledgeGraphNeo4j knowledgeGraph;
   private final StorageManager storageManager;
   private final ContextScope rootScope;
-  private final Scheduler scheduler;
+  private final SchedulerImpl scheduler;
+  private final RuntimeService runtimeService;
   private Configuration configuration;
   private long transientId = Klab.getNextId();
 
@@ -76,8 +77,9 @@ public class DigitalTwinImpl implements DigitalTwin {
       public RelationshipEdge(GraphModel.Relationship relationship, Object... data) {
         this.relationship = relationship;
         if (data != null) {
-          for (int i = 0; i < data.length; i++) {
-            if (data[i] instanceof Integer seq) {
+          for (int i = 0; i < data.length - 1; i++) {
+            if (KnowledgeGraphNeo4j.Dependency.SEQUENCE_PROPERTY.equals(data[i])
+                && data[i + 1] instanceof Integer seq) {
               this.sequence = seq;
             } // TODO geometry and more
           }
@@ -137,13 +139,15 @@ public class DigitalTwinImpl implements DigitalTwin {
       return this.activity;
     }
 
+    // link(), add() and update() are synchronized as they are called by concurrent executors
+
     @Override
-    public void add(RuntimeAsset asset) {
+    public synchronized void add(RuntimeAsset asset) {
       graph.addVertex(asset);
     }
 
     @Override
-    public void link(
+    public synchronized void link(
         RuntimeAsset source,
         RuntimeAsset destination,
         GraphModel.Relationship relationship,
@@ -154,7 +158,7 @@ public class DigitalTwinImpl implements DigitalTwin {
     }
 
     @Override
-    public void update(RuntimeAsset asset) {
+    public synchronized void update(RuntimeAsset asset) {
       modified.add(asset);
     }
 
@@ -243,8 +247,7 @@ public class DigitalTwinImpl implements DigitalTwin {
       }
 
       for (var observation : contextualizers.keySet()) {
-        scheduler.registerExecutor(
-            observation, (g, e, s) -> contextualizers.get(observation).run(g, e, s));
+        scheduler.registerExecutor(observation, contextualizers.get(observation));
       }
 
       /* Upon successful commit, establish the ID for any target that was passed in the initialization
@@ -271,7 +274,7 @@ public class DigitalTwinImpl implements DigitalTwin {
     private Object[] getRelationshipData(RelationshipEdge edge) {
       var ret = new ArrayList<Object>();
       if (edge.relationship == GraphModel.Relationship.AFFECTS) {
-        ret.add("sequence");
+        ret.add(KnowledgeGraphNeo4j.Dependency.SEQUENCE_PROPERTY);
         ret.add(edge.sequence);
       }
       return ret.toArray();
@@ -327,6 +330,7 @@ public class DigitalTwinImpl implements DigitalTwin {
   public DigitalTwinImpl(
       RuntimeService service, ServiceContextScope scope, KnowledgeGraphNeo4j database) {
     this.rootScope = scope;
+    this.runtimeService = service;
     this.knowledgeGraph = (KnowledgeGraphNeo4j) database.contextualize(scope);
     this.storageManager = new StorageManagerImpl(service, scope);
     this.scheduler = new SchedulerImpl(scope, this);
@@ -337,6 +341,10 @@ public class DigitalTwinImpl implements DigitalTwin {
     return new TransactionImpl(activity, (ServiceContextScope) scope, runtimeAssets);
   }
 
+  public RuntimeService getRuntimeService() {
+    return runtimeService;
+  }
+
   @Override
   public KnowledgeGraph getKnowledgeGraph() {
     return this.knowledgeGraph;
@@ -412,6 +420,7 @@ public class DigitalTwinImpl implements DigitalTwin {
 
         /* all buffers run in parallel */
         return Utils.Java.distributeComputation(
+            scope,
             buffers,
             buffer -> {
               var scanner = buffer.scan();
@@ -0,0 +1,181 @@
+package org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import org.integratedmodelling.klab.api.digitaltwin.Scheduler;
+import org.integratedmodelling.klab.api.knowledge.SemanticType;
+
+/**
+ * Event bus for the scheduler. Registrations with a time span are indexed by semantic type and by
+ * the end of their span, so that an event is only matched against the registrations of the types
+ * it concerns that haven't ended before it starts, instead of being filtered by every subscriber or
+ * by every registration ever made. Registrations without a time span are kept apart and, as with
+ * the replay-all sink this replaces, receive every event. Past events are kept for replay to new
+ * registrations within a bounded window: the initialization event is always kept, temporal events
+ * are kept up to a maximum number, after which the oldest are dropped. Memory use is therefore
+ * bounded by the number of registrations and by the replay capacity, not by the number of events
+ * ever posted.
+ *
+ * <p>Handlers are called outside the internal lock, in registration order for replays and in
+ * posting order for new events, so they can safely register or post in turn.
+ */
+public class EventDispatcher {
+
+  public static final int DEFAULT_REPLAY_CAPACITY = 1024;
+
+  private final int replayCapacity;
+  private final BiConsumer<SchedulerImpl.Registration, SchedulerImpl.EventImpl> handler;
+  private SchedulerImpl.EventImpl initializationEvent;
+  private final Deque<SchedulerImpl.EventImpl> history = new ArrayDeque<>();
+
+  /*
+   * registrations with a time span, by type and end time: those ending before an event starts are
+   * never visited, so the cost of a dispatch doesn't grow with the registrations that have expired.
+   */
+  private final Map<SemanticType, NavigableMap<Long, List<SchedulerImpl.Registration>>>
+      registrations = new EnumMap<>(SemanticType.class);
+
+  // registrations without a time span, which get all events
+  private final List<SchedulerImpl.Registration> untimed = new ArrayList<>();
+
+  private int registrationCount = 0;
+
+  public EventDispatcher(
+      int replayCapacity,
+      BiConsumer<SchedulerImpl.Registration, SchedulerImpl.EventImpl> handler) {
+    this.replayCapacity = replayCapacity;
+    this.handler = handler;
+  }
+
+  /**
+   * Add a registration and replay to it any retained event that concerns it.
+   *
+   * @param registration
+   */
+  public void register(SchedulerImpl.Registration registration) {
+
+    List<SchedulerImpl.EventImpl> replay = new ArrayList<>();
+
+    synchronized (this) {
+      if (initializationEvent != null) {
+        replay.add(initializationEvent);
+      }
+      if (isTemporal(registration)) {
+        registrations
+            .computeIfAbsent(registration.type(), t -> new TreeMap<>())
+            .computeIfAbsent(registration.end(), e -> new ArrayList<>())
+            .add(registration);
+        for (var event : history) {
+          if (affects(event, registration)) {
+            replay.add(event);
+          }
+        }
+      } else {
+        untimed.add(registration);
+        replay.addAll(history);
+      }
+      registrationCount++;
+    }
+
+    for (var event : replay) {
+      handler.accept(registration, event);
+    }
+  }
+
+  /**
+   * Retain the passed event for replay and dispatch it to all the registrations it affects.
+   *
+   * @param event
+   */
+  public void post(SchedulerImpl.EventImpl event) {
+
+    List<SchedulerImpl.Registration> affected = new ArrayList<>();
+
+    synchronized (this) {
+      if (event.getType() == Scheduler.Event.Type.INITIALIZATION) {
+        // applies to everything, so it's replayed to all new registrations and never dropped
+        this.initializationEvent = event;
+        for (var index : registrations.values()) {
+          index.values().forEach(affected::addAll);
+        }
+        affected.addAll(untimed);
+      } else {
+        history.addLast(event);
+        while (history.size() > replayCapacity) {
+          history.removeFirst();
+        }
+        affected.addAll(untimed);
+        for (var type : affectedTypes(event)) {
+          var index = registrations.get(type);
+          if (index != null) {
+            // only registrations ending after the event starts can be affected
+            for (var candidates : index.tailMap(event.getStart(), false).values()) {
+              for (var registration : candidates) {
+                if (affects(event, registration)) {
+                  affected.add(registration);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    for (var registration : affected) {
+      handler.accept(registration, event);
+    }
+  }
+
+  /**
+   * Remove the registration for the passed observation ID, if any.
+   *
+   * @param observationId
+   */
+  public synchronized void unregister(long observationId) {
+    if (untimed.removeIf(r -> r.id() == observationId)) {
+      registrationCount--;
+    }
+    for (var index : registrations.values()) {
+      var iterator = index.values().iterator();
+      while (iterator.hasNext()) {
+        var candidates = iterator.next();
+        if (candidates.removeIf(r -> r.id() == observationId)) {
+          registrationCount--;
+        }
+        if (candidates.isEmpty()) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  public synchronized int getRetainedEventCount() {
+    return history.size() + (initializationEvent == null ? 0 : 1);
+  }
+
+  public synchronized int getRegistrationCount() {
+    return registrationCount;
+  }
+
+  private boolean isTemporal(SchedulerImpl.Registration registration) {
+    return registration.end() > registration.start();
+  }
+
+  private boolean affects(SchedulerImpl.EventImpl event, SchedulerImpl.Registration registration) {
+    return registration.start() < event.getEnd() && registration.end() > event.getStart();
+  }
+
+  /**
+   * The semantic types of the observations that may be affected by the passed event. Observed
+   * events only concern substantials; time transitions concern everything that has time.
+   *
+   * @param event
+   * @return
+   */
+  private Collection<SemanticType> affectedTypes(SchedulerImpl.EventImpl event) {
+    if (event.getType() == Scheduler.Event.Type.EVENT) {
+      return List.of(SemanticType.SUBJECT, SemanticType.AGENT);
+    }
+    return registrations.keySet();
+  }
+}
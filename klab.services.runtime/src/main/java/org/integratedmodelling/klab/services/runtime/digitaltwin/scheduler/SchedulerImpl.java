@@ -6,13 +6,14 @@ import com.google.common.cache.LoadingCache;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import org.integratedmodelling.common.knowledge.GeometryRepository;
 import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.klab.api.collections.Triple;
-import org.integratedmodelling.klab.api.data.KnowledgeGraph;
 import org.integratedmodelling.klab.api.digitaltwin.DigitalTwin;
 import org.integratedmodelling.klab.api.digitaltwin.GraphModel;
 import org.integratedmodelling.klab.api.digitaltwin.Scheduler;
+import org.integratedmodelling.klab.api.exceptions.KlabInternalErrorException;
 import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.geometry.impl.GeometryBuilder;
 import org.integratedmodelling.klab.api.knowledge.SemanticType;
@@ -21,25 +22,27 @@ import org.integratedmodelling.klab.api.knowledge.observation.impl.ObservationIm
 import org.integratedmodelling.klab.api.knowledge.observation.scale.time.Time;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.time.TimeInstant;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.time.TimePeriod;
+import org.integratedmodelling.klab.api.lang.ServiceCall;
 import org.integratedmodelling.klab.api.lang.TriFunction;
 import org.integratedmodelling.klab.api.provenance.Activity;
 import org.integratedmodelling.klab.api.scope.ContextScope;
 import org.integratedmodelling.klab.api.scope.Scope;
+import org.integratedmodelling.klab.api.services.runtime.Actuator;
 import org.integratedmodelling.klab.api.services.runtime.Message;
 import org.integratedmodelling.klab.api.utils.Utils;
+import org.integratedmodelling.klab.services.runtime.CompiledDataflow;
+import org.integratedmodelling.klab.services.runtime.RuntimeService;
 import org.integratedmodelling.klab.services.runtime.digitaltwin.DigitalTwinImpl;
+import org.integratedmodelling.klab.services.runtime.neo4j.KnowledgeGraphNeo4j;
 import org.integratedmodelling.klab.services.scopes.ServiceContextScope;
-import reactor.core.publisher.Mono;
-import reactor.core.publisher.SignalType;
-import reactor.core.publisher.Sinks;
 
 /**
  * Reactive scheduler/event bus stub for testing, to evolve into the actual scheduler.
  *
  * <p>Executors should be registered with the observations at dataflow compilation - the insertion
  * in the DT should also compile them.They should have a flag that says when the implementations can
- * be removed (init only, recompute, event-specific etc). The DT should be able to reconstruct the
- * necessary ones from the recorded actuators without a need for the dataflow being there.
+ * be removed (init only, recompute, event-specific etc). Executors that are not in memory are
+ * reconstructed from the recorded actuators without a need for the dataflow being there.
  */
 public class SchedulerImpl implements Scheduler {
 
@@ -47,40 +50,66 @@ public class SchedulerImpl implements Scheduler {
   private long epochStart = 0L;
   private long epochEnd = 0L;
   private Time.Resolution resolution = null;
-  private KnowledgeGraph knowledgeGraph;
+  private KnowledgeGraphNeo4j knowledgeGraph;
   private TimeEmitter timeEmitter;
   private EventImpl initializationEvent;
 
   /*
-   * The event processor is a fully replayable, multicasting one with synchronized behavior.
-   * Events don't end up in provenance, although the activities they engender do. The scheduler acts
-   * as a provenance agent and is recorded as the agent for activities triggered by temporal events.
+   * The event dispatcher replays a bounded window of past events to new registrations and only
+   * dispatches new events to the registrations they affect. Events don't end up in provenance,
+   * although the activities they engender do. The scheduler acts as a provenance agent and is
+   * recorded as the agent for activities triggered by temporal events.
    */
-  private final Sinks.Many<EventImpl> processor = Sinks.many().replay().all();
+  private final EventDispatcher dispatcher =
+      new EventDispatcher(EventDispatcher.DEFAULT_REPLAY_CAPACITY, this::handleEvent);
+
+  /**
+   * Upper bound for the estimated memory held by cached executors. Compiled code dominates, so each
+   * executor is weighed by a fixed cost per contextualizer plus the size of its definition.
+   */
+  public static final long EXECUTOR_CACHE_MAX_WEIGHT = 64L * 1024 * 1024;
+
+  private static final int EXECUTOR_BASE_WEIGHT = 1024;
+  private static final int CONTEXTUALIZER_WEIGHT = 32 * 1024;
+
+  /** Stands for observations that have nothing to compute, so that the lookup is not repeated. */
+  private static final DigitalTwin.Executor NO_EXECUTOR =
+      new DigitalTwin.Executor() {
+        @Override
+        public List<ServiceCall> serialized() {
+          return List.of();
+        }
+
+        @Override
+        public boolean run(Geometry geometry, Event event, ContextScope scope) {
+          return true;
+        }
+      };
 
   /*
    * Executors are loaded upon dataflow validation/compilation before registering the observations,
-   * which triggers their usage. The cache loads actuator definitions from the knowledge graph on
-   * demand and recompiles the executors if they are missing.
+   * which triggers their usage. When evicted or missing (e.g. after a restart), the cache loads the
+   * actuator linked to the observation in the knowledge graph and recompiles the executor from its
+   * serialized calls.
    */
-  private LoadingCache<Long, TriFunction<Geometry, Scheduler.Event, ContextScope, Boolean>>
-      executors =
-          CacheBuilder.newBuilder()
-              .maximumSize(200)
-              // .expireAfterAccess(10, TimeUnit.MINUTES)
-              .build(
-                  new CacheLoader<
-                      Long, TriFunction<Geometry, Scheduler.Event, ContextScope, Boolean>>() {
-                    public TriFunction<Geometry, Scheduler.Event, ContextScope, Boolean> load(
-                        Long key) {
-                      // TODO reconstruct the executor from actuator in the knowledge graph.
-                      return (g, e, s) -> true;
-                    }
-                  });
+  private final LoadingCache<Long, DigitalTwin.Executor> executors =
+      CacheBuilder.newBuilder()
+          .maximumWeight(EXECUTOR_CACHE_MAX_WEIGHT)
+          .weigher((Long id, DigitalTwin.Executor executor) -> weigh(executor))
+          .build(
+              new CacheLoader<>() {
+                public DigitalTwin.Executor load(Long key) {
+                  return reconstructExecutor(key);
+                }
+              });
+
+  private final RuntimeService runtimeService;
 
   public SchedulerImpl(ServiceContextScope scope, DigitalTwinImpl digitalTwin) {
     this.rootScope = scope;
-    this.knowledgeGraph = digitalTwin.getKnowledgeGraph();
+    this.knowledgeGraph = (KnowledgeGraphNeo4j) digitalTwin.getKnowledgeGraph();
+    this.runtimeService =
+        digitalTwin.getRuntimeService() instanceof RuntimeService service ? service : null;
     this.timeEmitter = new TimeEmitter(this);
     initializeScheduler();
   }
@@ -88,7 +117,7 @@ public class SchedulerImpl implements Scheduler {
   private void initializeScheduler() {
     // The INIT event is created before anything happens and applies to every new observation
     // registered.
-    post(this.initializationEvent = new EventImpl(), rootScope);
+    post(this.initializationEvent = EventImpl.initialization(), rootScope);
     // TODO read the existing context state from the knowledge graph and rebuild all relevant past
     //  events
   }
@@ -116,19 +145,77 @@ public class SchedulerImpl implements Scheduler {
     } else if (observation.getObservable().is(SemanticType.PROCESS)) {
       // PROCESS! Time events will affect it
     }
-    processor
-        .asFlux()
-        .filterWhen(event -> Mono.just(checkApplies(registration, event)))
-        .subscribe(e -> handleEvent(registration, e));
+    dispatcher.register(registration);
   }
 
   @Override
   public void registerExecutor(
       Observation observation,
       TriFunction<Geometry, Scheduler.Event, ContextScope, Boolean> executor) {
+    registerExecutor(
+        observation,
+        new DigitalTwin.Executor() {
+          @Override
+          public List<ServiceCall> serialized() {
+            return List.of();
+          }
+
+          @Override
+          public boolean run(Geometry geometry, Event event, ContextScope scope) {
+            return executor.apply(geometry, event, scope);
+          }
+        });
+  }
+
+  /**
+   * Register a compiled executor. If evicted, it will be rebuilt from the actuator recorded in the
+   * knowledge graph when next needed.
+   *
+   * @param observation
+   * @param executor
+   */
+  public void registerExecutor(Observation observation, DigitalTwin.Executor executor) {
     executors.put(observation.getId(), executor);
   }
 
+  private DigitalTwin.Executor reconstructExecutor(long observationId) {
+
+    var observation = rootScope.getObservation(observationId);
+    if (observation == null || runtimeService == null) {
+      return NO_EXECUTOR;
+    }
+
+    var actuator =
+        knowledgeGraph
+            .query(Actuator.class, rootScope)
+            .source(observation)
+            .along(GraphModel.Relationship.CONTEXTUALIZED_BY)
+            .peek(rootScope);
+
+    if (actuator.isEmpty() || actuator.get().getComputation().isEmpty()) {
+      return NO_EXECUTOR;
+    }
+
+    var ret =
+        CompiledDataflow.reconstructExecutor(
+            runtimeService, observation, actuator.get(), rootScope);
+    if (ret == null) {
+      Logging.INSTANCE.warn(
+          "Scheduler: cannot rebuild the executor for " + observation + " from its actuator");
+      return NO_EXECUTOR;
+    }
+
+    return ret;
+  }
+
+  private static int weigh(DigitalTwin.Executor executor) {
+    long ret = EXECUTOR_BASE_WEIGHT;
+    for (var call : executor.serialized()) {
+      ret += CONTEXTUALIZER_WEIGHT + 2L * call.toString().length();
+    }
+    return (int) Math.min(ret, Integer.MAX_VALUE);
+  }
+
   private Triple<Long, Long, Time.Resolution> register(Geometry geometry) {
     // TODO record frequency @ starting point and determine which events to send
     Time time = GeometryRepository.INSTANCE.scale(geometry).getTime();
@@ -175,6 +262,11 @@ public class SchedulerImpl implements Scheduler {
    * Returns true if anything was done. By returning false we don't add activities when they don't
    * do any operations.
    *
+   * <p>The whole dependency graph of the observation is retrieved with one query and arranged in
+   * levels, each level containing the observations whose dependencies are all in previous levels.
+   * The observations in each level are computed in parallel on the runtime's shared {@link
+   * Utils.Java#COMPUTE_POOL}, the observation itself last.
+   *
    * @param observation
    * @param geometry
    * @param scope
@@ -189,89 +281,203 @@ public class SchedulerImpl implements Scheduler {
       EventImpl causingEvent,
       DigitalTwin.Transaction transaction) {
 
-    var knowledgeGraph = scope.getDigitalTwin().getKnowledgeGraph();
+    for (var level : schedule(observation, causingEvent, scope)) {
 
-    // follow the dependency chain first, then execute self
-    Map<Integer, List<Callable<Boolean>>> tasks = new HashMap<>();
-    for (var affecting :
-        knowledgeGraph
-            .query(Observation.class, scope)
-            .target(observation)
-            .along(GraphModel.Relationship.AFFECTS)
-            .run(scope)) {
+      for (var affecting : level) {
+        transaction.link(
+            transaction.getActivity(), affecting, GraphModel.Relationship.CONTEXTUALIZED);
+      }
 
-      if (checkEvent(affecting, causingEvent)) {
-        continue;
+      List<Callable<Boolean>> tasks =
+          level.stream()
+              .map(
+                  affecting ->
+                      (Callable<Boolean>)
+                          () ->
+                              executeIfNeeded(
+                                  affecting, geometry, causingEvent, scope, transaction))
+              .toList();
+
+      try {
+        // no point handing off a single task
+        var failed =
+            tasks.size() == 1
+                ? !runQuietly(tasks.getFirst(), scope)
+                : Utils.Java.COMPUTE_POOL.invokeAll(tasks).stream()
+                    .anyMatch(future -> future.state() == Future.State.FAILED);
+        if (failed) {
+          // TODO collect the exceptions and pass them along
+          return false;
+        }
+      } catch (Throwable t) {
+        scope.error(t);
+        return false;
       }
+    }
 
-      var relationship =
-          knowledgeGraph
-              .query(KnowledgeGraph.Link.class, scope)
-              .between(affecting, observation, GraphModel.Relationship.AFFECTS)
-              .peek(scope);
+    /*
+     * The actual execution for self
+     */
+    return executeIfNeeded(observation, geometry, causingEvent, scope, transaction);
+  }
 
-      transaction.link(
-          transaction.getActivity(), affecting, GraphModel.Relationship.CONTEXTUALIZED);
+  private boolean runQuietly(Callable<Boolean> task, Scope scope) {
+    try {
+      task.call();
+      return true;
+    } catch (Throwable t) {
+      scope.error(t);
+      return false;
+    }
+  }
 
-      var sequence = 0;
-      if (relationship.isPresent()) { // it must be
-        sequence =
-            relationship.get().properties().get(/* TODO use formal property */ "sequence", 0);
-      }
+  private boolean executeIfNeeded(
+      Observation observation,
+      Geometry geometry,
+      EventImpl causingEvent,
+      ServiceContextScope scope,
+      DigitalTwin.Transaction transaction) {
+    var executor = executors.getUnchecked(observation.getId());
+    if (executor != NO_EXECUTOR) {
+      return execute(executor, observation, geometry, causingEvent, scope, transaction);
+    }
+    return true;
+  }
+
+  /**
+   * Arrange the observations that the passed one depends on, and that are not up to date with
+   * respect to the event, in levels that can be computed in sequence, each level in parallel.
+   * Dependencies of an observation are also ordered by the sequence number of their link, so that
+   * those with a higher number are only computed after those with a lower number.
+   *
+   * @param observation
+   * @param event
+   * @param scope
+   * @return the levels in order of computation, not including the observation itself
+   */
+  private List<List<Observation>> schedule(
+      Observation observation, EventImpl event, ServiceContextScope scope) {
+    return schedule(
+        observation,
+        knowledgeGraph.getDependencies(observation, scope),
+        source -> checkEvent(source, event));
+  }
 
-      tasks
-          .computeIfAbsent(sequence, n -> new ArrayList<>())
-          .add(() -> contextualize(affecting, geometry, scope, causingEvent, transaction));
+  /**
+   * Arrange the passed dependencies of an observation in levels, as in {@link #schedule(Observation,
+   * EventImpl, ServiceContextScope)}.
+   *
+   * @param observation
+   * @param dependencies all the links that the observation depends on, directly or indirectly
+   * @param upToDate true for the observations that need no computation, which are not followed
+   * @return the levels in order of computation, not including the observation itself
+   */
+  public static List<List<Observation>> schedule(
+      Observation observation,
+      List<KnowledgeGraphNeo4j.Dependency> dependencies,
+      Predicate<Observation> upToDate) {
+
+    if (dependencies.isEmpty()) {
+      return List.of();
     }
 
-    var sortedTasks =
-        tasks.entrySet().stream()
-            .sorted(Comparator.comparing(Map.Entry::getKey))
-            .map(Map.Entry::getValue)
-            .toList();
+    Map<Long, List<KnowledgeGraphNeo4j.Dependency>> byTarget = new HashMap<>();
+    for (var dependency : dependencies) {
+      byTarget.computeIfAbsent(dependency.targetId(), id -> new ArrayList<>()).add(dependency);
+    }
 
-    for (var group : sortedTasks) {
-      if (!group.isEmpty())
-        try (var executorService = Executors.newVirtualThreadPerTaskExecutor()) {
-          var ret = executorService.invokeAll(group);
-          if (ret.stream().anyMatch(objectFuture -> objectFuture.state() == Future.State.FAILED)) {
-            // TODO collect the exceptions and pass them along
-            return false;
+    /*
+     * Collect the observations to compute, starting from the target and not following past those
+     * that are up to date, and record which must precede which.
+     */
+    Map<Long, Observation> nodes = new LinkedHashMap<>();
+    Map<Long, Set<Long>> affecting = new HashMap<>();
+    Map<Long, Set<Long>> sequenced = new HashMap<>();
+    Deque<Long> queue = new ArrayDeque<>(List.of(observation.getId()));
+    Set<Long> visited = new HashSet<>(queue);
+    while (!queue.isEmpty()) {
+      var target = queue.removeFirst();
+      var links =
+          byTarget.getOrDefault(target, List.of()).stream()
+              .filter(link -> !upToDate.test(link.source()))
+              .sorted(Comparator.comparingInt(KnowledgeGraphNeo4j.Dependency::sequence))
+              .toList();
+      for (var link : links) {
+        var sourceId = link.source().getId();
+        affecting.computeIfAbsent(target, id -> new HashSet<>()).add(sourceId);
+        for (var previous : links) {
+          if (previous.sequence() < link.sequence()) {
+            sequenced
+                .computeIfAbsent(sourceId, id -> new HashSet<>())
+                .add(previous.source().getId());
           }
-          // check if anything has returned false
-          if (ret.stream()
-              .anyMatch(
-                  future -> {
-                    try {
-                      return !future.get();
-                    } catch (Exception e) {
-                      return false;
-                    }
-                  })) {}
-        } catch (Throwable t) {
-          scope.error(t);
-          return false;
         }
+        if (visited.add(sourceId)) {
+          nodes.put(sourceId, link.source());
+          queue.addLast(sourceId);
+        }
+      }
     }
 
-    /*
-     * The actual execution for self
-     */
-    var executor = executors.getIfPresent(observation.getId());
-    if (executor != null) {
-      return execute(executor, observation, geometry, causingEvent, scope, transaction);
+    var ret = levels(nodes, affecting, sequenced);
+    if (ret == null) {
+      // sequence numbers from different dependents contradict each other: only follow the links
+      ret = levels(nodes, affecting, Map.of());
     }
-    return true;
+    if (ret == null) {
+      throw new KlabInternalErrorException(
+          "Scheduler: circular dependencies in the contextualization of " + observation);
+    }
+    return ret;
+  }
+
+  /**
+   * Topological sort in levels. Returns null if the precedence relationships contain a cycle.
+   *
+   * @param nodes
+   * @param affecting maps each node to the nodes that affect it
+   * @param sequenced maps each node to the nodes that must be computed before it because of the
+   *     sequence of the links
+   * @return
+   */
+  private static List<List<Observation>> levels(
+      Map<Long, Observation> nodes,
+      Map<Long, Set<Long>> affecting,
+      Map<Long, Set<Long>> sequenced) {
+
+    Map<Long, Set<Long>> before = new HashMap<>();
+    for (var id : nodes.keySet()) {
+      var set = new HashSet<Long>(affecting.getOrDefault(id, Set.of()));
+      set.addAll(sequenced.getOrDefault(id, Set.of()));
+      before.put(id, set);
+    }
+
+    List<List<Observation>> ret = new ArrayList<>();
+    Set<Long> done = new HashSet<>();
+    while (done.size() < nodes.size()) {
+      List<Observation> level = new ArrayList<>();
+      for (var node : nodes.entrySet()) {
+        if (!done.contains(node.getKey()) && done.containsAll(before.get(node.getKey()))) {
+          level.add(node.getValue());
+        }
+      }
+      if (level.isEmpty()) {
+        return null;
+      }
+      level.forEach(o -> done.add(o.getId()));
+      ret.add(level);
+    }
+    return ret;
   }
 
   private boolean execute(
-      TriFunction<Geometry, Scheduler.Event, ContextScope, Boolean> executor,
+      DigitalTwin.Executor executor,
       Observation observation,
       Geometry geometry,
       Scheduler.Event event,
       ServiceContextScope scope,
       DigitalTwin.Transaction transaction) {
-    if (executor.apply(geometry, event, scope)) {
+    if (executor.run(geometry, event, scope)) {
       if (observation.getObservable().is(SemanticType.QUALITY)) {
         var storage = scope.getDigitalTwin().getStorageManager().getStorage(observation);
         if (storage != null) {
@@ -404,6 +610,11 @@ public class SchedulerImpl implements Scheduler {
       event = null;
     }
 
+    /** The initialization event, which applies to every observation. */
+    public static EventImpl initialization() {
+      return new EventImpl();
+    }
+
     public EventImpl(long start, long end, Time.Resolution resolution) {
       type = Type.TEMPORAL_TRANSITION;
       this.start = start;
@@ -452,22 +663,11 @@ public class SchedulerImpl implements Scheduler {
   }
 
   private void post(EventImpl event, Scope scope) {
-    processor.emitNext(
-        event,
-        new Sinks.EmitFailureHandler() {
-          @Override
-          public boolean onEmitFailure(SignalType signalType, Sinks.EmitResult emitResult) {
-            scope.error(
-                "Scheduler: internal: failed to emit event " + event + ": result is " + emitResult);
-            return false;
-          }
-        });
-  }
-
-  private Boolean checkApplies(Registration observation, EventImpl event) {
-    // TODO filter INITIALIZATION for substantials and their qualities
-    // TODO check observed event based on 'affects' semantics
-    return true;
+    try {
+      dispatcher.post(event);
+    } catch (Throwable t) {
+      scope.error("Scheduler: internal: failed to dispatch event " + event, t);
+    }
   }
 
   /**
@@ -113,6 +113,13 @@ public abstract class AbstractKnowledgeGraph implements KnowledgeGraph {
                   .map(call -> call.encode(Language.DEFAULT_EXPRESSION_LANGUAGE))
                   .toList());
           ret.put("strategy", actuator.getStrategyUrn());
+          ret.put("name", actuator.getName());
+          // the JSON form of the calls is what the scheduler uses to rebuild the executor
+          ret.put(
+              "serializedComputation",
+              actuator.getComputation().stream()
+                  .map(call -> org.integratedmodelling.common.utils.Utils.Json.asString(call))
+                  .toList());
         }
         case Activity activity -> {
           ret.putAll(activity.getMetadata());
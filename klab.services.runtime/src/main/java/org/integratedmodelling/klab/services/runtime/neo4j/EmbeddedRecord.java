@@ -0,0 +1,175 @@
+package org.integratedmodelling.klab.services.runtime.neo4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.types.Entity;
+import org.neo4j.driver.types.Node;
+import org.neo4j.driver.types.Path;
+import org.neo4j.driver.types.Relationship;
+import org.neo4j.driver.util.Pair;
+
+/**
+ * A row of an {@link EmbeddedResult}, with the values already converted to driver values. Missing
+ * keys read as {@link Values#NULL} like in the driver's own records, and the accessors with a
+ * default value return it when the value is missing or null.
+ */
+record EmbeddedRecord(List<String> keys, List<Value> values) implements Record {
+
+  private record Field(String key, Value value) implements Pair<String, Value> {}
+
+  @Override
+  public boolean containsKey(String key) {
+    return keys.contains(key);
+  }
+
+  @Override
+  public int index(String key) {
+    int ret = keys.indexOf(key);
+    if (ret < 0) {
+      throw new NoSuchElementException("unknown key " + key + " in embedded query record");
+    }
+    return ret;
+  }
+
+  @Override
+  public Value get(int index) {
+    return values.get(index);
+  }
+
+  @Override
+  public Value get(String key) {
+    int index = keys.indexOf(key);
+    return index < 0 ? Values.NULL : values.get(index);
+  }
+
+  @Override
+  public int size() {
+    return values.size();
+  }
+
+  @Override
+  public <T> List<T> values(Function<Value, T> mapFunction) {
+    return values.stream().map(mapFunction).toList();
+  }
+
+  @Override
+  public List<Pair<String, Value>> fields() {
+    var ret = new ArrayList<Pair<String, Value>>();
+    for (int i = 0; i < keys.size(); i++) {
+      ret.add(new Field(keys.get(i), values.get(i)));
+    }
+    return ret;
+  }
+
+  @Override
+  public Map<String, Object> asMap() {
+    return asMap(Value::asObject);
+  }
+
+  @Override
+  public <T> Map<String, T> asMap(Function<Value, T> mapFunction) {
+    var ret = new LinkedHashMap<String, T>();
+    for (int i = 0; i < keys.size(); i++) {
+      ret.put(keys.get(i), mapFunction.apply(values.get(i)));
+    }
+    return ret;
+  }
+
+  private <T> T getOrDefault(String key, T defaultValue, Function<Value, T> extractor) {
+    var value = get(key);
+    return value.isNull() ? defaultValue : extractor.apply(value);
+  }
+
+  @Override
+  public Value get(String key, Value defaultValue) {
+    return getOrDefault(key, defaultValue, Function.identity());
+  }
+
+  @Override
+  public Object get(String key, Object defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asObject);
+  }
+
+  @Override
+  public Number get(String key, Number defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asNumber);
+  }
+
+  @Override
+  public Entity get(String key, Entity defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asEntity);
+  }
+
+  @Override
+  public Node get(String key, Node defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asNode);
+  }
+
+  @Override
+  public Path get(String key, Path defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asPath);
+  }
+
+  @Override
+  public Relationship get(String key, Relationship defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asRelationship);
+  }
+
+  @Override
+  public List<Object> get(String key, List<Object> defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asList);
+  }
+
+  @Override
+  public <T> List<T> get(String key, List<T> defaultValue, Function<Value, T> mapFunc) {
+    return getOrDefault(key, defaultValue, value -> value.asList(mapFunc));
+  }
+
+  @Override
+  public Map<String, Object> get(String key, Map<String, Object> defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asMap);
+  }
+
+  @Override
+  public <T> Map<String, T> get(
+      String key, Map<String, T> defaultValue, Function<Value, T> mapFunc) {
+    return getOrDefault(key, defaultValue, value -> value.asMap(mapFunc));
+  }
+
+  @Override
+  public int get(String key, int defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asInt);
+  }
+
+  @Override
+  public long get(String key, long defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asLong);
+  }
+
+  @Override
+  public boolean get(String key, boolean defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asBoolean);
+  }
+
+  @Override
+  public String get(String key, String defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asString);
+  }
+
+  @Override
+  public float get(String key, float defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asFloat);
+  }
+
+  @Override
+  public double get(String key, double defaultValue) {
+    return getOrDefault(key, defaultValue, Value::asDouble);
+  }
+}
@@ -0,0 +1,229 @@
+package org.integratedmodelling.klab.services.runtime.neo4j;
+
+import java.time.Duration;
+import java.time.Period;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.Temporal;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.integratedmodelling.klab.api.exceptions.KlabUnimplementedException;
+import org.neo4j.driver.EagerResult;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.summary.DatabaseInfo;
+import org.neo4j.driver.summary.GqlStatusObject;
+import org.neo4j.driver.summary.Notification;
+import org.neo4j.driver.summary.Plan;
+import org.neo4j.driver.summary.ProfiledPlan;
+import org.neo4j.driver.summary.QueryType;
+import org.neo4j.driver.summary.ResultSummary;
+import org.neo4j.driver.summary.ServerInfo;
+import org.neo4j.driver.summary.SummaryCounters;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.QueryStatistics;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.spatial.Point;
+
+/**
+ * A fully materialized result of a query run directly on the embedded database, exposed through the
+ * same {@link EagerResult} API returned by the driver so that the adaptation code in {@link
+ * KnowledgeGraphNeo4j} works unchanged. Nodes and relationships are converted to maps of their
+ * properties and paths to the list of those of their nodes and relationships in order; points,
+ * temporal values and durations become the corresponding driver values. The summary only has the
+ * query text, the query type and the update counters.
+ */
+record EmbeddedResult(List<String> keys, List<Record> records, ResultSummary summary)
+    implements EagerResult {
+
+  /**
+   * Consume the passed result, which must happen within the transaction that produced it.
+   *
+   * @param query
+   * @param result
+   * @return
+   */
+  static EmbeddedResult of(String query, Result result) {
+    var keys = result.columns();
+    List<Record> records = new ArrayList<>();
+    while (result.hasNext()) {
+      var row = result.next();
+      var values = new Value[keys.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Values.value(convert(row.get(keys.get(i))));
+      }
+      records.add(new EmbeddedRecord(keys, List.of(values)));
+    }
+    return new EmbeddedResult(
+        keys,
+        records,
+        new Summary(
+            new Query(query),
+            queryType(result.getQueryExecutionType().queryType()),
+            Counters.of(result.getQueryStatistics())));
+  }
+
+  private static QueryType queryType(org.neo4j.graphdb.QueryExecutionType.QueryType type) {
+    return switch (type) {
+      case READ_WRITE -> QueryType.READ_WRITE;
+      case WRITE -> QueryType.WRITE_ONLY;
+      case SCHEMA_WRITE -> QueryType.SCHEMA_WRITE;
+      default -> QueryType.READ_ONLY;
+    };
+  }
+
+  private static Object convert(Object value) {
+    return switch (value) {
+      case Entity entity -> entity.getAllProperties();
+      case Path path -> {
+        var ret = new ArrayList<Object>();
+        for (var entity : path) {
+          ret.add(entity.getAllProperties());
+        }
+        yield ret;
+      }
+      case Point point -> {
+        var coordinates = point.getCoordinate().getCoordinate();
+        int srid = point.getCRS().getCode();
+        yield coordinates.length > 2
+            ? Values.point(srid, coordinates[0], coordinates[1], coordinates[2])
+            : Values.point(srid, coordinates[0], coordinates[1]);
+      }
+      case Temporal temporal -> temporal;
+      case Period period -> period;
+      case Duration duration -> duration;
+      case TemporalAmount amount -> isoDuration(amount);
+      case Map<?, ?> map -> {
+        var ret = new LinkedHashMap<String, Object>();
+        for (var entry : map.entrySet()) {
+          ret.put(entry.getKey().toString(), convert(entry.getValue()));
+        }
+        yield ret;
+      }
+      case List<?> list -> list.stream().map(EmbeddedResult::convert).toList();
+      case null, default -> value;
+    };
+  }
+
+  // Cypher durations have months, days, seconds and nanoseconds, which the embedded values expose
+  private static Object isoDuration(TemporalAmount amount) {
+    long months = 0, days = 0, seconds = 0, nanoseconds = 0;
+    for (var unit : amount.getUnits()) {
+      long value = amount.get(unit);
+      if (unit == ChronoUnit.MONTHS) {
+        months += value;
+      } else if (unit == ChronoUnit.DAYS) {
+        days += value;
+      } else if (unit == ChronoUnit.SECONDS) {
+        seconds += value;
+      } else if (unit == ChronoUnit.NANOS) {
+        nanoseconds += value;
+      } else {
+        throw new KlabUnimplementedException(
+            "cannot convert duration unit " + unit + " from embedded query results");
+      }
+    }
+    return Values.isoDuration(months, days, seconds, (int) nanoseconds);
+  }
+
+  /*
+   * Server, database, plans, notifications and timings have no counterpart in the embedded
+   * database and are reported as absent.
+   */
+  private record Summary(Query query, QueryType queryType, SummaryCounters counters)
+      implements ResultSummary {
+
+    @Override
+    public ServerInfo server() {
+      return null;
+    }
+
+    @Override
+    public DatabaseInfo database() {
+      return null;
+    }
+
+    @Override
+    public boolean hasPlan() {
+      return false;
+    }
+
+    @Override
+    public boolean hasProfile() {
+      return false;
+    }
+
+    @Override
+    public Plan plan() {
+      return null;
+    }
+
+    @Override
+    public ProfiledPlan profile() {
+      return null;
+    }
+
+    @Override
+    public List<Notification> notifications() {
+      return List.of();
+    }
+
+    @Override
+    public Set<GqlStatusObject> gqlStatusObjects() {
+      return Set.of();
+    }
+
+    @Override
+    public long resultAvailableAfter(TimeUnit unit) {
+      return -1;
+    }
+
+    @Override
+    public long resultConsumedAfter(TimeUnit unit) {
+      return -1;
+    }
+  }
+
+  private record Counters(
+      boolean containsUpdates,
+      int nodesCreated,
+      int nodesDeleted,
+      int relationshipsCreated,
+      int relationshipsDeleted,
+      int propertiesSet,
+      int labelsAdded,
+      int labelsRemoved,
+      int indexesAdded,
+      int indexesRemoved,
+      int constraintsAdded,
+      int constraintsRemoved,
+      boolean containsSystemUpdates,
+      int systemUpdates)
+      implements SummaryCounters {
+
+    static Counters of(QueryStatistics statistics) {
+      return new Counters(
+          statistics.containsUpdates(),
+          statistics.getNodesCreated(),
+          statistics.getNodesDeleted(),
+          statistics.getRelationshipsCreated(),
+          statistics.getRelationshipsDeleted(),
+          statistics.getPropertiesSet(),
+          statistics.getLabelsAdded(),
+          statistics.getLabelsRemoved(),
+          statistics.getIndexesAdded(),
+          statistics.getIndexesRemoved(),
+          statistics.getConstraintsAdded(),
+          statistics.getConstraintsRemoved(),
+          statistics.containsSystemUpdates(),
+          statistics.getSystemUpdates());
+    }
+  }
+}
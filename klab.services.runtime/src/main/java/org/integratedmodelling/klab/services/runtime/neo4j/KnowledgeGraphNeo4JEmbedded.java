@@ -4,18 +4,22 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import org.integratedmodelling.common.logging.Logging;
 import org.integratedmodelling.klab.api.data.KnowledgeGraph;
 import org.integratedmodelling.klab.api.data.RuntimeAsset;
 import org.integratedmodelling.klab.api.digitaltwin.DigitalTwin;
 import org.integratedmodelling.klab.api.exceptions.KlabIllegalStateException;
+import org.integratedmodelling.klab.api.collections.Pair;
 import org.integratedmodelling.klab.api.scope.ContextScope;
+import org.integratedmodelling.klab.api.scope.Scope;
 import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.configuration.connectors.BoltConnector;
 import org.neo4j.configuration.connectors.HttpConnector;
+import org.neo4j.configuration.helpers.SocketAddress;
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
-import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.EagerResult;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.io.ByteUnit;
 
@@ -36,39 +40,55 @@ public class KnowledgeGraphNeo4JEmbedded extends KnowledgeGraphNeo4j implements
     this.graphDb = parent.graphDb;
     this.online = parent.online;
     this.scope = scope;
-    this.driver = parent.driver;
+    this.keyAllocator = parent.keyAllocator;
+    this.geometryNodes = parent.geometryNodes;
   }
 
   /**
    * @param directory
    */
   public KnowledgeGraphNeo4JEmbedded(Path directory) {
+    this(directory, 0);
+  }
+
+  /**
+   * Queries run directly on the in-process database. The Bolt and HTTP connectors are only enabled
+   * for debugging access from outside the application, when a port is passed.
+   *
+   * @param directory
+   * @param debugPort the Bolt port for external access, or 0 to keep the database private
+   */
+  public KnowledgeGraphNeo4JEmbedded(Path directory, int debugPort) {
 
     /*
      * TODO tie the performance parameters to runtime configuration
      */
     try {
-      this.managementService =
+      var builder =
           new DatabaseManagementServiceBuilder(directory)
               .setConfig(GraphDatabaseSettings.initial_default_database, DEFAULT_DATABASE_NAME)
               .setConfig(GraphDatabaseSettings.pagecache_memory, ByteUnit.mebiBytes(512))
               .setConfig(GraphDatabaseSettings.transaction_timeout, Duration.ofSeconds(60))
               .setConfig(GraphDatabaseSettings.preallocate_logical_logs, true)
-              .setConfig(BoltConnector.enabled, true) // for the driver
-              .setConfig(HttpConnector.enabled, true) // for debugging (?)
-              .build();
+              .setConfig(BoltConnector.enabled, debugPort > 0)
+              .setConfig(HttpConnector.enabled, debugPort > 0);
 
-      this.graphDb = managementService.database(DEFAULT_DATABASE_NAME);
+      if (debugPort > 0) {
+        builder.setConfig(BoltConnector.listen_address, new SocketAddress("localhost", debugPort));
+      }
 
-      // TODO this could just reimplement query() to use the DB directly and not expose the
-      //  connectors, losing debugging access outside the application
-      this.driver = GraphDatabase.driver("bolt://localhost:7687");
+      this.managementService = builder.build();
+      this.graphDb = managementService.database(DEFAULT_DATABASE_NAME);
 
-      this.driver.verifyConnectivity();
+      if (!this.graphDb.isAvailable()) {
+        throw new KlabIllegalStateException("Embedded Neo4J database is not available");
+      }
 
       configureDatabase();
 
-      Logging.INSTANCE.info("Embedded Neo4J database initialized");
+      Logging.INSTANCE.info(
+          "Embedded Neo4J database initialized"
+              + (debugPort > 0 ? " with debug connector on port " + debugPort : ""));
 
       Runtime.getRuntime()
           .addShutdownHook(
@@ -85,20 +105,37 @@ public class KnowledgeGraphNeo4JEmbedded extends KnowledgeGraphNeo4j implements
     }
   }
 
-  private void configureDatabase() {
+  @Override
+  protected EagerResult query(String query, Map<String, Object> parameters, Scope scope) {
+    if (isOnline()) {
+      try {
+        return graphDb.executeTransactionally(
+            query,
+            parameters == null ? Map.of() : parameters,
+            result -> EmbeddedResult.of(query, result));
+      } catch (Throwable t) {
+        if (scope != null) {
+          scope.error(t.getMessage(), t);
+        } else {
+          Logging.INSTANCE.error(t);
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  protected void executeTransaction(List<Pair<String, Map<String, Object>>> statements) {
+    try (var transaction = graphDb.beginTx()) {
+      for (var statement : statements) {
+        transaction.execute(statement.getFirst(), statement.getSecond()).close();
+      }
+      transaction.commit();
+    }
+  }
 
-    // TODO all the needed indices
-
-    //        IndexDefinition usernamesIndex;
-    //        try ( Transaction tx = graphDb.beginTx() )
-    //        {
-    //            Schema schema = tx.schema();
-    //            usernamesIndex = schema.indexFor(Label.label( "User" ) )
-    //                                   .on( "username" )
-    //                                   .withName( "usernames" )
-    //                                   .create();
-    //            tx.commit();
-    //        }
+  private void configureDatabase() {
+    initializeSchema();
   }
 
   @Override
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -13,6 +14,7 @@ import org.integratedmodelling.common.runtime.ActuatorImpl;
 import org.integratedmodelling.common.services.client.runtime.KnowledgeGraphQuery;
 import org.integratedmodelling.klab.api.Klab;
 import org.integratedmodelling.klab.api.ServicesAPI;
+import org.integratedmodelling.klab.api.collections.Pair;
 import org.integratedmodelling.klab.api.collections.Parameters;
 import org.integratedmodelling.klab.api.data.RuntimeAsset;
 import org.integratedmodelling.klab.api.data.Storage;
@@ -26,6 +28,7 @@ import org.integratedmodelling.klab.api.geometry.Geometry;
 import org.integratedmodelling.klab.api.knowledge.Observable;
 import org.integratedmodelling.klab.api.knowledge.observation.Observation;
 import org.integratedmodelling.klab.api.knowledge.observation.impl.ObservationImpl;
+import org.integratedmodelling.klab.api.lang.ServiceCall;
 import org.integratedmodelling.klab.api.provenance.Activity;
 import org.integratedmodelling.klab.api.provenance.Agent;
 import org.integratedmodelling.klab.api.provenance.Plan;
@@ -43,11 +46,10 @@ import org.integratedmodelling.klab.api.services.runtime.objects.SessionInfo;
 import org.integratedmodelling.klab.api.utils.Utils;
 import org.integratedmodelling.klab.runtime.scale.space.ShapeImpl;
 import org.integratedmodelling.klab.runtime.storage.BufferImpl;
+import org.integratedmodelling.klab.utilities.BlockIdAllocator;
 import org.neo4j.cypherdsl.core.*;
 import org.neo4j.driver.*;
 
-import javax.annotation.Nullable;
-
 /**
  * TODO check spatial queries:
  * https://www.lyonwj.com/blog/neo4j-spatial-procedures-congressional-boundaries and
@@ -59,6 +61,12 @@ import javax.annotation.Nullable;
 public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
 
   protected Driver driver;
+  // shared among all the contextualized graphs from the same database
+  protected BlockIdAllocator keyAllocator =
+      new BlockIdAllocator(BlockIdAllocator.DEFAULT_BLOCK_SIZE, this::reserveKeys);
+  // geometry hash -> element ID of the Geometry node, shared like the key allocator
+  protected Cache<String, String> geometryNodes =
+      CacheBuilder.newBuilder().maximumSize(10000).build();
   protected Agent user;
   protected Agent klab;
   protected String rootContextId;
@@ -115,6 +123,47 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
         };
   }
 
+  /**
+   * Versioned schema of the graph. Each entry in {@link #MIGRATIONS} brings the schema from the
+   * version corresponding to its index to the next, so that an existing database is upgraded by
+   * running only the statements it hasn't seen. The current version is recorded in the Schema node.
+   * Never modify existing entries: add a new one and increment {@link #VERSION}.
+   */
+  interface Schema {
+
+    int VERSION = 3;
+
+    String[][] MIGRATIONS =
+        new String[][] {
+          // version 1: unique IDs for all the assets, indices on the other lookup fields. Geometry
+          // definitions are too large for a range index so lookups go through the size first.
+          {
+            "CREATE CONSTRAINT context_id IF NOT EXISTS FOR (n:Context) REQUIRE n.id IS UNIQUE",
+            "CREATE CONSTRAINT provenance_id IF NOT EXISTS FOR (n:Provenance) REQUIRE n.id IS UNIQUE",
+            "CREATE CONSTRAINT dataflow_id IF NOT EXISTS FOR (n:Dataflow) REQUIRE n.id IS UNIQUE",
+            "CREATE CONSTRAINT activity_id IF NOT EXISTS FOR (n:Activity) REQUIRE n.id IS UNIQUE",
+            "CREATE CONSTRAINT observation_id IF NOT EXISTS FOR (n:Observation) REQUIRE n.id IS"
+                + " UNIQUE",
+            "CREATE CONSTRAINT actuator_id IF NOT EXISTS FOR (n:Actuator) REQUIRE n.id IS UNIQUE",
+            "CREATE CONSTRAINT data_id IF NOT EXISTS FOR (n:Data) REQUIRE n.id IS UNIQUE",
+            "CREATE INDEX observation_urn IF NOT EXISTS FOR (n:Observation) ON (n.urn)",
+            "CREATE INDEX activity_urn IF NOT EXISTS FOR (n:Activity) ON (n.urn)",
+            "CREATE INDEX context_user IF NOT EXISTS FOR (n:Context) ON (n.user)",
+            "CREATE INDEX agent_name IF NOT EXISTS FOR (n:Agent) ON (n.name)",
+            "CREATE INDEX geometry_size IF NOT EXISTS FOR (n:Geometry) ON (n.size)"
+          },
+          // version 2: geometries are identified by the hash of their definition. The data
+          // migration merges duplicate definitions and hashes the existing geometries.
+          {},
+          // version 3: enforce the hash once all the existing geometries have a distinct one
+          {
+            "CREATE CONSTRAINT geometry_hash IF NOT EXISTS FOR (n:Geometry) REQUIRE n.hash IS"
+                + " UNIQUE",
+            "DROP INDEX geometry_size IF EXISTS"
+          }
+        };
+  }
+
   class LinkImpl implements Link {
 
     private long id = 0;
@@ -172,25 +221,78 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     }
   }
 
+  /**
+   * Batched transaction. Node and relationship creations are buffered in memory, grouped by the
+   * Cypher statement that would create them, and flushed at {@link #close()} as parameterized
+   * <code>UNWIND $rows</code> statements, so that a commit costs one round trip per statement shape
+   * rather than one per asset. IDs are assigned to the assets at the time they are stored, so links
+   * and updates between buffered assets can be resolved at flush time.
+   */
   class TransactionImpl implements Transaction {
 
-    private final org.neo4j.driver.Transaction transaction;
+    /** Max number of rows sent with a single UNWIND statement. */
+    private static final int BATCH_SIZE = 1000;
 
-    TransactionImpl() {
-      this.transaction =
-          driver
-              .session()
-              .beginTransaction(TransactionConfig.builder().withTimeout(Duration.ZERO).build());
-    }
+    // statement -> rows, one map per phase so that flushing can respect dependencies
+    private final Map<String, List<Map<String, Object>>> creations = new LinkedHashMap<>();
+    private final Map<String, List<Map<String, Object>>> updates = new LinkedHashMap<>();
+    private final Map<String, List<Map<String, Object>>> geometries = new LinkedHashMap<>();
+    private final Map<String, List<Map<String, Object>>> links = new LinkedHashMap<>();
 
     @Override
     public void store(RuntimeAsset asset, Object... additionalProperties) {
-      KnowledgeGraphNeo4j.this.store(transaction, asset, scope, additionalProperties);
+
+      var type = getLabel(asset);
+      var props = asParameters(asset, additionalProperties);
+      var id = nextKey();
+      props.put("id", id);
+      if (asset instanceof Observation || asset instanceof Activity) {
+        props.put("urn", scope.getId() + "." + id);
+      }
+
+      creations
+          .computeIfAbsent(
+              "UNWIND $rows AS row CREATE (n:{type}) SET n = row".replace("{type}", type),
+              k -> new ArrayList<>())
+          .add(props);
+
+      setId(asset, id);
+
+      var geometry =
+          switch (asset) {
+            case Observation observation -> observation.getGeometry();
+            case Actuator actuator -> actuator.getCoverage();
+            default -> null;
+          };
+
+      if (geometry != null) {
+        // the asset is new, so it cannot have a geometry yet and we can skip the check
+        geometries
+            .computeIfAbsent(
+                ("UNWIND $rows AS row MATCH (n:{assetLabel} {id: row.assetId}) MERGE (g:Geometry"
+                        + " {hash: row.hash}) ON CREATE SET g.size = row.size, g.definition ="
+                        + " row.definition, g.key = row.key CREATE (n)-[r:HAS_GEOMETRY]->(g) SET"
+                        + " r.coverage = row.coverage")
+                    .replace("{assetLabel}", type),
+                k -> new ArrayList<>())
+            .add(geometryRow(geometry, id));
+      }
+
+      if (asset instanceof Observation observation) {
+        observationCache.put(observation.getId(), observation);
+      }
     }
 
     @Override
     public void update(RuntimeAsset asset, Object... properties) {
-      KnowledgeGraphNeo4j.this.update(transaction, asset, scope, properties);
+      var props = asParameters(asset, properties);
+      props.remove("id");
+      updates
+          .computeIfAbsent(
+              "UNWIND $rows AS row MATCH (n:{type} {id: row.id}) SET n += row.properties"
+                  .replace("{type}", getLabel(asset)),
+              k -> new ArrayList<>())
+          .add(Map.of("id", asset.getId(), "properties", props));
     }
 
     @Override
@@ -199,13 +301,51 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
         RuntimeAsset destination,
         GraphModel.Relationship relationship,
         Object... additionalProperties) {
-      KnowledgeGraphNeo4j.this.link(
-          transaction, source, destination, relationship, scope, additionalProperties);
+      var query =
+          ("UNWIND $rows AS row MATCH (n:{fromLabel} {{sourceField}: row.sourceId}),"
+                  + " (c:{toLabel} {{targetField}: row.targetId}) CREATE"
+                  + " (n)-[r:{relationshipLabel}]->(c) SET r = row.properties")
+              .replace("{sourceField}", matchField(source))
+              .replace("{targetField}", matchField(destination))
+              .replace("{relationshipLabel}", relationship.name())
+              .replace("{fromLabel}", getLabel(source))
+              .replace("{toLabel}", getLabel(destination));
+      links
+          .computeIfAbsent(query, k -> new ArrayList<>())
+          .add(
+              Map.of(
+                  "sourceId",
+                  getId(source),
+                  "targetId",
+                  getId(destination),
+                  "properties",
+                  asParameters(null, additionalProperties)));
+    }
+
+    private void flush(
+        Map<String, List<Map<String, Object>>> batches,
+        List<Pair<String, Map<String, Object>>> statements) {
+      for (var batch : batches.entrySet()) {
+        var rows = batch.getValue();
+        for (int i = 0; i < rows.size(); i += BATCH_SIZE) {
+          statements.add(
+              Pair.of(
+                  batch.getKey(),
+                  Map.of("rows", rows.subList(i, Math.min(rows.size(), i + BATCH_SIZE)))));
+        }
+      }
     }
 
     @Override
     public void close() throws IOException {
-      transaction.commit();
+      List<Pair<String, Map<String, Object>>> statements = new ArrayList<>();
+      flush(creations, statements);
+      flush(updates, statements);
+      flush(geometries, statements);
+      flush(links, statements);
+      if (!statements.isEmpty()) {
+        executeTransaction(statements);
+      }
     }
   }
 
@@ -214,6 +354,24 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     return new TransactionImpl();
   }
 
+  /**
+   * Run the passed statements in order within a single database transaction and commit it. Any
+   * error is thrown to the caller after rolling back.
+   *
+   * @param statements pairs of Cypher statement and parameters
+   */
+  protected void executeTransaction(List<Pair<String, Map<String, Object>>> statements) {
+    try (var session = driver.session();
+        var transaction =
+            session.beginTransaction(
+                TransactionConfig.builder().withTimeout(Duration.ZERO).build())) {
+      for (var statement : statements) {
+        transaction.run(statement.getFirst(), statement.getSecond()).consume();
+      }
+      transaction.commit();
+    }
+  }
+
   protected synchronized EagerResult query(
       String query, Map<String, Object> parameters, Scope scope) {
     if (isOnline()) {
@@ -233,23 +391,134 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     return null;
   }
 
-  protected synchronized Result query(
-      org.neo4j.driver.Transaction transaction,
-      String query,
-      Map<String, Object> parameters,
-      Scope scope) {
-    if (isOnline()) {
-      try {
-        return transaction.run(query, parameters);
-      } catch (Throwable t) {
-        if (scope != null) {
-          scope.error(t.getMessage(), t);
-        } else {
-          Logging.INSTANCE.error(t);
+  /**
+   * Bring the schema (constraints and indices) up to {@link Schema#VERSION}, running only the
+   * migrations that the database hasn't seen yet. Call once on the main graph at startup; if a
+   * migration fails, the version is not updated and the remaining ones are skipped.
+   */
+  protected void initializeSchema() {
+
+    var result = query("MATCH (s:Schema) RETURN s.version AS version", null, null);
+    if (result == null) {
+      return;
+    }
+
+    int version =
+        result.records().isEmpty() ? 0 : result.records().getFirst().get("version").asInt();
+
+    if (version > Schema.VERSION) {
+      Logging.INSTANCE.warn(
+          "Knowledge graph schema version "
+              + version
+              + " is newer than the supported version "
+              + Schema.VERSION);
+      return;
+    }
+
+    for (int v = version; v < Schema.VERSION; v++) {
+      for (var statement : Schema.MIGRATIONS[v]) {
+        if (query(statement, null, null) == null) {
+          Logging.INSTANCE.error(
+              "Knowledge graph schema migration to version " + (v + 1) + " failed");
+          return;
         }
       }
+      if (!migrateData(v + 1)) {
+        Logging.INSTANCE.error(
+            "Knowledge graph data migration to version " + (v + 1) + " failed");
+        return;
+      }
+      if (query(
+              "MERGE (s:Schema) SET s.version = $version, s.updated = $timestamp",
+              Map.of("version", v + 1, "timestamp", System.currentTimeMillis()),
+              null)
+          == null) {
+        Logging.INSTANCE.error("Knowledge graph schema version could not be set to " + (v + 1));
+        return;
+      }
+      Logging.INSTANCE.info("Knowledge graph schema updated to version " + (v + 1));
     }
-    return null;
+  }
+
+  /**
+   * Any data transformation needed after the schema statements for the passed version have run.
+   *
+   * @param version
+   * @return false if any of the queries failed
+   */
+  private boolean migrateData(int version) {
+    switch (version) {
+      case 2 -> {
+        if (!mergeDuplicateGeometries()) {
+          return false;
+        }
+        var result =
+            query(
+                "MATCH (g:Geometry) WHERE g.hash IS NULL RETURN elementId(g) AS geometryId,"
+                    + " g.definition AS definition",
+                null,
+                null);
+        if (result == null) {
+          return false;
+        }
+        if (!result.records().isEmpty()) {
+          var rows =
+              result.records().stream()
+                  .map(
+                      record ->
+                          Map.<String, Object>of(
+                              "geometryId",
+                              record.get("geometryId").asString(),
+                              "hash",
+                              Utils.Strings.hash(record.get("definition").asString())))
+                  .toList();
+          return query(
+                  "UNWIND $rows AS row MATCH (g:Geometry) WHERE elementId(g) = row.geometryId"
+                      + " SET g.hash = row.hash",
+                  Map.of("rows", rows),
+                  null)
+              != null;
+        }
+        return true;
+      }
+      default -> {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Geometries used to be stored by a lookup followed by a creation in a separate transaction, so
+   * older databases may contain more than one node with the same definition. Keep the one with the
+   * lowest element ID for each definition, move the links of the others to it and delete them.
+   *
+   * @return false if any of the queries failed
+   */
+  private boolean mergeDuplicateGeometries() {
+    for (var relationship : List.of("HAS_GEOMETRY", "HAS_COVERAGE")) {
+      if (query(
+              ("MATCH (g:Geometry) WHERE g.definition IS NOT NULL WITH g.definition AS"
+                      + " definition, collect(g) AS geometries, min(elementId(g)) AS survivorId"
+                      + " WHERE size(geometries) > 1 MATCH (survivor:Geometry) WHERE"
+                      + " elementId(survivor) = survivorId UNWIND"
+                      + " [d IN geometries WHERE elementId(d) <> survivorId] AS duplicate MATCH"
+                      + " (n)-[r:{relationship}]->(duplicate) CREATE"
+                      + " (n)-[l:{relationship}]->(survivor) SET l = properties(r) DELETE r")
+                  .replace("{relationship}", relationship),
+              null,
+              null)
+          == null) {
+        return false;
+      }
+    }
+    return query(
+            "MATCH (g:Geometry) WHERE g.definition IS NOT NULL WITH g.definition AS definition,"
+                + " collect(g) AS geometries, min(elementId(g)) AS survivorId WHERE"
+                + " size(geometries) > 1 UNWIND [d IN geometries WHERE elementId(d) <> survivorId]"
+                + " AS duplicate DETACH DELETE duplicate",
+            null,
+            null)
+        != null;
   }
 
   /** Ensure things are OK re: main agents and the like. Must be called only once */
@@ -302,6 +571,68 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     query(Queries.REMOVE_CONTEXT, Map.of("contextId", scope.getId()), scope);
   }
 
+  /**
+   * One AFFECTS link in the dependency graph of an observation.
+   *
+   * @param source the affecting observation
+   * @param targetId the ID of the affected observation
+   * @param sequence the sequence number of the link, establishing the order of computation among
+   *     the dependencies of the same observation
+   */
+  public record Dependency(Observation source, long targetId, int sequence) {
+
+    /** The property of the AFFECTS links that holds the sequence number. */
+    public static final String SEQUENCE_PROPERTY = "sequence";
+  }
+
+  /**
+   * Retrieve, with a single query, all the AFFECTS links that the passed observation depends on
+   * directly or indirectly, including the geometry of each affecting observation.
+   *
+   * @param observation
+   * @param scope
+   * @return the links, in no particular order. Empty if the observation has no dependencies.
+   */
+  public List<Dependency> getDependencies(Observation observation, Scope scope) {
+
+    var result =
+        query(
+            ("MATCH (t:Observation {id: $id})<-[:AFFECTS*0..]-(o:Observation) WITH DISTINCT o"
+                    + " MATCH (a:Observation)-[r:AFFECTS]->(o)"
+                    + " OPTIONAL MATCH (a)-[:HAS_GEOMETRY]->(g:Geometry)"
+                    + " RETURN a AS source, o.id AS target, coalesce(r.{sequence}, 0) AS sequence,"
+                    + " g.definition AS geometry")
+                .replace("{sequence}", Dependency.SEQUENCE_PROPERTY),
+            Map.of("id", observation.getId()),
+            scope);
+
+    if (result == null) {
+      return List.of();
+    }
+
+    // the same observation appears once per link it's the source of
+    Map<Long, Observation> sources = new HashMap<>();
+    List<Dependency> ret = new ArrayList<>();
+    for (var record : result.records()) {
+      var node = record.get("source");
+      var source =
+          sources.computeIfAbsent(
+              node.get("id").asLong(),
+              id -> {
+                var instance = adaptObservation(node, scope);
+                if (!record.get("geometry").isNull()) {
+                  instance.setGeometry(
+                      GeometryRepository.INSTANCE.get(
+                          record.get("geometry").asString(), Geometry.class));
+                }
+                return instance;
+              });
+      ret.add(
+          new Dependency(source, record.get("target").asLong(), record.get("sequence").asInt()));
+    }
+    return ret;
+  }
+
   /**
    * @param query
    * @param cls
@@ -345,15 +676,7 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
 
       } else if (Observation.class.isAssignableFrom(cls)) {
 
-        var instance = new ObservationImpl();
-        var reasoner = scope.getService(Reasoner.class);
-
-        instance.setUrn(node.get("urn").asString());
-        instance.setName(node.get("name").asString());
-        instance.setObservable(reasoner.resolveObservable(node.get("observable").asString()));
-        instance.setId(node.get("id").asLong());
-        instance.setEventTimestamps(node.get("eventTimestamps").asList(value -> value.asLong()));
-        instance.setSubstantialQuality(node.get("substantial").asBoolean(false));
+        var instance = adaptObservation(node, scope);
 
         var gResult =
             query(
@@ -395,7 +718,24 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
         ret.add((T) instance);
       } else if (Actuator.class.isAssignableFrom(cls)) {
         var instance = new ActuatorImpl();
-        // TODO
+        var reasoner = scope.getService(Reasoner.class);
+        instance.setId(node.get("id").asLong());
+        instance.setName(node.get("name").isNull() ? null : node.get("name").asString());
+        instance.setStrategyUrn(
+            node.get("strategy").isNull() ? null : node.get("strategy").asString());
+        if (!node.get("semantics").isNull()) {
+          instance.setObservable(reasoner.resolveObservable(node.get("semantics").asString()));
+        }
+        if (!node.get("serializedComputation").isNull()) {
+          for (var call : node.get("serializedComputation").asList(Value::asString)) {
+            instance
+                .getComputation()
+                .add(
+                    org.integratedmodelling.common.utils.Utils.Json.parseObject(
+                        call, ServiceCall.class));
+          }
+        }
+        // TODO coverage, children
         ret.add((T) instance);
       } else if (Plan.class.isAssignableFrom(cls)) {
         var instance = new PlanImpl();
@@ -410,6 +750,26 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     return ret;
   }
 
+  /**
+   * Build an observation from the properties of its node, without the geometry, which is stored
+   * in a separate node.
+   *
+   * @param node
+   * @param scope
+   * @return
+   */
+  private ObservationImpl adaptObservation(Value node, Scope scope) {
+    var instance = new ObservationImpl();
+    var reasoner = scope.getService(Reasoner.class);
+    instance.setUrn(node.get("urn").asString());
+    instance.setName(node.get("name").asString());
+    instance.setObservable(reasoner.resolveObservable(node.get("observable").asString()));
+    instance.setId(node.get("id").asLong());
+    instance.setEventTimestamps(node.get("eventTimestamps").asList(value -> value.asLong()));
+    instance.setSubstantialQuality(node.get("substantial").asBoolean(false));
+    return instance;
+  }
+
   @Override
   public Agent user() {
     return user;
@@ -452,7 +812,7 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
   @Override
   public void clear() {
     if (scope == null) {
-      driver.executableQuery("MATCH (n) DETACH DELETE n").execute();
+      query("MATCH (n) DETACH DELETE n", null, null);
     } else {
       query(Queries.REMOVE_CONTEXT, Map.of("contextId", scope.getId()), scope);
     }
@@ -497,7 +857,7 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
           };
 
       if (geometry != null) {
-        storeGeometry(geometry, asset, null);
+        storeGeometry(geometry, asset);
       }
     }
 
@@ -508,153 +868,108 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     return ret;
   }
 
-  protected long store(
-      org.neo4j.driver.Transaction transaction,
-      RuntimeAsset asset,
-      Scope scope,
-      Object... additionalProperties) {
-
-    var type = getLabel(asset);
-    var props = asParameters(asset, additionalProperties);
-    var ret = nextKey();
-    props.put("id", ret);
-    if (asset instanceof Observation || asset instanceof Activity) {
-      props.put("urn", this.scope.getId() + "." + ret);
-    }
-    var result =
-        query(
-            transaction,
-            Queries.CREATE_WITH_PROPERTIES.replace("{type}", type),
-            Map.of("properties", props),
-            scope);
-    if (result != null && result.hasNext()) {
-
-      setId(asset, ret);
-      var geometry =
-          switch (asset) {
-            case Observation observation -> observation.getGeometry();
-            case Actuator actuator -> actuator.getCoverage();
-            default -> null;
-          };
+  private void storeGeometry(Geometry geometry, RuntimeAsset asset) {
 
-      if (geometry != null) {
-        storeGeometry(geometry, asset, transaction);
-      }
-
-      if (asset instanceof Observation observation) {
-        observationCache.put(observation.getId(), observation);
-      }
-    }
-
-    return ret;
-  }
-
-  protected void link(
-      org.neo4j.driver.Transaction transaction,
-      RuntimeAsset source,
-      RuntimeAsset destination,
-      GraphModel.Relationship relationship,
-      Scope scope,
-      Object... additionalProperties) {
-
-    // find out if the internal ID or what stored ID should be used
-    var sourceQuery = matchAsset(source, "n", "sourceId");
-    var targetQuery = matchAsset(destination, "c", "targetId");
-    var props = asParameters(null, additionalProperties);
-    var query =
-        ("MATCH (n:{fromLabel}), (c:{toLabel}) WHERE {sourceQuery} AND {targetQuery} CREATE (n)"
-                + "-[r:{relationshipLabel}]->(c) SET r = $properties RETURN r")
-            .replace("{sourceQuery}", sourceQuery)
-            .replace("{targetQuery}", targetQuery)
-            .replace("{relationshipLabel}", relationship.name())
-            .replace("{fromLabel}", getLabel(source))
-            .replace("{toLabel}", getLabel(destination));
-
-    query(
-        transaction,
-        query,
-        Map.of("sourceId", getId(source), "targetId", getId(destination), "properties", props),
-        scope);
-  }
-
-  private void storeGeometry(
-      Geometry geometry, RuntimeAsset asset, @Nullable org.neo4j.driver.Transaction transaction) {
-
-    // This guarantees processed, stable geometry representation with WBT
-    var encoded = GeometryRepository.INSTANCE.scale(geometry).encode();
     var relationship = asset instanceof Actuator ? "HAS_COVERAGE" : "HAS_GEOMETRY";
 
     // Must be called after update() and this may happen more than once, so we must check to avoid
     // multiple relationships.
     var exists =
-        transaction == null
-            ? query(
-                "MATCH (n:{assetLabel} {id: $assetId})-[:{relationship}]->(g:Geometry) RETURN g"
-                    .replace("{assetLabel}", getLabel(asset))
-                    .replace("{relationship}", relationship),
-                Map.of("assetId", getId(asset)),
-                scope)
-            : query(
-                transaction,
-                "MATCH (n:{assetLabel} {id: $assetId})-[:{relationship}]->(g:Geometry) RETURN g"
-                    .replace("{assetLabel}", getLabel(asset))
-                    .replace("{relationship}", relationship),
-                Map.of("assetId", getId(asset)),
-                scope);
+        query(
+            "MATCH (n:{assetLabel} {id: $assetId})-[:{relationship}]->(g:Geometry) RETURN g"
+                .replace("{assetLabel}", getLabel(asset))
+                .replace("{relationship}", relationship),
+            Map.of("assetId", getId(asset)),
+            scope);
 
     if (checkExists(exists)) {
       return;
     }
 
-    // only record fully specified scales, not syntactic specifications
-    geometry = GeometryRepository.INSTANCE.scale(geometry);
-
-    double coverage = geometry instanceof Coverage cov ? cov.getCoverage() : 1.0;
+    var row = geometryRow(geometry, getId(asset));
+    var hash = row.get("hash").toString();
+    // TODO more properties pertaining to the link (e.g. separate space/time coverages etc)
+    var properties = Map.of("coverage", row.get("coverage"));
+
+    // if we have seen the geometry, link directly to its node without sending the definition. The
+    // node may have been deleted with its context, so check and fall back to MERGE if not found.
+    var geometryId = geometryNodes.getIfPresent(hash);
+    if (geometryId != null) {
+      var linked =
+          query(
+              ("MATCH (n:{assetLabel} {id: $assetId}), (g:Geometry) WHERE elementId(g) ="
+                      + " $geometryId AND g.hash = $hash CREATE (n)-[r:HAS_GEOMETRY]->(g) SET r ="
+                      + " $properties RETURN r")
+                  .replace("{assetLabel}", getLabel(asset)),
+              Map.of(
+                  "assetId",
+                  getId(asset),
+                  "geometryId",
+                  geometryId,
+                  "hash",
+                  hash,
+                  "properties",
+                  properties),
+              scope);
+      if (checkExists(linked)) {
+        return;
+      }
+      geometryNodes.invalidate(hash);
+    }
 
-    // the idea is that looking up the size before the monster string can be faster.
-    var query = "MATCH (g:Geometry) WHERE g.definition = $definition RETURN g";
+    // TODO more geometry data (bounding box, time boundaries etc.)
     var result =
-        transaction == null
-            ? query(query, Map.of("definition", encoded), scope)
-            : query(transaction, query, Map.of("definition", encoded), scope);
-
-    if (!checkExists(result)) {
-      // TODO more geometry data (bounding box, time boundaries etc.)
-      if (transaction == null) {
         query(
-            "CREATE (g:Geometry {size: $size, definition: $definition, key: $key}) RETURN g",
-            Map.of("size", geometry.size(), "definition", encoded, "key", geometry.key()),
-            scope);
-      } else {
-        query(
-            transaction,
-            "CREATE (g:Geometry {size: $size, definition: $definition, key: $key}) RETURN g",
-            Map.of("size", geometry.size(), "definition", encoded, "key", geometry.key()),
+            ("MATCH (n:{assetLabel} {id: $assetId}) MERGE (g:Geometry {hash: $hash}) ON CREATE SET"
+                    + " g.size = $size, g.definition = $definition, g.key = $key CREATE"
+                    + " (n)-[r:HAS_GEOMETRY]->(g) SET r = $properties RETURN elementId(g) AS"
+                    + " geometryId")
+                .replace("{assetLabel}", getLabel(asset)),
+            Map.of(
+                "assetId",
+                getId(asset),
+                "hash",
+                hash,
+                "size",
+                row.get("size"),
+                "definition",
+                row.get("definition"),
+                "key",
+                row.get("key"),
+                "properties",
+                properties),
             scope);
-      }
-    }
 
-    // TODO more properties pertaining to the link (e.g. separate space/time coverages etc)
-    var properties = Map.of("coverage", coverage);
+    if (result != null && !result.records().isEmpty()) {
+      geometryNodes.put(hash, result.records().getFirst().get("geometryId").asString());
+    }
+  }
 
-    // link it with the associated coverage
-    var rel =
-        transaction == null
-            ? query(
-                ("MATCH (n:{assetLabel}), (g:Geometry) WHERE n.id = $assetId AND g.definition = $geometryKey"
-                        + " CREATE (n)"
-                        + "-[r:HAS_GEOMETRY]->(g) SET r = $properties RETURN r")
-                    .replace("{assetLabel}", getLabel(asset)),
-                Map.of("assetId", getId(asset), "geometryKey", encoded, "properties", properties),
-                scope)
-            : query(
-                transaction,
-                ("MATCH (n:{assetLabel}), (g:Geometry) WHERE n.id = $assetId AND g.definition = $geometryKey"
-                        + " CREATE (n)"
-                        + "-[r:HAS_GEOMETRY]->(g) SET r = $properties RETURN r")
-                    .replace("{assetLabel}", getLabel(asset)),
-                Map.of("assetId", getId(asset), "geometryKey", encoded, "properties", properties),
-                scope);
+  /**
+   * The properties of the geometry node for the passed geometry and of its link to the asset, as a
+   * row suitable for both single and batched (UNWIND) creation.
+   */
+  private Map<String, Object> geometryRow(Geometry geometry, Object assetId) {
+
+    // This guarantees processed, stable geometry representation with WBT. Only record fully
+    // specified scales, not syntactic specifications.
+    var scale = GeometryRepository.INSTANCE.scale(geometry);
+    var encoded = scale.encode();
+    double coverage = scale instanceof Coverage cov ? cov.getCoverage() : 1.0;
+
+    return Map.of(
+        "assetId",
+        assetId,
+        "hash",
+        Utils.Strings.hash(encoded),
+        "definition",
+        encoded,
+        "size",
+        scale.size(),
+        "key",
+        scale.key(),
+        "coverage",
+        coverage);
   }
 
   private boolean checkExists(Object outcome) {
@@ -697,26 +1012,31 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
   }
 
   private String matchAsset(RuntimeAsset asset, String name, String queryVariable) {
+    return name + "." + matchField(asset) + " = $" + queryVariable;
+  }
+
+  /** The node property that identifies the passed asset in the graph. */
+  private String matchField(RuntimeAsset asset) {
 
     var ret =
         switch (asset) {
-          case Activity ignored3 -> name + ".id = $" + queryVariable;
-          case Observation ignored2 -> name + ".id = $" + queryVariable;
-          case Actuator ignored1 -> name + ".id = $" + queryVariable;
-          case Storage.Buffer ignored -> name + ".id = $" + queryVariable;
-          case Agent ignored -> name + ".name = $" + queryVariable;
+          case Activity ignored3 -> "id";
+          case Observation ignored2 -> "id";
+          case Actuator ignored1 -> "id";
+          case Storage.Buffer ignored -> "id";
+          case Agent ignored -> "name";
           default -> null;
         };
 
     if (ret == null) {
       ret =
           switch (asset.classify()) {
-            case DATAFLOW, PROVENANCE, DATA, CONTEXT -> name + ".id = $" + queryVariable;
+            case DATAFLOW, PROVENANCE, DATA, CONTEXT -> "id";
             default -> throw new KlabIllegalStateException("Unexpected value: " + asset.classify());
           };
     }
 
-    return ret == null ? (ret = name + ".id = $" + queryVariable) : ret;
+    return ret;
   }
 
   private Object getId(RuntimeAsset asset) {
@@ -865,21 +1185,6 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
     return ret;
   }
 
-  public void update(
-      org.neo4j.driver.Transaction transaction,
-      RuntimeAsset runtimeAsset,
-      ContextScope scope,
-      Object... parameters) {
-    var props = asParameters(runtimeAsset, parameters);
-    props.remove("id");
-    var result =
-        query(
-            transaction,
-            Queries.UPDATE_PROPERTIES.replace("{type}", getLabel(runtimeAsset)),
-            Map.of("id", runtimeAsset.getId(), "properties", props),
-            scope);
-  }
-
   @Override
   public void update(RuntimeAsset runtimeAsset, ContextScope scope, Object... parameters) {
     var props = asParameters(runtimeAsset, parameters);
@@ -892,25 +1197,28 @@ public abstract class KnowledgeGraphNeo4j extends AbstractKnowledgeGraph {
   }
 
   @Override
-  protected synchronized long nextKey() {
-    var ret = -1L;
-    var lastActivity = System.currentTimeMillis();
-    var result = query("MATCH (n:Statistics) return n.nextId", Map.of(), scope);
-    if (result != null) {
-      if (result.records().isEmpty()) {
-        ret = 1;
-        query("CREATE (n:Statistics {nextId: 1})", Map.of(), scope);
-      } else {
-        var id = result.records().getFirst().get(result.keys().getFirst()).asLong();
-        ret = id + 1;
+  protected long nextKey() {
+    return keyAllocator.nextId();
+  }
+
+  /**
+   * Reserve a block of IDs by moving the high-water mark in the Statistics node in one atomic
+   * update. The node records the last ID reserved.
+   *
+   * @param blockSize
+   * @return the first ID in the reserved block
+   */
+  private long reserveKeys(long blockSize) {
+    var result =
         query(
-            "MATCH (n:Statistics) WHERE n.nextId = $id SET n.nextId = $nextId, n.lastActivity = "
-                + "$lastActivity",
-            Map.of("id", id, "nextId", ret, "lastActivity", lastActivity),
+            "MERGE (n:Statistics) ON CREATE SET n.nextId = 0 SET n.nextId = n.nextId + $blockSize,"
+                + " n.lastActivity = $lastActivity RETURN n.nextId - $blockSize + 1 AS first",
+            Map.of("blockSize", blockSize, "lastActivity", System.currentTimeMillis()),
             scope);
-      }
+    if (result == null || result.records().isEmpty()) {
+      throw new KlabInternalErrorException("Knowledge graph: cannot reserve a block of IDs");
     }
-    return ret;
+    return result.records().getFirst().get("first").asLong();
   }
 
   private List<Activity> getActivity(ContextScope scope, Object... queriables) {
@@ -0,0 +1,87 @@
+package org.integratedmodelling.runtime.tests.neo4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Map;
+import org.integratedmodelling.klab.services.runtime.neo4j.KnowledgeGraphNeo4JEmbedded;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+
+/**
+ * Upgrades a version 1 database containing duplicate geometry definitions, as written by the
+ * lookup-then-create storage of older versions, and checks that the duplicates are merged before
+ * the hash is made unique.
+ */
+class GeometryMigrationTests {
+
+  private static final String DATABASE = "klab";
+
+  @TempDir Path directory;
+
+  private DatabaseManagementService open() {
+    return new DatabaseManagementServiceBuilder(directory)
+        .setConfig(GraphDatabaseSettings.initial_default_database, DATABASE)
+        .build();
+  }
+
+  @Test
+  void mergesDuplicateGeometriesBeforeEnforcingTheHash() {
+
+    var service = open();
+    service
+        .database(DATABASE)
+        .executeTransactionally(
+            "CREATE (:Schema {version: 1}) CREATE (g1:Geometry {definition: $shared, size: 1})"
+                + " CREATE (g2:Geometry {definition: $shared, size: 1}) CREATE (g3:Geometry"
+                + " {definition: $other, size: 1}) CREATE (:Observation {id: 1})-[:HAS_GEOMETRY"
+                + " {coverage: 1.0}]->(g1) CREATE (:Observation {id: 2})-[:HAS_GEOMETRY"
+                + " {coverage: 0.5}]->(g2) CREATE (:Actuator {id: 3})-[:HAS_COVERAGE]->(g2)"
+                + " CREATE (:Observation {id: 4})-[:HAS_GEOMETRY]->(g3)",
+            Map.of("shared", "S2(10,10)", "other", "S2(20,20)"));
+    service.shutdown();
+
+    new KnowledgeGraphNeo4JEmbedded(directory).shutdown();
+
+    service = open();
+    try {
+      var db = service.database(DATABASE);
+
+      assertEquals(
+          3L,
+          db.executeTransactionally(
+              "MATCH (s:Schema) RETURN s.version AS version",
+              Map.of(),
+              r -> ((Number) r.next().get("version")).longValue()));
+
+      assertEquals(
+          2L,
+          db.executeTransactionally(
+              "MATCH (g:Geometry) WHERE g.hash IS NOT NULL RETURN count(g) AS n",
+              Map.of(),
+              r -> (Long) r.next().get("n")));
+
+      assertEquals(
+          1L,
+          db.executeTransactionally(
+              "MATCH (:Observation {id: 1})-[:HAS_GEOMETRY]->(g:Geometry),"
+                  + " (:Observation {id: 2})-[r:HAS_GEOMETRY]->(g),"
+                  + " (:Actuator {id: 3})-[:HAS_COVERAGE]->(g) WHERE r.coverage = 0.5 RETURN"
+                  + " count(g) AS n",
+              Map.of(),
+              r -> (Long) r.next().get("n")));
+
+      assertTrue(
+          db.executeTransactionally(
+              "SHOW CONSTRAINTS YIELD name WHERE name = 'geometry_hash' RETURN count(*) AS n",
+              Map.of(),
+              r -> (Long) r.next().get("n") == 1L));
+    } finally {
+      service.shutdown();
+    }
+  }
+}
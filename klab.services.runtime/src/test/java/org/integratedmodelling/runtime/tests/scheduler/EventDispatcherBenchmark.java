@@ -0,0 +1,52 @@
+package org.integratedmodelling.runtime.tests.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.integratedmodelling.klab.api.knowledge.SemanticType;
+import org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler.EventDispatcher;
+import org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler.SchedulerImpl;
+
+/**
+ * Posts 10^5 temporal transitions to an {@link EventDispatcher} with a few hundred registrations
+ * and prints the retained events, the dispatch count and the used heap every 10^4 steps. With a
+ * bounded replay window the retained events and the heap should stay flat after the window fills.
+ */
+public class EventDispatcherBenchmark {
+
+  private static final int STEPS = 100_000;
+  private static final long STEP = 1000L;
+  private static final int REGISTRATIONS = 300;
+
+  public static void main(String[] args) {
+
+    var dispatched = new AtomicLong();
+    var dispatcher =
+        new EventDispatcher(
+            EventDispatcher.DEFAULT_REPLAY_CAPACITY, (r, e) -> dispatched.incrementAndGet());
+    var types =
+        new SemanticType[] {SemanticType.QUALITY, SemanticType.PROCESS, SemanticType.SUBJECT};
+
+    for (int i = 0; i < REGISTRATIONS; i++) {
+      // staggered spans so that each event only affects part of the registrations
+      long start = (long) (i % 10) * STEPS / 10 * STEP;
+      dispatcher.register(
+          new SchedulerImpl.Registration(
+              i, types[i % types.length], start, start + STEPS / 2 * STEP, null, null));
+    }
+
+    var runtime = Runtime.getRuntime();
+    long time = System.nanoTime();
+    for (int step = 0; step < STEPS; step++) {
+      dispatcher.post(new SchedulerImpl.EventImpl(step * STEP, (step + 1) * STEP, null));
+      if ((step + 1) % 10_000 == 0) {
+        System.gc();
+        System.out.printf(
+            "step %7d: retained events %5d, dispatched %10d, heap %6d KB%n",
+            step + 1,
+            dispatcher.getRetainedEventCount(),
+            dispatched.get(),
+            (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+      }
+    }
+    System.out.printf("%d steps in %d ms%n", STEPS, (System.nanoTime() - time) / 1_000_000);
+  }
+}
@@ -0,0 +1,103 @@
+package org.integratedmodelling.runtime.tests.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.integratedmodelling.klab.api.knowledge.SemanticType;
+import org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler.EventDispatcher;
+import org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler.SchedulerImpl;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which events the {@link EventDispatcher} delivers: new events only to the registrations
+ * whose span they overlap, past ones replayed to new registrations within the retained window, and
+ * everything to registrations without a time span.
+ */
+class EventDispatcherTests {
+
+  private record Delivery(long registration, String event) {}
+
+  private final List<Delivery> deliveries = new ArrayList<>();
+
+  private EventDispatcher dispatcher(int replayCapacity) {
+    return new EventDispatcher(
+        replayCapacity, (r, e) -> deliveries.add(new Delivery(r.id(), describe(e))));
+  }
+
+  private static String describe(SchedulerImpl.EventImpl event) {
+    return event.getType() == SchedulerImpl.EventImpl.Type.INITIALIZATION
+        ? "init"
+        : event.getStart() + "-" + event.getEnd();
+  }
+
+  private static SchedulerImpl.Registration registration(long id, long start, long end) {
+    return new SchedulerImpl.Registration(id, SemanticType.QUALITY, start, end, null, null);
+  }
+
+  private static SchedulerImpl.EventImpl step(long start, long end) {
+    return new SchedulerImpl.EventImpl(start, end, null);
+  }
+
+  @Test
+  void dispatchesOnlyToOverlappingRegistrations() {
+    var dispatcher = dispatcher(10);
+    dispatcher.register(registration(1, 0, 10));
+    dispatcher.register(registration(2, 10, 20));
+    dispatcher.register(registration(3, 5, 15));
+
+    dispatcher.post(step(0, 5));
+    dispatcher.post(step(10, 15));
+    dispatcher.post(step(20, 30));
+
+    // registrations affected by the same event are called in no particular order
+    assertEquals(
+        Set.of(new Delivery(1, "0-5"), new Delivery(2, "10-15"), new Delivery(3, "10-15")),
+        Set.copyOf(deliveries));
+    assertEquals(3, deliveries.size());
+  }
+
+  @Test
+  void replaysRetainedEventsToNewRegistrations() {
+    var dispatcher = dispatcher(2);
+    dispatcher.post(SchedulerImpl.EventImpl.initialization());
+    dispatcher.post(step(0, 10));
+    dispatcher.post(step(10, 20));
+    dispatcher.post(step(20, 30));
+    assertEquals(3, dispatcher.getRetainedEventCount());
+
+    // 0-10 has been dropped from the window; 20-30 doesn't overlap
+    dispatcher.register(registration(1, 0, 20));
+
+    assertEquals(List.of(new Delivery(1, "init"), new Delivery(1, "10-20")), deliveries);
+  }
+
+  @Test
+  void untimedRegistrationsReceiveAllEvents() {
+    var dispatcher = dispatcher(10);
+    dispatcher.post(step(0, 10));
+    dispatcher.register(registration(1, 0, 0));
+    dispatcher.post(SchedulerImpl.EventImpl.initialization());
+    dispatcher.post(step(10, 20));
+
+    assertEquals(
+        List.of(new Delivery(1, "0-10"), new Delivery(1, "init"), new Delivery(1, "10-20")),
+        deliveries);
+  }
+
+  @Test
+  void unregisteredObservationsReceiveNothing() {
+    var dispatcher = dispatcher(10);
+    dispatcher.register(registration(1, 0, 100));
+    dispatcher.register(registration(2, 0, 0));
+    assertEquals(2, dispatcher.getRegistrationCount());
+
+    dispatcher.unregister(1);
+    dispatcher.unregister(2);
+    dispatcher.post(step(0, 10));
+
+    assertEquals(0, dispatcher.getRegistrationCount());
+    assertEquals(List.of(), deliveries);
+  }
+}
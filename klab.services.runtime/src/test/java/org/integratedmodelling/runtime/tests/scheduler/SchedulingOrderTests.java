@@ -0,0 +1,102 @@
+package org.integratedmodelling.runtime.tests.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.integratedmodelling.klab.api.knowledge.observation.Observation;
+import org.integratedmodelling.klab.api.knowledge.observation.impl.ObservationImpl;
+import org.integratedmodelling.klab.services.runtime.digitaltwin.scheduler.SchedulerImpl;
+import org.integratedmodelling.klab.services.runtime.neo4j.KnowledgeGraphNeo4j.Dependency;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the levels computed for the dependencies of an observation: links come first, then the
+ * sequence numbers of the links to the same observation order otherwise independent siblings.
+ */
+class SchedulingOrderTests {
+
+  private static Observation observation(long id) {
+    var ret = new ObservationImpl();
+    ret.setId(id);
+    return ret;
+  }
+
+  private static List<Set<Long>> ids(List<List<Observation>> levels) {
+    return levels.stream()
+        .map(level -> level.stream().map(Observation::getId).collect(Collectors.toSet()))
+        .toList();
+  }
+
+  @Test
+  void siblingsFollowTheSequenceOfTheirLinks() {
+    var target = observation(1);
+    var first = observation(2);
+    var second = observation(3);
+    var levels =
+        SchedulerImpl.schedule(
+            target,
+            List.of(new Dependency(second, 1, 1), new Dependency(first, 1, 0)),
+            o -> false);
+    assertEquals(List.of(Set.of(2L), Set.of(3L)), ids(levels));
+  }
+
+  @Test
+  void siblingsWithTheSameSequenceRunTogether() {
+    var target = observation(1);
+    var levels =
+        SchedulerImpl.schedule(
+            target,
+            List.of(new Dependency(observation(2), 1, 0), new Dependency(observation(3), 1, 0)),
+            o -> false);
+    assertEquals(List.of(Set.of(2L, 3L)), ids(levels));
+  }
+
+  @Test
+  void dependenciesPrecedeTheirDependents() {
+    var target = observation(1);
+    var middle = observation(2);
+    var leaf = observation(3);
+    var levels =
+        SchedulerImpl.schedule(
+            target,
+            List.of(new Dependency(middle, 1, 0), new Dependency(leaf, 2, 0)),
+            o -> false);
+    assertEquals(List.of(Set.of(3L), Set.of(2L)), ids(levels));
+  }
+
+  @Test
+  void upToDateObservationsAreNotFollowed() {
+    var target = observation(1);
+    var middle = observation(2);
+    var leaf = observation(3);
+    var levels =
+        SchedulerImpl.schedule(
+            target,
+            List.of(new Dependency(middle, 1, 0), new Dependency(leaf, 2, 0)),
+            o -> o.getId() == 2);
+    assertEquals(List.of(), ids(levels));
+  }
+
+  @Test
+  void contradictorySequencesFallBackOnTheLinks() {
+    var target = observation(1);
+    var left = observation(2);
+    var right = observation(3);
+    var a = observation(4);
+    var b = observation(5);
+    var levels =
+        SchedulerImpl.schedule(
+            target,
+            List.of(
+                new Dependency(left, 1, 0),
+                new Dependency(right, 1, 0),
+                new Dependency(a, 2, 0),
+                new Dependency(b, 2, 1),
+                new Dependency(b, 3, 0),
+                new Dependency(a, 3, 1)),
+            o -> false);
+    assertEquals(List.of(Set.of(4L, 5L), Set.of(2L, 3L)), ids(levels));
+  }
+}